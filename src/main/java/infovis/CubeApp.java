@@ -0,0 +1,63 @@
+package infovis;
+
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.TravelTimeCube;
+import infovis.util.Resource;
+
+import java.io.File;
+
+/**
+ * Precomputes the travel time cube for the default settings. The length of a
+ * time slot, the change time and the maximal walking time in minutes are set
+ * by the system properties <code>busvis.slot</code>, <code>busvis.wait</code>
+ * and <code>busvis.walk</code>. The cube is written to the cache folder of the
+ * data, where the applications find it, or to the file given by the system
+ * property <code>busvis.cube</code>.
+ * 
+ * @author agent <agent@local>
+ */
+public final class CubeApp {
+
+  /** The default length of a time slot in minutes. */
+  public static final int SLOT = 5;
+
+  /** No constructor. */
+  private CubeApp() {
+    // no constructor
+  }
+
+  /**
+   * Computes the travel time cube.
+   * 
+   * @param args If an argument is provided this path is used as resource path.
+   *          Otherwise the default resources are used.
+   * @throws Exception if the cube cannot be written
+   */
+  public static void main(final String[] args) throws Exception {
+    System.setProperty("java.awt.headless", "true");
+    final BusStationManager m = DesktopApp.loadData(args);
+    final int wait = Integer.getInteger("busvis.wait", 3);
+    final int walk = Integer.getInteger("busvis.walk", 5);
+    final int maxDuration = m.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR;
+    final String path = System.getProperty("busvis.cube");
+    final File file;
+    if(path != null) {
+      file = new File(path);
+    } else {
+      final Resource cache = m.getCache();
+      final Resource res = cache != null
+          ? cache.getFile(TravelTimeCube.fileName(wait, maxDuration, walk)) : null;
+      if(res == null || !res.hasDirectFile()) {
+        System.err.println("No cache folder, use -d <dump> or set busvis.cube.");
+        System.exit(1);
+        return;
+      }
+      file = res.directFile();
+    }
+    TravelTimeCube.build(m, file, Integer.getInteger("busvis.slot", SLOT), wait,
+        maxDuration, walk);
+    System.out.println("Written to " + file);
+  }
+
+}
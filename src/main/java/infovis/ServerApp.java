@@ -0,0 +1,41 @@
+package infovis;
+
+import infovis.data.BusStationManager;
+import infovis.server.RoutingServer;
+import infovis.util.Stopwatch;
+
+/**
+ * Starts the headless routing service. The port is set by the system property
+ * <code>busvis.port</code>, the default is {@link #PORT}.
+ * 
+ * @author agent <agent@local>
+ */
+public final class ServerApp {
+
+  /** The default port. */
+  public static final int PORT = 8080;
+
+  /** No constructor. */
+  private ServerApp() {
+    // no constructor
+  }
+
+  /**
+   * Starts the routing service.
+   * 
+   * @param args If an argument is provided this path is used as resource path.
+   *          Otherwise the default resources are used.
+   * @throws Exception if the server cannot be started
+   */
+  public static void main(final String[] args) throws Exception {
+    System.setProperty("java.awt.headless", "true");
+    final BusStationManager m = DesktopApp.loadData(args);
+    final Stopwatch startup = new Stopwatch();
+    System.out.println("Starting up...");
+    final RoutingServer server = new RoutingServer(m, Integer.getInteger("busvis.port", PORT));
+    server.start();
+    System.out.println("Listening on port " + server.getPort());
+    System.out.println("Took " + startup.current());
+  }
+
+}
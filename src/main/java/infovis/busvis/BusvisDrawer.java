@@ -447,6 +447,11 @@ public final class BusvisDrawer implements NodeDrawer, Fader {
     }
   }
 
+  @Override
+  public void hoverNode(final LayoutNode n) {
+    dist.prefetch(dist.getStation(n));
+  }
+
   @Override
   public boolean hasSecondarySelection() {
     final Controller ctrl = dist.getController();
@@ -6,15 +6,20 @@ import infovis.data.BusEdge;
 import infovis.data.BusStation;
 import infovis.data.BusTime;
 import infovis.data.EdgeMatrix;
+import infovis.routing.RoutingAlgorithm;
 import infovis.routing.RoutingManager;
 import infovis.routing.RoutingManager.CallBack;
 import infovis.routing.RoutingResult;
+import infovis.routing.RoutingUpdate;
+import infovis.routing.TravelTimeCube;
 
 import java.awt.geom.Point2D;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Weights the station network after the distance from one start station.
@@ -23,6 +28,9 @@ import java.util.List;
  */
 public final class BusvisWeighter implements Weighter {
 
+  /** The number of fast forward steps whose routes are computed in advance. */
+  public static final int LOOK_AHEAD = 3;
+
   /** The backing map for the spring nodes. */
   private final BusStation[] map;
 
@@ -39,7 +47,7 @@ public final class BusvisWeighter implements Weighter {
   private volatile RoutingResult[] routes;
 
   /** The current reference time. */
-  private BusTime time = new BusTime(12, 0, 0);
+  private BusTime time = BusTime.NOON;
 
   /** The change time for lines. */
   private int changeTime = 5;
@@ -68,6 +76,19 @@ public final class BusvisWeighter implements Weighter {
   /** The fader. */
   private Fader fader;
 
+  /** Whether the current routes are partial routes of a running routing. */
+  private boolean streaming;
+
+  /** The kind of change of the first partial routes. */
+  private ChangeType streamChange;
+
+  /**
+   * The routes of the last routing in realtime mode, the next ones are derived
+   * from them. <code>null</code> if the routes have to be computed from
+   * scratch.
+   */
+  private volatile RoutingUpdate realtime;
+
   /**
    * Creates a station distance without a reference station.
    * 
@@ -114,20 +135,97 @@ public final class BusvisWeighter implements Weighter {
       final int changeTime, final boolean ffw) {
     fader.setPredict(from);
     if(from == null) {
+      realtime = null;
       putSettings(dummyRoutes, from, time, changeTime, ffw);
       return;
     }
+    final BusTime start = time != null ? time : BusTime.now();
+    final int maxDuration = ctrl.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR;
+    final int walk = ctrl.getWalkTime();
+    final RoutingAlgorithm algo = ctrl.getRoutingAlgorithm();
+    final TravelTimeCube cube = ctrl.isLookup() ? TravelTimeCube.get(ctrl, changeTime,
+        maxDuration, walk) : null;
+    if(cube != null) {
+      // only travel times are stored, so the routes have no edges
+      realtime = null;
+      rm.registerTask(new Callable<RoutingResult[]>() {
+
+        @Override
+        public RoutingResult[] call() throws IOException {
+          return cube.routes(ctrl, from, start);
+        }
+
+      }, new CallBack<RoutingResult[]>() {
+
+        @Override
+        public void callBack(final RoutingResult[] result) {
+          putSettings(result, from, time, changeTime, ffw, false, false);
+        }
+
+      });
+      return;
+    }
+    final RoutingUpdate base = realtime;
+    if(time == null && !ffw && base != null
+        && base.answers(from, changeTime, maxDuration, walk, algo)) {
+      final RoutingUpdate moved = base.shift(start);
+      if(moved != null) {
+        // before the next change time all routes stay, so nothing is routed
+        realtime = moved;
+        putSettings(moved.getRoutes(), from, time, changeTime, ffw, false, true);
+        return;
+      }
+      // a tick of the clock only changes the routes whose first bus has left
+      rm.updateRoutes(base, start, new CallBack<RoutingUpdate>() {
+
+        @Override
+        public void callBack(final RoutingUpdate result) {
+          realtime = result;
+          putSettings(result.getRoutes(), from, time, changeTime, ffw, false,
+              !result.hasChanged());
+        }
+
+      });
+      return;
+    }
+    realtime = null;
     final CallBack<RoutingResult[]> cb = new CallBack<RoutingResult[]>() {
 
       @Override
       public void callBack(final RoutingResult[] result) {
-        putSettings(result, from, time, changeTime, ffw);
+        if(time == null && !ffw) {
+          realtime = RoutingUpdate.of(ctrl, from, start, changeTime, maxDuration, walk,
+              algo, result);
+        }
+        putSettings(result, from, time, changeTime, ffw, false, false);
       }
 
     };
-    rm.findRoutes(ctrl, from, null, time != null ? time : BusTime.now(), changeTime,
-        ctrl.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR, ctrl.getWalkTime(),
-        ctrl.getRoutingAlgorithm(), cb);
+    // the old layout is useless for a new start station, so near stations are shown early
+    final CallBack<RoutingResult[]> progress = from.equals(this.from) ? null
+        : new CallBack<RoutingResult[]>() {
+
+          @Override
+          public void callBack(final RoutingResult[] result) {
+            for(int id = 0; id < result.length; ++id) {
+              if(result[id] == null) {
+                final BusStation s = ctrl.getForId(id);
+                result[id] = s.equals(from) ? new RoutingResult(from)
+                    : new RoutingResult(from, s);
+              }
+            }
+            putSettings(result, from, time, changeTime, ffw, true, false);
+          }
+
+        };
+    rm.findRoutes(ctrl, from, null, start, changeTime, maxDuration, walk, algo, cb,
+        progress);
+    if(ffw) {
+      // the next steps are ready when the clock gets there
+      rm.lookAhead(ctrl, from, null, start,
+          ctrl.getFastForwardStep() * BusTime.SECONDS_PER_MINUTE, LOOK_AHEAD, changeTime,
+          maxDuration, walk, algo);
+    }
   }
 
   /**
@@ -139,10 +237,41 @@ public final class BusvisWeighter implements Weighter {
    * @param changeTime The change time.
    * @param ffw Whether we are in fast forward mode.
    */
-  protected synchronized void putSettings(final RoutingResult[] route,
+  protected void putSettings(final RoutingResult[] route,
       final BusStation from, final BusTime time, final int changeTime, final boolean ffw) {
+    putSettings(route, from, time, changeTime, ffw, false, false);
+  }
+
+  /**
+   * Puts the new settings. Partial routes of a running routing are followed
+   * by more routes with the same settings, those keep the kind of change of
+   * the first partial routes.
+   * 
+   * @param route The routes.
+   * @param from The start station.
+   * @param time The start time.
+   * @param changeTime The change time.
+   * @param ffw Whether we are in fast forward mode.
+   * @param partial Whether the routes are only partial.
+   * @param moved Whether the routes only start later and take the same buses
+   *          and walks as the current ones, so the highlights stay the same.
+   */
+  private synchronized void putSettings(final RoutingResult[] route,
+      final BusStation from, final BusTime time, final int changeTime, final boolean ffw,
+      final boolean partial, final boolean moved) {
     routes = route;
-    matrix.refreshHighlights(routes);
+    if(!moved) {
+      matrix.refreshHighlights(routes);
+    }
+    final boolean same = from == this.from && time == this.time
+        && changeTime == this.changeTime && ffw == this.ffw;
+    final boolean streamed = streaming && same;
+    streaming = partial;
+    if(streamed) {
+      changes = streamChange;
+      animator.forceNextFrame();
+      return;
+    }
     if(from != this.from) {
       fader.initialize(this.from, LayoutNode.NORMAL);
     }
@@ -156,6 +285,7 @@ public final class BusvisWeighter implements Weighter {
     } else {
       changes = NORMAL_CHANGE;
     }
+    streamChange = changes;
     this.from = from;
     this.time = time;
     this.changeTime = changeTime;
@@ -221,8 +351,31 @@ public final class BusvisWeighter implements Weighter {
     return res != null ? res : NO_CHANGE;
   }
 
-  /** Signals undefined changes. */
+  /**
+   * Speculatively computes the routes from the given station with the current
+   * settings, so selecting the station is fast. In realtime mode the start
+   * time changes constantly, so nothing is computed.
+   * 
+   * @param station The station that will likely be selected.
+   */
+  public void prefetch(final BusStation station) {
+    if(!ctrl.isPrefetching()) return;
+    final BusTime t;
+    final int change;
+    // the settings are written by the routing threads
+    synchronized(this) {
+      if(time == null || station.equals(from)) return;
+      t = time;
+      change = changeTime;
+    }
+    rm.prefetch(ctrl, station, null, t, change,
+        ctrl.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR, ctrl.getWalkTime(),
+        ctrl.getRoutingAlgorithm());
+  }
+
+  /** Signals undefined changes. The routes are computed from scratch. */
   public void changeUndefined() {
+    realtime = null;
     set(from, time, changeTime, ffw);
   }
 
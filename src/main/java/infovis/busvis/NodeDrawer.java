@@ -180,6 +180,13 @@ public interface NodeDrawer {
    */
   void moveMouse(Point2D cur);
 
+  /**
+   * Is called when the mouse starts hovering over a node.
+   * 
+   * @param n The node.
+   */
+  void hoverNode(LayoutNode n);
+
   /**
    * Calculates the bounding box of the paint area. This method may return
    * <code>null</code> to indicate that the bounding box is not important.
@@ -5,8 +5,13 @@ import infovis.data.BusStationEnumerator;
 import infovis.data.BusStationManager;
 import infovis.data.BusTime;
 import infovis.layout.Layouts;
+import infovis.routing.ConnectionScanRouteFinder;
+import infovis.routing.ParetoRouteFinder;
+import infovis.routing.RaptorRouteFinder;
 import infovis.routing.RouteFinder;
 import infovis.routing.RoutingAlgorithm;
+import infovis.routing.TimeDependentRouteFinder;
+import infovis.routing.TripRouteFinder;
 import infovis.util.Objects;
 import infovis.util.Resource;
 
@@ -178,6 +183,11 @@ public final class Controller implements BusStationEnumerator {
   /** All routing algorithms. */
   private static final RoutingAlgorithm[] ALGOS = new RoutingAlgorithm[] {
     new RouteFinder(),
+    new RaptorRouteFinder(),
+    new ConnectionScanRouteFinder(),
+    new ParetoRouteFinder(),
+    new TimeDependentRouteFinder(),
+    new TripRouteFinder(),
   };
 
   /**
@@ -409,6 +419,11 @@ public final class Controller implements BusStationEnumerator {
     return manager.getForId(id);
   }
 
+  @Override
+  public Resource getCache() {
+    return manager.getCache();
+  }
+
   /**
    * Sets the focus on the current selected bus station.
    */
@@ -439,10 +454,11 @@ public final class Controller implements BusStationEnumerator {
   /**
    * Setter.
    * 
-   * @param newWalkTime new maximum walk time
+   * @param newWalkTime new maximum walk time, at most
+   *          {@link BusStation#MAX_WALK_MINUTES}
    */
   public void setWalkTime(final int newWalkTime) {
-    currWalkTime = newWalkTime;
+    currWalkTime = Math.min(newWalkTime, BusStation.MAX_WALK_MINUTES);
     for(final BusVisualization v : vis) {
       v.undefinedChange(this);
     }
@@ -566,6 +582,51 @@ public final class Controller implements BusStationEnumerator {
     refreshAll();
   }
 
+  /** Whether routes from hovered stations are computed in advance. */
+  private volatile boolean prefetch = true;
+
+  /**
+   * Setter.
+   * 
+   * @param prefetch Whether routes from hovered stations are computed in
+   *          advance.
+   */
+  public void setPrefetching(final boolean prefetch) {
+    this.prefetch = prefetch;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether routes from hovered stations are computed in advance.
+   */
+  public boolean isPrefetching() {
+    return prefetch;
+  }
+
+  /** Whether routes are looked up in a precomputed travel time cube if there is one. */
+  private volatile boolean lookup = Boolean.getBoolean("busvis.lookup");
+
+  /**
+   * Setter.
+   * 
+   * @param lookup Whether travel times are looked up in a precomputed travel
+   *          time cube if there is one for the current settings.
+   */
+  public void setLookup(final boolean lookup) {
+    this.lookup = lookup;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether travel times are looked up in a precomputed travel time
+   *         cube if there is one for the current settings.
+   */
+  public boolean isLookup() {
+    return lookup;
+  }
+
   /** Whether to show the legend. */
   private boolean showLegend = true;
 
@@ -5,6 +5,7 @@ import static java.lang.Integer.*;
 import infovis.data.csv.CSVBusDataReader;
 import infovis.data.gtfs.GTFSReader;
 import infovis.data.gtfs.LazyGTFSDataProvider;
+import infovis.util.IndexedHeap;
 import infovis.util.Objects;
 import infovis.util.Resource;
 import infovis.util.VecUtil;
@@ -12,8 +13,11 @@ import infovis.util.VecUtil;
 import java.awt.Color;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +30,9 @@ import java.util.Properties;
  */
 public final class BusDataBuilder implements BusStationEnumerator {
 
+  /** The number of landmarks for the lower bounds of travel times. */
+  private static final int LANDMARKS = 8;
+
   /** Maps the external bus station ids to the internal ones. */
   private final Map<String, Integer> idMap = new HashMap<String, Integer>();
   /** Maps a line id to a bus line. */
@@ -347,6 +354,310 @@ public final class BusDataBuilder implements BusStationEnumerator {
     matrix = new EdgeMatrix(this);
   }
 
+  /**
+   * Stores the stations within {@link BusStation#MAX_WALK_MINUTES} sorted by
+   * walking time at every station.
+   */
+  private void computeWalkingNeighbours() {
+    final int maxSecs = BusStation.MAX_WALK_MINUTES * BusTime.SECONDS_PER_MINUTE;
+    for(final BusStation a : stations) {
+      final List<BusStation> near = new ArrayList<BusStation>();
+      for(final BusStation b : stations) {
+        final int secs = a.walkingSeconds(b);
+        if(a != b && secs >= 0 && secs <= maxSecs) {
+          near.add(b);
+        }
+      }
+      Collections.sort(near, new Comparator<BusStation>() {
+
+        @Override
+        public int compare(final BusStation b1, final BusStation b2) {
+          return a.walkingSeconds(b1) - a.walkingSeconds(b2);
+        }
+
+      });
+      final int[] secs = new int[near.size()];
+      for(int i = 0; i < secs.length; ++i) {
+        secs[i] = a.walkingSeconds(near.get(i));
+      }
+      a.setWalkingNeighbours(near.toArray(new BusStation[near.size()]), secs);
+    }
+  }
+
+  /**
+   * Stores the edges arriving at every station sorted by arrival time.
+   */
+  private void computeArrivals() {
+    final List<List<BusEdge>> in = new ArrayList<List<BusEdge>>();
+    for(int i = 0; i < stations.size(); ++i) {
+      in.add(new ArrayList<BusEdge>());
+    }
+    for(final List<BusEdge> out : edges) {
+      for(final BusEdge e : out) {
+        in.get(e.getTo().getId()).add(e);
+      }
+    }
+    final Comparator<BusEdge> cmp = new Comparator<BusEdge>() {
+
+      @Override
+      public int compare(final BusEdge e1, final BusEdge e2) {
+        final int c = e1.getEnd().compareTo(e2.getEnd());
+        return c != 0 ? c : e1.getStart().compareTo(e2.getStart());
+      }
+
+    };
+    for(final BusStation s : stations) {
+      final List<BusEdge> list = in.get(s.getId());
+      Collections.sort(list, cmp);
+      s.setArrivals(list.toArray(new BusEdge[list.size()]));
+    }
+  }
+
+  /**
+   * Computes which stations can be reached from each other and the lower
+   * bounds for travel times. Both are computed on the static network where the
+   * travel time between two neighbouring stations is the one of the fastest
+   * bus or the walking time, waiting is ignored.
+   */
+  private void computeReachability() {
+    final int n = maxId() + 1;
+    final int[][] out = new int[n][];
+    final int[][] outSecs = new int[n][];
+    final int[] outDeg = new int[n];
+    final int[] inDeg = new int[n];
+    final int[] best = new int[n];
+    Arrays.fill(best, -1);
+    final int[] touched = new int[n];
+    for(final BusStation a : stations) {
+      int count = 0;
+      for(final BusEdge e : a.getEdges()) {
+        final int to = e.getTo().getId();
+        final int secs = e.travelSeconds();
+        if(to == a.getId()) {
+          continue;
+        }
+        if(best[to] < 0) {
+          touched[count++] = to;
+          best[to] = secs;
+        } else if(secs < best[to]) {
+          best[to] = secs;
+        }
+      }
+      final int near = a.walkingNeighbours(BusStation.MAX_WALK_MINUTES
+          * BusTime.SECONDS_PER_MINUTE);
+      for(int i = 0; i < near; ++i) {
+        final int to = a.getWalkingNeighbour(i).getId();
+        final int secs = a.getWalkingNeighbourSeconds(i);
+        if(best[to] < 0) {
+          touched[count++] = to;
+          best[to] = secs;
+        } else if(secs < best[to]) {
+          best[to] = secs;
+        }
+      }
+      final int id = a.getId();
+      out[id] = new int[count];
+      outSecs[id] = new int[count];
+      for(int i = 0; i < count; ++i) {
+        final int to = touched[i];
+        out[id][i] = to;
+        outSecs[id][i] = best[to];
+        best[to] = -1;
+        ++inDeg[to];
+      }
+      outDeg[id] = count;
+    }
+    // the reverse graph
+    final int[][] in = new int[n][];
+    final int[][] inSecs = new int[n][];
+    for(int id = 0; id < n; ++id) {
+      in[id] = new int[inDeg[id]];
+      inSecs[id] = new int[inDeg[id]];
+      inDeg[id] = 0;
+    }
+    for(int id = 0; id < n; ++id) {
+      for(int i = 0; i < outDeg[id]; ++i) {
+        final int to = out[id][i];
+        in[to][inDeg[to]] = id;
+        inSecs[to][inDeg[to]++] = outSecs[id][i];
+      }
+    }
+    computeComponents(out);
+    computeLandmarks(out, outSecs, in, inSecs);
+  }
+
+  /**
+   * Computes the strongly connected components of the static network and the
+   * components reachable from every component for
+   * {@link BusStation#canReach(BusStation)}. Tarjan's algorithm finds every
+   * component after all components reachable from it, so their reachable
+   * components are already known.
+   * 
+   * @param out The neighbours per station id.
+   */
+  private void computeComponents(final int[][] out) {
+    final int n = out.length;
+    final int[] index = new int[n];
+    Arrays.fill(index, -1);
+    final int[] low = new int[n];
+    final int[] comp = new int[n];
+    Arrays.fill(comp, -1);
+    final int[] stack = new int[n];
+    final int[] calls = new int[n];
+    final int[] next = new int[n];
+    final List<BitSet> reach = new ArrayList<BitSet>();
+    int counter = 0;
+    int size = 0;
+    for(final BusStation s : stations) {
+      final int root = s.getId();
+      if(index[root] >= 0) {
+        continue;
+      }
+      int depth = 0;
+      calls[0] = root;
+      next[0] = 0;
+      index[root] = low[root] = counter++;
+      stack[size++] = root;
+      while(depth >= 0) {
+        final int v = calls[depth];
+        if(next[depth] < out[v].length) {
+          final int w = out[v][next[depth]++];
+          if(index[w] < 0) {
+            index[w] = low[w] = counter++;
+            stack[size++] = w;
+            calls[++depth] = w;
+            next[depth] = 0;
+          } else if(comp[w] < 0) {
+            low[v] = Math.min(low[v], index[w]);
+          }
+          continue;
+        }
+        if(low[v] == index[v]) {
+          final int c = reach.size();
+          final int top = size;
+          do {
+            comp[stack[--size]] = c;
+          } while(stack[size] != v);
+          final BitSet r = new BitSet();
+          r.set(c);
+          for(int i = size; i < top; ++i) {
+            for(final int w : out[stack[i]]) {
+              if(comp[w] != c) {
+                r.or(reach.get(comp[w]));
+              }
+            }
+          }
+          reach.add(r);
+        }
+        if(--depth >= 0) {
+          final int u = calls[depth];
+          low[u] = Math.min(low[u], low[v]);
+        }
+      }
+    }
+    for(final BusStation s : stations) {
+      final int c = comp[s.getId()];
+      s.setReachable(c, reach.get(c));
+    }
+  }
+
+  /**
+   * Computes the least travel times between all stations and a few landmarks
+   * for the lower bounds of {@link BusStation#lowerBound(BusStation)}. The
+   * landmarks are chosen one after another as the station farthest away from
+   * the ones chosen before.
+   * 
+   * @param out The neighbours per station id.
+   * @param outSecs The travel times to the neighbours per station id.
+   * @param in The reverse neighbours per station id.
+   * @param inSecs The travel times from the reverse neighbours per station id.
+   */
+  private void computeLandmarks(final int[][] out, final int[][] outSecs,
+      final int[][] in, final int[][] inSecs) {
+    final int n = out.length;
+    final int count = Math.min(LANDMARKS, stations.size());
+    final int[][] from = new int[count][];
+    final int[][] to = new int[count][];
+    // the sum of the distances to the nearest landmark per station
+    final long[] score = new long[n];
+    Arrays.fill(score, Long.MAX_VALUE);
+    int landmark = stations.isEmpty() ? -1 : stations.get(0).getId();
+    for(int l = 0; l < count; ++l) {
+      from[l] = distances(out, outSecs, landmark);
+      to[l] = distances(in, inSecs, landmark);
+      int next = -1;
+      for(final BusStation s : stations) {
+        final int id = s.getId();
+        final long dist = from[l][id] < 0 || to[l][id] < 0 ? Long.MAX_VALUE
+            : (long) from[l][id] + to[l][id];
+        score[id] = id == landmark ? -1 : Math.min(score[id], dist);
+        if(next < 0 || score[id] > score[next]) {
+          next = id;
+        }
+      }
+      landmark = next;
+    }
+    for(final BusStation s : stations) {
+      final int id = s.getId();
+      final int[] f = new int[count];
+      final int[] t = new int[count];
+      for(int l = 0; l < count; ++l) {
+        f[l] = from[l][id];
+        t[l] = to[l][id];
+      }
+      s.setLandmarkDistances(f, t);
+    }
+  }
+
+  /**
+   * Computes the least travel times from a station to all others.
+   * 
+   * @param adj The neighbours per station id.
+   * @param secs The travel times to the neighbours per station id.
+   * @param source The id of the station.
+   * @return The travel times by station id, <code>-1</code> for unreachable
+   *         stations.
+   */
+  private static int[] distances(final int[][] adj, final int[][] secs, final int source) {
+    final int[] dist = new int[adj.length];
+    Arrays.fill(dist, -1);
+    final IndexedHeap queue = new IndexedHeap(adj.length);
+    dist[source] = 0;
+    queue.add(source, 0);
+    for(int v; (v = queue.poll()) >= 0;) {
+      final int[] near = adj[v];
+      for(int i = 0; i < near.length; ++i) {
+        final int w = near[i];
+        final int d = dist[v] + secs[v][i];
+        if(dist[w] < 0) {
+          dist[w] = d;
+          queue.add(w, d);
+        } else if(queue.decreaseKey(w, d)) {
+          dist[w] = d;
+        }
+      }
+    }
+    return dist;
+  }
+
+  /** The cache directory. */
+  private Resource cache;
+
+  /**
+   * Setter.
+   * 
+   * @param cache The directory the data is cached in, possibly
+   *          <code>null</code>.
+   */
+  public void setCache(final Resource cache) {
+    this.cache = cache;
+  }
+
+  @Override
+  public Resource getCache() {
+    return cache;
+  }
+
   /** The cached finished bus manager. */
   private BusStationManager result;
 
@@ -357,13 +668,25 @@ public final class BusDataBuilder implements BusStationEnumerator {
    */
   public BusStationManager finish() {
     if(result == null) {
+      final Map<BusLine, Integer> lines = new HashMap<BusLine, Integer>();
       for(final List<BusEdge> e : edges) {
         Collections.sort(e);
+        for(final BusEdge be : e) {
+          if(!lines.containsKey(be.getLine())) {
+            lines.put(be.getLine(), lines.size());
+          }
+        }
+      }
+      for(final BusStation s : stations) {
+        s.packDepartures(lines);
       }
       if(matrix == null) { // fail-safe
         computeEdgeMatrix();
       }
-      result = new BusStationManager(stations, overview, matrix);
+      computeWalkingNeighbours();
+      computeArrivals();
+      computeReachability();
+      result = new BusStationManager(stations, overview, matrix, cache);
     }
     return result;
   }
@@ -2,10 +2,12 @@ package infovis.data;
 
 import infovis.util.Objects;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A {@link BusStation} contains informations about bus stations in the traffic
@@ -15,6 +17,13 @@ import java.util.List;
  */
 public final class BusStation implements Comparable<BusStation> {
 
+  /**
+   * The largest walking time in minutes for which walking neighbours are
+   * known. The controller and the routing server clamp longer walking times
+   * to it.
+   */
+  public static final int MAX_WALK_MINUTES = 2 * BusTime.MINUTES_PER_HOUR;
+
   /** The name of the bus station. */
   private final String name;
 
@@ -36,9 +45,45 @@ public final class BusStation implements Comparable<BusStation> {
   /** A sorted list of all bus edges starting with the earliest edge (00:00). */
   private final List<BusEdge> edges;
 
+  /** The departures of the {@link #edges} in seconds from midnight. */
+  private int[] departSecs = new int[0];
+
+  /** The arrivals of the {@link #edges} in seconds from midnight. */
+  private int[] arriveSecs = new int[0];
+
+  /** The destination ids of the {@link #edges}. */
+  private int[] toStation = new int[0];
+
+  /** The line ids of the {@link #edges}. */
+  private int[] lineId = new int[0];
+
+  /** The tour numbers of the {@link #edges}. */
+  private int[] tourNr = new int[0];
+
+  /** All bus edges arriving at this station sorted by arrival time. */
+  private BusEdge[] arrivals = new BusEdge[0];
+
   /** Walking distances to the other stations. */
   private final List<Integer> walkingDists;
 
+  /** The stations within walking distance sorted by walking time. */
+  private BusStation[] walkNeighbours = new BusStation[0];
+
+  /** The walking times to the {@link #walkNeighbours} in seconds. */
+  private int[] walkNeighbourSecs = new int[0];
+
+  /** The strongly connected component of the station, <code>-1</code> if unknown. */
+  private int component = -1;
+
+  /** The components reachable from this station, <code>null</code> if unknown. */
+  private BitSet reachable;
+
+  /** The least travel times from the landmarks in seconds, <code>-1</code> if unreachable. */
+  private int[] fromLandmarks = new int[0];
+
+  /** The least travel times to the landmarks in seconds, <code>-1</code> if unreachable. */
+  private int[] toLandmarks = new int[0];
+
   /**
    * Creates a bus station.
    * 
@@ -165,6 +210,52 @@ public final class BusStation implements Comparable<BusStation> {
     };
   }
 
+  /**
+   * Finds the latest edge arriving not after the given time.
+   * 
+   * @param arr The edges sorted by arrival time.
+   * @param until The time.
+   * @return The index of the edge, the latest edge of the day if all edges
+   *         arrive later and <code>-1</code> if there are no edges.
+   */
+  private static int latestArrival(final BusEdge[] arr, final BusTime until) {
+    final int size = arr.length;
+    int low = 0, high = size - 1;
+    while(low <= high) {
+      final int mid = (low + high) >>> 1;
+      if(arr[mid].getEnd().compareTo(until) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return size == 0 ? -1 : (high + size) % size;
+  }
+
+  /**
+   * Checks whether a bus arrives at this station in the given period.
+   * 
+   * @param from The beginning of the period.
+   * @param secs The length of the period in seconds.
+   * @return Whether an edge arrives in the period.
+   */
+  public boolean hasArrivals(final BusTime from, final int secs) {
+    final BusEdge[] arr = arrivals;
+    if(arr.length == 0 || secs < 0) return false;
+    if(secs >= BusTime.SECONDS_PER_DAY) return true;
+    final int last = latestArrival(arr, from.later(0, secs));
+    return from.secondsTo(arr[last].getEnd()) <= secs;
+  }
+
+  /**
+   * Sets the edges arriving at this station.
+   * 
+   * @param arrivals The edges sorted by arrival time.
+   */
+  void setArrivals(final BusEdge[] arrivals) {
+    this.arrivals = arrivals;
+  }
+
   /**
    * Finds the first {@link BusEdge} not starting before <code>start</code>.
    * 
@@ -172,27 +263,123 @@ public final class BusStation implements Comparable<BusStation> {
    * @return position if such an edge exists, <code>-1</code> otherwise
    */
   private int binarySearch(final BusTime start) {
-    final int size = edges.size();
-    if(size == 0) return -1;
+    return edges.isEmpty() ? -1 : firstDeparture(start.secondsFromMidnight());
+  }
 
-    if(size < 8) {
-      for(int i = 0; i < size; i++) {
-        if(edges.get(i).getStart().compareTo(start) >= 0) return i;
-      }
-      return 0;
+  /**
+   * Packs the times, destinations, lines, and tours of the edges into arrays,
+   * so routing algorithms can scan the departures without touching the
+   * {@link BusEdge} objects. The edges have to be sorted already.
+   * 
+   * @param lines The ids of the lines.
+   */
+  void packDepartures(final Map<BusLine, Integer> lines) {
+    final int size = edges.size();
+    departSecs = new int[size];
+    arriveSecs = new int[size];
+    toStation = new int[size];
+    lineId = new int[size];
+    tourNr = new int[size];
+    for(int i = 0; i < size; ++i) {
+      final BusEdge e = edges.get(i);
+      departSecs[i] = e.getStart().secondsFromMidnight();
+      arriveSecs[i] = e.getEnd().secondsFromMidnight();
+      toStation[i] = e.getTo().getId();
+      lineId[i] = lines.get(e.getLine());
+      tourNr[i] = e.getTourNr();
     }
+  }
 
-    int low = 0, high = size - 1;
+  /**
+   * Getter.
+   * 
+   * @return The number of departures, ie. edges, of this station.
+   */
+  public int departures() {
+    return departSecs.length;
+  }
+
+  /**
+   * Finds the first departure not before the given time of day. Departures
+   * are sorted by time, the departures of a day can be scanned by going on
+   * cyclically from this index.
+   * 
+   * @param secs The time of day in seconds.
+   * @return The index of the departure, <code>0</code> if all departures are
+   *         earlier.
+   */
+  public int firstDeparture(final int secs) {
+    final int[] dep = departSecs;
+    int low = 0, high = dep.length - 1;
     while(low <= high) {
       final int mid = (low + high) >>> 1;
-    final BusEdge midVal = edges.get(mid);
-    if(midVal.getStart().compareTo(start) < 0) {
-      low = mid + 1;
-    } else {
-      high = mid - 1;
-    }
+      if(dep[mid] < secs) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
     }
-    return low % size;
+    return low < dep.length ? low : 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param i The index of the departure.
+   * @return The departure time in seconds from midnight.
+   */
+  public int getDepartSeconds(final int i) {
+    return departSecs[i];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param i The index of the departure.
+   * @return The arrival time in seconds from midnight.
+   */
+  public int getArriveSeconds(final int i) {
+    return arriveSecs[i];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param i The index of the departure.
+   * @return The id of the destination.
+   */
+  public int getDestinationId(final int i) {
+    return toStation[i];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param i The index of the departure.
+   * @return The id of the line, unique within the bus station manager.
+   */
+  public int getLineId(final int i) {
+    return lineId[i];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param i The index of the departure.
+   * @return The tour number.
+   */
+  public int getTourNr(final int i) {
+    return tourNr[i];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param i The index of the departure.
+   * @return The edge of the departure.
+   */
+  public BusEdge getEdge(final int i) {
+    return edges.get(i);
   }
 
   /**
@@ -242,6 +429,125 @@ public final class BusStation implements Comparable<BusStation> {
     return walkingDists.size() <= oid ? -1 : walkingDists.get(oid);
   }
 
+  /**
+   * Sets the stations within walking distance.
+   * 
+   * @param neighbours The stations sorted by walking time.
+   * @param secs The walking times in seconds.
+   */
+  void setWalkingNeighbours(final BusStation[] neighbours, final int[] secs) {
+    walkNeighbours = neighbours;
+    walkNeighbourSecs = secs;
+  }
+
+  /**
+   * Counts the stations that can be reached by walking for at most the given
+   * time. The stations are the first ones of {@link #getWalkingNeighbour(int)}.
+   * Walks longer than {@link #MAX_WALK_MINUTES} are never considered.
+   * 
+   * @param maxWalkSecs The maximal walking time in seconds.
+   * @return The number of stations within walking distance.
+   */
+  public int walkingNeighbours(final int maxWalkSecs) {
+    int low = 0, high = walkNeighbourSecs.length - 1;
+    while(low <= high) {
+      final int mid = (low + high) >>> 1;
+      if(walkNeighbourSecs[mid] <= maxWalkSecs) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param i The index of the neighbour.
+   * @return The station with the <code>i</code>-th shortest walking time.
+   */
+  public BusStation getWalkingNeighbour(final int i) {
+    return walkNeighbours[i];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param i The index of the neighbour.
+   * @return The walking time to the <code>i</code>-th neighbour in seconds.
+   */
+  public int getWalkingNeighbourSeconds(final int i) {
+    return walkNeighbourSecs[i];
+  }
+
+  /**
+   * Sets the components of stations reachable from this one.
+   * 
+   * @param comp The strongly connected component of this station.
+   * @param reach The components reachable from this station, it is shared by
+   *          all stations of the component.
+   */
+  void setReachable(final int comp, final BitSet reach) {
+    component = comp;
+    reachable = reach;
+  }
+
+  /**
+   * Checks whether the given station can ever be reached from this one by buses
+   * and walks, regardless of the time.
+   * 
+   * @param to The destination.
+   * @return Whether the destination may be reachable.
+   */
+  public boolean canReach(final BusStation to) {
+    return reachable == null || to.component < 0 || reachable.get(to.component);
+  }
+
+  /**
+   * Sets the least travel times between this station and the landmarks.
+   * 
+   * @param from The times from the landmarks in seconds, <code>-1</code> if
+   *          this station is unreachable.
+   * @param to The times to the landmarks in seconds, <code>-1</code> if the
+   *          landmark is unreachable.
+   */
+  void setLandmarkDistances(final int[] from, final int[] to) {
+    fromLandmarks = from;
+    toLandmarks = to;
+  }
+
+  /**
+   * Computes a lower bound for the travel time from this station to the given
+   * one. Waiting times are ignored, so the bound is found via the triangle
+   * inequality from the least travel times between the stations and a few
+   * landmarks. The bound never exceeds the travel time of any route and
+   * shrinks by at most the travel time along any edge, so it can guide a
+   * goal-directed search.
+   * 
+   * @param to The destination.
+   * @return The lower bound in seconds or <code>-1</code> if the destination
+   *         can never be reached from this station.
+   */
+  public int lowerBound(final BusStation to) {
+    if(to.id == id) return 0;
+    int bound = 0;
+    for(int i = 0; i < fromLandmarks.length; ++i) {
+      final int from = fromLandmarks[i];
+      if(from >= 0) {
+        final int other = to.fromLandmarks[i];
+        // the landmark reaches this station but not the destination
+        if(other < 0) return -1;
+        bound = Math.max(bound, other - from);
+      }
+      final int other = to.toLandmarks[i];
+      if(other >= 0 && toLandmarks[i] >= 0) {
+        bound = Math.max(bound, toLandmarks[i] - other);
+      }
+    }
+    return bound;
+  }
+
   /**
    * Getter.
    * 
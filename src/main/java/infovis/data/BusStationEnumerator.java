@@ -1,5 +1,7 @@
 package infovis.data;
 
+import infovis.util.Resource;
+
 import java.util.Collection;
 
 /**
@@ -33,4 +35,13 @@ public interface BusStationEnumerator {
    */
   BusStation getForId(int id);
 
+  /**
+   * Getter.
+   * 
+   * @return The directory the data is cached in or <code>null</code> if the
+   *         data is not cached. Data derived from the bus network may be
+   *         stored there as well.
+   */
+  Resource getCache();
+
 }
@@ -26,16 +26,21 @@ public final class BusStationManager implements BusStationEnumerator {
   /** The edge matrix. */
   private final EdgeMatrix matrix;
 
+  /** The cache directory, possibly <code>null</code>. */
+  private final Resource cache;
+
   /**
    * Constructor taking the map of bus stations.
    * 
    * @param stations bus station map
    * @param overview overview resource, possibly <code>null</code>
    * @param matrix The edge matrix.
+   * @param cache The cache directory, possibly <code>null</code>.
    */
   BusStationManager(final Collection<BusStation> stations,
-      final Resource overview, final EdgeMatrix matrix) {
+      final Resource overview, final EdgeMatrix matrix, final Resource cache) {
     this.overview = overview;
+    this.cache = cache;
     this.matrix = Objects.requireNonNull(matrix);
     fastIterate = Collections.unmodifiableCollection(
         new ArrayList<BusStation>(Objects.requireNonNull(stations)));
@@ -71,6 +76,11 @@ public final class BusStationManager implements BusStationEnumerator {
     return overview;
   }
 
+  @Override
+  public Resource getCache() {
+    return cache;
+  }
+
   @Override
   public BusStation getForId(final int id) {
     return fastLookup[id];
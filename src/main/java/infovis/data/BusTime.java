@@ -4,18 +4,15 @@ import java.util.Calendar;
 import java.util.Comparator;
 
 /**
- * A bus time consists of an hour and a minute.
+ * A bus time consists of an hour and a minute. There are only as many
+ * different times as seconds per day, so the factory methods like
+ * {@link #ofSeconds(int)} and {@link #later(int, int)} return shared
+ * instances instead of creating new objects.
  * 
  * @author Joschi <josua.krause@googlemail.com>
  */
 public final class BusTime implements Comparable<BusTime> {
 
-  /** Midnight. */
-  public static final BusTime MIDNIGHT = new BusTime(0);
-
-  /** Bus time for 12:00 AM. */
-  public static final BusTime NOON = new BusTime(12, 0);
-
   /** The number of hours per day. */
   public static final int HOURS_PER_DAY = 24;
 
@@ -29,9 +26,24 @@ public final class BusTime implements Comparable<BusTime> {
   public static final int MILLISECONDS_PER_SECOND = 1000;
 
   /** The number of seconds in one day. */
-  private static final int SECONDS_PER_DAY =
+  public static final int SECONDS_PER_DAY =
       HOURS_PER_DAY * MINUTES_PER_HOUR * SECONDS_PER_MINUTE;
 
+  /** The shared instances by seconds since midnight. */
+  private static final BusTime[] TIMES = new BusTime[SECONDS_PER_DAY];
+
+  static {
+    for(int i = 0; i < SECONDS_PER_DAY; ++i) {
+      TIMES[i] = new BusTime(i);
+    }
+  }
+
+  /** Midnight. */
+  public static final BusTime MIDNIGHT = TIMES[0];
+
+  /** Bus time for 12:00 AM. */
+  public static final BusTime NOON = TIMES[12 * MINUTES_PER_HOUR * SECONDS_PER_MINUTE];
+
   /** Number of seconds since midnight. */
   private final int seconds;
 
@@ -67,6 +79,44 @@ public final class BusTime implements Comparable<BusTime> {
     seconds = checkRange("seconds since midnight", secondsSinceMidnight, SECONDS_PER_DAY);
   }
 
+  /**
+   * Getter.
+   * 
+   * @param secondsSinceMidnight The seconds since midnight ranging from 0 to
+   *          {@link #SECONDS_PER_DAY} - 1.
+   * @return The shared bus time.
+   * @throws IllegalArgumentException if the value lies outside the range
+   */
+  public static BusTime ofSeconds(final int secondsSinceMidnight) {
+    return TIMES[checkRange("seconds since midnight", secondsSinceMidnight,
+        SECONDS_PER_DAY)];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param hour The hour ranging from 0 to 23.
+   * @param minute The minute ranging from 0 to 59.
+   * @return The shared bus time.
+   */
+  public static BusTime of(final int hour, final int minute) {
+    return of(hour, minute, 0);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param hour The hour ranging from 0 to 23.
+   * @param minute The minute ranging from 0 to 59.
+   * @param second The second ranging from 0 to 59.
+   * @return The shared bus time.
+   */
+  public static BusTime of(final int hour, final int minute, final int second) {
+    return TIMES[(checkRange("hour", hour, HOURS_PER_DAY) * MINUTES_PER_HOUR
+        + checkRange("minute", minute, MINUTES_PER_HOUR)) * SECONDS_PER_MINUTE
+        + checkRange("second", second, SECONDS_PER_MINUTE)];
+  }
+
   /**
    * Checks if the given value lies within the range {@code [0,max)}.
    * 
@@ -150,7 +200,7 @@ public final class BusTime implements Comparable<BusTime> {
    */
   public BusTime later(final int min, final int seconds) {
     final int newSecs = this.seconds + min * SECONDS_PER_MINUTE + seconds;
-    return new BusTime(((newSecs % SECONDS_PER_DAY) + SECONDS_PER_DAY) % SECONDS_PER_DAY);
+    return TIMES[((newSecs % SECONDS_PER_DAY) + SECONDS_PER_DAY) % SECONDS_PER_DAY];
   }
 
   /**
@@ -243,8 +293,8 @@ public final class BusTime implements Comparable<BusTime> {
    * @return The converted time.
    */
   public static BusTime fromCalendar(final Calendar calendar) {
-    return new BusTime(calendar.get(Calendar.HOUR_OF_DAY),
-        calendar.get(Calendar.MINUTE), calendar.get(Calendar.SECOND));
+    return TIMES[(calendar.get(Calendar.HOUR_OF_DAY) * MINUTES_PER_HOUR
+        + calendar.get(Calendar.MINUTE)) * SECONDS_PER_MINUTE + calendar.get(Calendar.SECOND)];
   }
 
   /**
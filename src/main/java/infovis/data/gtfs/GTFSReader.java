@@ -1,7 +1,6 @@
 package infovis.data.gtfs;
 
 import static java.lang.Double.*;
-import static java.lang.Integer.*;
 import infovis.data.BusDataBuilder;
 import infovis.data.BusDataReader;
 import infovis.data.BusLine;
@@ -155,6 +154,7 @@ public class GTFSReader implements BusDataReader {
         System.out.println("Loading cached from " + root);
         final BusDataReader in = new CSVBusDataReader(prop);
         builder = in.read(root);
+        builder.setCache(root);
         System.out.println("Loading took " + t.current());
         writeProperties(prop, ini);
         return builder;
@@ -164,6 +164,7 @@ public class GTFSReader implements BusDataReader {
     if(caching) {
       System.out.println("Writing cache to " + root);
       final Stopwatch t = new Stopwatch();
+      builder.setCache(root);
       final CSVBusDataWriter out = new CSVBusDataWriter(builder.finish());
       out.write(root);
       System.out.println("Took " + t.current());
@@ -321,6 +322,9 @@ public class GTFSReader implements BusDataReader {
   /** The GTFS date format. */
   private static final SimpleDateFormat DATE_PARSER = new SimpleDateFormat("yyyyMMdd");
 
+  /** The upper bound for the hours of a stop time, keeping its seconds in range. */
+  private static final int MAX_HOURS = 100000;
+
   /** A table to look up GTFS names for weekdays. */
   private static final String[] DOW_TABLE = {
     "sunday", "monday", "tuesday", "wednesday", "thursday", "friday", "saturday"
@@ -469,18 +473,30 @@ public class GTFSReader implements BusDataReader {
    * 
    * @param time The time string.
    * @return The actual time.
+   * @throws IllegalArgumentException if the string is not a valid time
    */
   public static final BusTime getTime(final String time) {
-    final String[] sections = time.split(":");
-    if(sections.length != 3) throw new IllegalArgumentException("invalid format: " + time);
-    try {
-      final int h = parseInt(sections[0]);
-      final int m = parseInt(sections[1]);
-      final int s = parseInt(sections[2]);
-      return BusTime.MIDNIGHT.later(h * 60 + m, s);
-    } catch(final NumberFormatException e) {
-      throw new IllegalArgumentException("invalid format: " + time, e);
+    // parsed by hand, since stop times are by far the most common values
+    int secs = 0, val = 0, sections = 1;
+    boolean digits = false;
+    for(int i = 0; i < time.length(); ++i) {
+      final char c = time.charAt(i);
+      if(c >= '0' && c <= '9') {
+        val = 10 * val + c - '0';
+        // minutes and seconds are below 60, hours must not overflow the seconds
+        if(val >= (sections == 1 ? MAX_HOURS : 60)) throw new IllegalArgumentException(
+            "invalid format: " + time);
+        digits = true;
+      } else if(c == ':' && digits && sections < 3) {
+        secs = 60 * secs + val;
+        val = 0;
+        digits = false;
+        ++sections;
+      } else throw new IllegalArgumentException("invalid format: " + time);
     }
+    if(!digits || sections != 3) throw new IllegalArgumentException("invalid format: "
+        + time);
+    return BusTime.MIDNIGHT.later(0, 60 * secs + val);
   }
 
   /**
@@ -754,7 +754,7 @@ public final class ControlPanel extends JPanel implements BusVisualization {
   protected BusTime getStartTime() {
     final int hour = ((Integer) startHours.getValue()).intValue();
     final int minute = ((Integer) startMinutes.getValue()).intValue();
-    return new BusTime(hour, minute);
+    return BusTime.of(hour, minute);
   }
 
   /**
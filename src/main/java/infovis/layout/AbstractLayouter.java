@@ -184,9 +184,17 @@ public abstract class AbstractLayouter extends PainterAdapter implements Animato
   @Override
   public void moveMouse(final Point2D cur) {
     drawer.moveMouse(cur);
+    LayoutNode entered = null;
     for(final LayoutNode n : drawer.nodes()) {
       final Shape s = drawer.nodeClickArea(n, true);
-      hovered.set(n.getId(), s.contains(cur));
+      final boolean hover = s.contains(cur);
+      if(hover && !hovered.get(n.getId())) {
+        entered = n;
+      }
+      hovered.set(n.getId(), hover);
+    }
+    if(entered != null) {
+      drawer.hoverNode(entered);
     }
     if(!hovered.isEmpty()) {
       refreshAll();
@@ -0,0 +1,205 @@
+package infovis.routing;
+
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Stopwatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Computes the travel times between all pairs of stations. The start stations
+ * are distributed over several worker threads. Every worker reuses the search
+ * state of the {@link ConnectionScanRouteFinder} for all of its stations, so
+ * only the rows handed to the consumer are allocated.
+ * 
+ * @author agent <agent@local>
+ */
+public final class AllPairsRouter {
+
+  /** No constructor. */
+  private AllPairsRouter() {
+    // no constructor
+  }
+
+  /**
+   * Receives the travel times from one start station to all stations.
+   * 
+   * @author agent <agent@local>
+   */
+  public interface RowConsumer {
+
+    /**
+     * Is called once for every start station. Calls are never concurrent but
+     * may come from different threads in any order.
+     * 
+     * @param from The start station.
+     * @param seconds The travel times in seconds indexed by the station id,
+     *          <code>-1</code> for unreachable stations and <code>0</code> for
+     *          the start station. The array is not used afterwards.
+     */
+    void row(BusStation from, int[] seconds);
+
+  } // RowConsumer
+
+  /**
+   * Computes the travel times between all pairs of stations using one worker
+   * per available processor.
+   * 
+   * @param bse The bus station enumerator.
+   * @param start The start time.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @param consumer The consumer of the rows.
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public static void compute(final BusStationEnumerator bse, final BusTime start,
+      final int wait, final int maxDuration, final int maxWalk, final RowConsumer consumer)
+          throws InterruptedException {
+    compute(bse, start, wait, maxDuration, maxWalk,
+        Runtime.getRuntime().availableProcessors(), consumer);
+  }
+
+  /**
+   * Computes the travel times between all pairs of stations.
+   * 
+   * @param bse The bus station enumerator.
+   * @param start The start time.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @param threads The number of worker threads.
+   * @param consumer The consumer of the rows.
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public static void compute(final BusStationEnumerator bse, final BusTime start,
+      final int wait, final int maxDuration, final int maxWalk, final int threads,
+      final RowConsumer consumer) throws InterruptedException {
+    if(threads < 1) throw new IllegalArgumentException("threads: " + threads);
+    final Stopwatch t = new Stopwatch();
+    final Timetable table = Timetable.get(bse);
+    final BusStation[] stations = bse.getStations().toArray(new BusStation[0]);
+    final AtomicInteger next = new AtomicInteger();
+    final Throwable[] failure = new Throwable[1];
+    final Worker[] workers = new Worker[Math.min(threads, Math.max(stations.length, 1))];
+    for(int i = 0; i < workers.length; ++i) {
+      workers[i] = new Worker(table, stations, next, start, wait, maxDuration, maxWalk,
+          consumer, failure);
+      workers[i].setName("all-pairs-" + i);
+      workers[i].start();
+    }
+    try {
+      for(final Worker w : workers) {
+        w.join();
+      }
+    } finally {
+      for(final Worker w : workers) {
+        w.interrupt();
+      }
+    }
+    synchronized(failure) {
+      if(failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+      if(failure[0] instanceof Error) throw (Error) failure[0];
+      if(failure[0] != null) throw new InterruptedException();
+    }
+    System.out.println("All pairs (threads: " + workers.length + " time: "
+        + t.current() + " stations: " + stations.length + ")");
+  }
+
+  /**
+   * A worker thread routing from the next unprocessed station until all
+   * stations are done.
+   * 
+   * @author agent <agent@local>
+   */
+  private static final class Worker extends Thread {
+
+    /** The search state, reused for every station. */
+    private final ConnectionScanRouteFinder.Search search;
+
+    /** All start stations. */
+    private final BusStation[] stations;
+
+    /** The index of the next unprocessed station. */
+    private final AtomicInteger next;
+
+    /** The start time. */
+    private final BusTime start;
+
+    /** The change time in minutes. */
+    private final int wait;
+
+    /** The maximal duration in minutes. */
+    private final int maxDuration;
+
+    /** The maximal walking time in minutes. */
+    private final int maxWalk;
+
+    /** The consumer, also used as lock. */
+    private final RowConsumer consumer;
+
+    /** The first failure of any worker. */
+    private final Throwable[] failure;
+
+    /**
+     * Constructor.
+     * 
+     * @param table The time table.
+     * @param stations All start stations.
+     * @param next The index of the next unprocessed station.
+     * @param start The start time.
+     * @param wait The change time in minutes.
+     * @param maxDuration The maximal duration in minutes.
+     * @param maxWalk The maximal walking time in minutes.
+     * @param consumer The consumer.
+     * @param failure The first failure of any worker.
+     */
+    Worker(final Timetable table, final BusStation[] stations, final AtomicInteger next,
+        final BusTime start, final int wait, final int maxDuration, final int maxWalk,
+        final RowConsumer consumer, final Throwable[] failure) {
+      search = new ConnectionScanRouteFinder.Search(table);
+      this.stations = stations;
+      this.next = next;
+      this.start = start;
+      this.wait = wait;
+      this.maxDuration = maxDuration;
+      this.maxWalk = maxWalk;
+      this.consumer = consumer;
+      this.failure = failure;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      final int n = search.table.stationCount;
+      final int startSecs = start.secondsFromMidnight();
+      try {
+        for(int i; (i = next.getAndIncrement()) < stations.length;) {
+          final BusStation from = stations[i];
+          search.reset(from.getId(), null);
+          search.scan(startSecs, 0, wait * BusTime.SECONDS_PER_MINUTE,
+              maxWalk * BusTime.SECONDS_PER_MINUTE,
+              maxDuration * BusTime.SECONDS_PER_MINUTE);
+          final int[] row = new int[n];
+          for(int id = 0; id < n; ++id) {
+            row[id] = id == from.getId() ? 0 : search.seconds(id);
+          }
+          synchronized(consumer) {
+            consumer.row(from, row);
+          }
+        }
+      } catch(final Throwable e) {
+        // stop all other workers
+        next.set(stations.length);
+        synchronized(failure) {
+          if(failure[0] == null) {
+            failure[0] = e;
+          }
+        }
+      }
+    }
+
+  } // Worker
+
+}
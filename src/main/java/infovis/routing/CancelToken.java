@@ -0,0 +1,86 @@
+package infovis.routing;
+
+/**
+ * A token to cooperatively cancel a routing. Routing algorithms obtain the
+ * token of their thread via {@link #current()} and call {@link #check()}
+ * regularly. A cancelled token also interrupts the thread it is attached to,
+ * so blocking tasks stop as well.
+ * 
+ * @author agent <agent@local>
+ */
+public final class CancelToken {
+
+  /** The token attached to the current thread. */
+  private static final ThreadLocal<CancelToken> CURRENT = new ThreadLocal<CancelToken>();
+
+  /** Whether the token is cancelled. */
+  private volatile boolean cancelled;
+
+  /** The thread the token is attached to, guarded by the token. */
+  private Thread runner;
+
+  /**
+   * Getter.
+   * 
+   * @return The token attached to the current thread or a new token if there
+   *         is none.
+   */
+  public static CancelToken current() {
+    final CancelToken token = CURRENT.get();
+    return token != null ? token : new CancelToken();
+  }
+
+  /**
+   * Cancels the token and interrupts the thread it is attached to.
+   */
+  public void cancel() {
+    cancelled = true;
+    synchronized(this) {
+      if(runner != null) {
+        runner.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the token is cancelled.
+   */
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Checks whether the computation should stop.
+   * 
+   * @throws InterruptedException if the token is cancelled or the current
+   *           thread was interrupted
+   */
+  public void check() throws InterruptedException {
+    if(cancelled || Thread.interrupted()) throw new InterruptedException();
+  }
+
+  /**
+   * Attaches the token to the current thread.
+   */
+  void attach() {
+    synchronized(this) {
+      runner = Thread.currentThread();
+    }
+    CURRENT.set(this);
+  }
+
+  /**
+   * Detaches the token from the current thread and clears a pending interrupt
+   * caused by the token.
+   */
+  void detach() {
+    CURRENT.remove();
+    synchronized(this) {
+      runner = null;
+      Thread.interrupted();
+    }
+  }
+
+}
@@ -0,0 +1,439 @@
+package infovis.routing;
+
+import static infovis.routing.Timetable.*;
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Stopwatch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Connection scan routing algorithm. All connections of the {@link Timetable}
+ * are scanned once in order of their departure, starting at the query time.
+ * Since a connection can only be used when its departure station is reached
+ * in time, every label is final as soon as the scan has passed its arrival
+ * time. The search needs no priority queue and works on primitive arrays only.
+ * 
+ * @author agent <agent@local>
+ */
+public final class ConnectionScanRouteFinder implements RoutingAlgorithm {
+
+  @Override
+  public RoutingResult[] findRoutes(final BusStationEnumerator bse,
+      final BusStation station, final BitSet dests, final BusTime start, final int wait,
+      final int maxDuration, final int maxWalk) throws InterruptedException {
+    final Search search = new Search(Timetable.get(bse));
+    search.run(station.getId(), dests, start.secondsFromMidnight(), wait, maxDuration,
+        maxWalk);
+    return search.results(start);
+  }
+
+  /**
+   * Finds a single shortest route from the start station to the destination.
+   * The scan stops as soon as no later connection can improve the arrival at
+   * the destination.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station start station
+   * @param dest destination
+   * @param start start time
+   * @param wait waiting time when changing bus lines
+   * @param maxDuration maximum allowed travel time
+   * @param maxWalk maximum allowed walking time
+   * @return shortest route if found, <code>null</code> otherwise
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public static BusEdge[] findRoute(final BusStationEnumerator bse,
+      final BusStation station, final BusStation dest, final BusTime start,
+      final int wait, final int maxDuration, final int maxWalk)
+          throws InterruptedException {
+    if(station.equals(dest)) return null;
+    final BitSet set = new BitSet();
+    set.set(dest.getId());
+    final Search search = new Search(Timetable.get(bse));
+    search.run(station.getId(), set, start.secondsFromMidnight(), wait, maxDuration,
+        maxWalk);
+    return search.route(dest.getId(), start);
+  }
+
+  @Override
+  public String toString() {
+    return "Connection scan route finder";
+  }
+
+  /**
+   * The state of a search. Every station has one label for arrivals by bus and
+   * one for arrivals by foot, since walking is only allowed directly after the
+   * start or after leaving a bus.
+   * 
+   * @author agent <agent@local>
+   */
+  static final class Search {
+
+    /** Value for unreached labels. */
+    private static final int INF = Integer.MAX_VALUE;
+
+    /** The time table. */
+    final Timetable table;
+
+    /** The number of stations. */
+    private final int n;
+
+    /** The arrival times by bus in seconds after the start. */
+    private final int[] busArr;
+
+    /** The connection a station was reached with by bus. */
+    private final int[] busConn;
+
+    /** The connection the bus reaching a station was boarded with. */
+    private final int[] busBoard;
+
+    /** Whether the bus reaching a station was boarded after walking. */
+    private final boolean[] busWalk;
+
+    /** The arrival times by foot in seconds after the start. */
+    private final int[] walkArr;
+
+    /** The station a station was reached from by foot. */
+    private final int[] walkFrom;
+
+    /** The day the currently reached instance of a trip started. */
+    private final int[] tripDay;
+
+    /** The connection a trip was boarded with. */
+    private final int[] tripBoard;
+
+    /** Whether a trip was boarded after walking. */
+    private final boolean[] tripWalk;
+
+    /** The start station id. */
+    private int source;
+
+    /** The destinations, <code>null</code> means all stations. */
+    private BitSet dests;
+
+    /** All labels not later than this are final. */
+    private int bound;
+
+    /**
+     * Constructor.
+     * 
+     * @param table The time table.
+     */
+    Search(final Timetable table) {
+      this.table = table;
+      n = table.stationCount;
+      busArr = new int[n];
+      busConn = new int[n];
+      busBoard = new int[n];
+      busWalk = new boolean[n];
+      walkArr = new int[n];
+      walkFrom = new int[n];
+      final int trips = table.tripEdges.length;
+      tripDay = new int[trips];
+      tripBoard = new int[trips];
+      tripWalk = new boolean[trips];
+    }
+
+    /**
+     * Runs the search.
+     * 
+     * @param station The start station id.
+     * @param dests The destinations, <code>null</code> means all stations.
+     * @param start The start time in seconds after midnight.
+     * @param wait The change time in minutes.
+     * @param maxDuration The maximal duration in minutes.
+     * @param maxWalk The maximal walking time in minutes.
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    void run(final int station, final BitSet dests, final int start, final int wait,
+        final int maxDuration, final int maxWalk) throws InterruptedException {
+      final Stopwatch t = new Stopwatch();
+      reset(station, dests);
+      final int scanned = scan(start, 0, wait * BusTime.SECONDS_PER_MINUTE,
+          maxWalk * BusTime.SECONDS_PER_MINUTE, maxDuration * BusTime.SECONDS_PER_MINUTE);
+      System.out.println("Routing (thread: " + Thread.currentThread().getName()
+          + " time: " + t.current() + " connections: " + scanned + ")");
+    }
+
+    /**
+     * Clears all labels.
+     * 
+     * @param station The start station id.
+     * @param dests The destinations, <code>null</code> means all stations.
+     */
+    void reset(final int station, final BitSet dests) {
+      source = station;
+      this.dests = dests;
+      Arrays.fill(busArr, INF);
+      Arrays.fill(walkArr, INF);
+    }
+
+    /**
+     * Scans the connections departing from the start station not before the
+     * given time. Labels of earlier scans are kept, so scanning with decreasing
+     * departures only improves labels by routes that arrive strictly earlier
+     * than all routes departing later.
+     * 
+     * @param start The reference time in seconds after midnight. All labels
+     *          are relative to this time.
+     * @param depart The departure at the start station in seconds after the
+     *          reference time.
+     * @param waitSecs The change time in seconds.
+     * @param maxWalkSecs The maximal walking time in seconds.
+     * @param limit The latest allowed arrival in seconds after the reference
+     *          time.
+     * @return The number of scanned connections.
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    int scan(final int start, final int depart, final int waitSecs, final int maxWalkSecs,
+        final int limit) throws InterruptedException {
+      final int station = source;
+      final CancelToken cancel = CancelToken.current();
+      Arrays.fill(tripDay, Integer.MIN_VALUE);
+      busArr[station] = depart;
+      walk(station, depart, maxWalkSecs, limit);
+
+      int missing = dests != null ? missing() : 0;
+      int exit = missing == 0 && dests != null ? maxArrival() : INF;
+
+      final Timetable tt = table;
+      final int[] cs = tt.conns;
+      final int count = tt.connCount;
+      int c = tt.firstConnection((start + depart) % DAY);
+      int day = (start + depart) / DAY;
+      int scanned = 0;
+      bound = limit;
+      for(;; ++c, ++scanned) {
+        if(c == count) {
+          if(count == 0) {
+            break;
+          }
+          c = 0;
+          ++day;
+        }
+        final int o = c * CONN;
+        final int dep = cs[o + C_DEP] + day * DAY - start;
+        if(dep > limit || dep >= exit) {
+          bound = Math.min(dep, limit);
+          break;
+        }
+        if((scanned & 0xfff) == 0) {
+          cancel.check();
+        }
+
+        final int trip = cs[o + C_TRIP];
+        final int inst = day - cs[o + C_DAY];
+        if(tripDay[trip] != inst) {
+          final int from = cs[o + C_FROM];
+          final boolean walked;
+          if(from == station) {
+            walked = false;
+          } else {
+            final int bus = busArr[from];
+            final int foot = walkArr[from];
+            if(bus != INF && bus + waitSecs <= dep) {
+              walked = foot < bus && foot + waitSecs <= dep;
+            } else if(foot != INF && foot + waitSecs <= dep) {
+              walked = true;
+            } else {
+              continue;
+            }
+          }
+          tripDay[trip] = inst;
+          tripBoard[trip] = c;
+          tripWalk[trip] = walked;
+        }
+
+        final int to = cs[o + C_TO];
+        final int arr = cs[o + C_ARR] + day * DAY - start;
+        if(arr > limit || arr >= busArr[to]) {
+          continue;
+        }
+        busArr[to] = arr;
+        busConn[to] = c;
+        busBoard[to] = tripBoard[trip];
+        busWalk[to] = tripWalk[trip];
+        walk(to, arr, maxWalkSecs, limit);
+        if(missing > 0 && (missing = missing()) == 0) {
+          exit = maxArrival();
+        }
+      }
+      return scanned;
+    }
+
+    /**
+     * Relaxes the walking distances from a station.
+     * 
+     * @param from The station id.
+     * @param time The arrival time at the station.
+     * @param maxWalkSecs The maximal walking time in seconds.
+     * @param limit The latest allowed arrival.
+     */
+    private void walk(final int from, final int time, final int maxWalkSecs,
+        final int limit) {
+      final BusStation f = table.stations[from];
+      final int near = f.walkingNeighbours(maxWalkSecs);
+      for(int i = 0; i < near; ++i) {
+        final int id = f.getWalkingNeighbour(i).getId();
+        final int a = time + f.getWalkingNeighbourSeconds(i);
+        if(id != source && a <= limit && a < walkArr[id]) {
+          walkArr[id] = a;
+          walkFrom[id] = from;
+        }
+      }
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param station The station id.
+     * @return The earliest arrival at the station.
+     */
+    int arrival(final int station) {
+      return Math.min(busArr[station], walkArr[station]);
+    }
+
+    /**
+     * Counts the destinations that are not reached yet.
+     * 
+     * @return The number of unreached destinations.
+     */
+    private int missing() {
+      int missing = 0;
+      for(int d = dests.nextSetBit(0); d >= 0; d = dests.nextSetBit(d + 1)) {
+        if(d != source && arrival(d) == INF) {
+          ++missing;
+        }
+      }
+      return missing;
+    }
+
+    /**
+     * Computes the latest arrival at any destination. All destinations must be
+     * reached already.
+     * 
+     * @return The latest arrival.
+     */
+    private int maxArrival() {
+      int max = 0;
+      for(int d = dests.nextSetBit(0); d >= 0; d = dests.nextSetBit(d + 1)) {
+        if(d != source) {
+          max = Math.max(max, arrival(d));
+        }
+      }
+      return max;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param station The station id.
+     * @return The travel time to the station in seconds or <code>-1</code> if
+     *         it was not reached.
+     */
+    int seconds(final int station) {
+      final int a = arrival(station);
+      return a == INF || a > bound && (dests == null || !dests.get(station)) ? -1 : a;
+    }
+
+    /**
+     * Creates the edges of the route to the given station.
+     * 
+     * @param station The station id.
+     * @param start The start time.
+     * @return The edges or <code>null</code> if the station was not reached.
+     */
+    BusEdge[] route(final int station, final BusTime start) {
+      if(station == source || seconds(station) < 0) return null;
+      return edges(station, start);
+    }
+
+    /**
+     * Checks whether the best route to a station consists of a single walk from
+     * the start station.
+     * 
+     * @param station The reached station id.
+     * @return Whether the station is reached by walking from the start.
+     */
+    boolean walkedFromStart(final int station) {
+      return walkArr[station] < busArr[station] && walkFrom[station] == source;
+    }
+
+    /**
+     * Creates the edges of the current best route to a reached station.
+     * 
+     * @param station The station id.
+     * @param start The reference time of the labels.
+     * @return The edges.
+     */
+    BusEdge[] edges(final int station, final BusTime start) {
+      final int[] cs = table.conns;
+      int len = 0;
+      boolean foot = walkArr[station] < busArr[station];
+      for(int s = station; s != source;) {
+        if(foot) {
+          ++len;
+          s = walkFrom[s];
+          foot = false;
+        } else {
+          final int b = busBoard[s] * CONN;
+          len += cs[busConn[s] * CONN + C_POS] - cs[b + C_POS] + 1;
+          foot = busWalk[s];
+          s = cs[b + C_FROM];
+        }
+      }
+      final BusEdge[] res = new BusEdge[len];
+      int i = len;
+      foot = walkArr[station] < busArr[station];
+      for(int s = station; s != source;) {
+        if(foot) {
+          final int p = walkFrom[s];
+          res[--i] = BusEdge.walking(table.stations[p], table.stations[s],
+              start.later(0, busArr[p]), start.later(0, walkArr[s]));
+          s = p;
+          foot = false;
+        } else {
+          final int b = busBoard[s] * CONN;
+          final BusEdge[] trip = table.tripEdges[cs[b + C_TRIP]];
+          for(int e = cs[busConn[s] * CONN + C_POS] + 1; --e >= cs[b + C_POS];) {
+            res[--i] = trip[e];
+          }
+          foot = busWalk[s];
+          s = cs[b + C_FROM];
+        }
+      }
+      return res;
+    }
+
+    /**
+     * Assembles the results of the last search.
+     * 
+     * @param start The start time.
+     * @return The routes to all stations.
+     */
+    RoutingResult[] results(final BusTime start) {
+      final BusStation from = table.stations[source];
+      final RoutingResult[] res = new RoutingResult[n];
+      for(int id = 0; id < n; ++id) {
+        final BusStation to = table.stations[id];
+        if(id == source) {
+          res[id] = new RoutingResult(from);
+          continue;
+        }
+        final int secs = seconds(id);
+        if(secs < 0) {
+          res[id] = new RoutingResult(from, to);
+          continue;
+        }
+        res[id] = new RoutingResult(from, to, route(id, start), start, secs);
+      }
+      return res;
+    }
+
+  } // Search
+
+}
@@ -0,0 +1,535 @@
+package infovis.routing;
+
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Stopwatch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+
+/**
+ * Multi-criteria routing algorithm (McRAPTOR). Instead of one best label every
+ * station holds a bag of labels that are Pareto optimal with respect to the
+ * arrival time, the number of changes and the overall walking time. Like
+ * {@link RaptorRouteFinder} the search works in rounds, so the number of
+ * changes of a label is given by its round. Bags are bounded by
+ * {@link #BAG_SIZE}, when a bag is full the label walking the most is dropped,
+ * but the fastest label of a station is always kept.
+ * 
+ * @author agent <agent@local>
+ */
+public final class ParetoRouteFinder implements RoutingAlgorithm {
+
+  /** The maximal number of labels per station. */
+  public static final int BAG_SIZE = 8;
+
+  @Override
+  public RoutingResult[] findRoutes(final BusStationEnumerator bse,
+      final BusStation station, final BitSet dests, final BusTime start, final int wait,
+      final int maxDuration, final int maxWalk) throws InterruptedException {
+    final RoutingResult[][] all = findParetoRoutes(bse, station, dests, start, wait,
+        maxDuration, maxWalk);
+    final RoutingResult[] res = new RoutingResult[all.length];
+    for(int id = 0; id < all.length; ++id) {
+      // stations that are no destinations count as unreachable
+      res[id] = all[id] != null && all[id].length > 0 ? all[id][0]
+          : new RoutingResult(station, bse.getForId(id));
+    }
+    return res;
+  }
+
+  /**
+   * Finds all Pareto optimal routes with respect to the travel time, the
+   * number of changes and the overall walking time.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station The start station.
+   * @param dests The destinations, <code>null</code> means all stations.
+   * @param start The start time.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal continuous walking time in minutes.
+   * @return The routes by station id, sorted by travel time, then number of
+   *         changes, then walking time. The array for the start station
+   *         contains only the start result, unreachable stations have empty
+   *         arrays.
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public static RoutingResult[][] findParetoRoutes(final BusStationEnumerator bse,
+      final BusStation station, final BitSet dests, final BusTime start, final int wait,
+      final int maxDuration, final int maxWalk) throws InterruptedException {
+    final Search search = new Search(Timetable.get(bse));
+    search.run(station.getId(), start.secondsFromMidnight(), wait, maxDuration, maxWalk);
+    return search.results(dests, start);
+  }
+
+  @Override
+  public String toString() {
+    return "Pareto route finder";
+  }
+
+  /**
+   * The state of a search. Labels are stored in parallel arrays and referenced
+   * by their index.
+   * 
+   * @author agent <agent@local>
+   */
+  static final class Search {
+
+    /** The time table. */
+    final Timetable table;
+
+    /** The number of stations. */
+    private final int n;
+
+    /** The arrival time in seconds after the start per label. */
+    private int[] arrival;
+
+    /** The overall walking time in seconds per label. */
+    private int[] walked;
+
+    /** The previous label, <code>-1</code> for the start. */
+    private int[] prev;
+
+    /** The station of a label. */
+    private int[] station;
+
+    /** The round, ie. the number of used trips, of a label. */
+    private int[] round;
+
+    /** The pattern of a bus label, <code>-1</code> for the start and walks. */
+    private int[] pattern;
+
+    /** The trip instance of a bus label. */
+    private int[] inst;
+
+    /** The boarding position of a bus label. */
+    private int[] board;
+
+    /** The position a bus label leaves the bus. */
+    private int[] alight;
+
+    /** Whether a label was removed from its bag. */
+    private boolean[] dead;
+
+    /** The number of labels. */
+    private int size;
+
+    /** The bags, {@link #BAG_SIZE} slots per station. */
+    private final int[] bags;
+
+    /** The number of labels per bag. */
+    private final int[] bagSize;
+
+    /** Stations that got new labels in the current round. */
+    private final boolean[] marked;
+
+    /** The earliest marked position per pattern. */
+    private final int[] firstPos;
+
+    /** The patterns to scan in the current round. */
+    private final int[] queue;
+
+    /** Labels created in the current round. */
+    private int[] fresh = new int[64];
+
+    /** The number of labels created in the current round. */
+    private int freshCount;
+
+    /** The trip instances of the route bag. */
+    private int[] routeInst = new int[BAG_SIZE];
+
+    /** The boarding labels of the route bag. */
+    private int[] routeLabel = new int[BAG_SIZE];
+
+    /** The boarding positions of the route bag. */
+    private int[] routePos = new int[BAG_SIZE];
+
+    /** The number of entries in the route bag. */
+    private int routeSize;
+
+    /** The start station. */
+    private int source;
+
+    /** The start time in seconds after midnight. */
+    private int startSecs;
+
+    /** The upper bound for arrival times. */
+    private int bound;
+
+    /**
+     * Creates a search for the given time table.
+     * 
+     * @param table The time table.
+     */
+    Search(final Timetable table) {
+      this.table = table;
+      n = table.stationCount;
+      bags = new int[n * BAG_SIZE];
+      bagSize = new int[n];
+      marked = new boolean[n];
+      firstPos = new int[table.patternStops.length];
+      queue = new int[table.patternStops.length];
+      final int cap = Math.max(16, 4 * n);
+      arrival = new int[cap];
+      walked = new int[cap];
+      prev = new int[cap];
+      station = new int[cap];
+      round = new int[cap];
+      pattern = new int[cap];
+      inst = new int[cap];
+      board = new int[cap];
+      alight = new int[cap];
+      dead = new boolean[cap];
+    }
+
+    /**
+     * Runs the search.
+     * 
+     * @param from The start station id.
+     * @param start The start time in seconds after midnight.
+     * @param wait The change time in minutes.
+     * @param maxDuration The maximal duration in minutes.
+     * @param maxWalk The maximal walking time in minutes.
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    void run(final int from, final int start, final int wait, final int maxDuration,
+        final int maxWalk) throws InterruptedException {
+      final Stopwatch t = new Stopwatch();
+      final CancelToken cancel = CancelToken.current();
+      final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+      final int maxWalkSecs = maxWalk * BusTime.SECONDS_PER_MINUTE;
+      source = from;
+      startSecs = start;
+      bound = maxDuration * BusTime.SECONDS_PER_MINUTE;
+      size = 0;
+      freshCount = 0;
+      Arrays.fill(bagSize, 0);
+      Arrays.fill(marked, false);
+      Arrays.fill(firstPos, Integer.MAX_VALUE);
+
+      insert(from, 0, 0, -1, 0, -1, 0, 0, 0);
+      walk(0, maxWalkSecs);
+
+      int rnd = 0;
+      long scanned = 0;
+      for(;;) {
+        int patterns = 0;
+        for(int s = 0; s < n; ++s) {
+          if(!marked[s]) {
+            continue;
+          }
+          marked[s] = false;
+          for(int i = table.stopIndex[s]; i < table.stopIndex[s + 1]; ++i) {
+            final int p = table.stopPatterns[i];
+            if(firstPos[p] == Integer.MAX_VALUE) {
+              queue[patterns++] = p;
+            }
+            firstPos[p] = Math.min(firstPos[p], table.stopPositions[i]);
+          }
+        }
+        if(patterns == 0) {
+          break;
+        }
+        ++rnd;
+        freshCount = 0;
+        for(int q = 0; q < patterns; ++q) {
+          cancel.check();
+          final int p = queue[q];
+          scan(rnd, p, firstPos[p], waitSecs);
+          firstPos[p] = Integer.MAX_VALUE;
+        }
+        scanned += patterns;
+        walk(rnd, maxWalkSecs);
+      }
+      System.out.println("Routing (thread: " + Thread.currentThread().getName()
+          + " time: " + t.current() + " rounds: " + rnd + " patterns: " + scanned
+          + " labels: " + size + ")");
+    }
+
+    /**
+     * Checks whether a label can be followed by a walk, ie. it is the start or
+     * arrives by bus.
+     * 
+     * @param l The label.
+     * @return Whether the label can be followed by a walk.
+     */
+    private boolean canWalk(final int l) {
+      return pattern[l] >= 0 || prev[l] < 0;
+    }
+
+    /**
+     * Inserts a new label into the bag of its station if it is not dominated
+     * by a label of the bag. Labels of the same round dominated by the new
+     * label are removed. A label is only dominated by labels that can be
+     * followed by a walk if it can be followed by a walk itself.
+     * 
+     * @param s The station.
+     * @param arr The arrival time.
+     * @param walk The overall walking time.
+     * @param from The previous label.
+     * @param rnd The round.
+     * @param p The pattern, <code>-1</code> for the start and walks.
+     * @param in The trip instance.
+     * @param on The boarding position.
+     * @param off The position of leaving the bus.
+     */
+    private void insert(final int s, final int arr, final int walk, final int from,
+        final int rnd, final int p, final int in, final int on, final int off) {
+      if(arr > bound) return;
+      final boolean bus = p >= 0 || from < 0;
+      final int base = s * BAG_SIZE;
+      int sz = bagSize[s];
+      for(int i = 0; i < sz; ++i) {
+        final int l = bags[base + i];
+        if(arrival[l] <= arr && walked[l] <= walk && (!bus || canWalk(l))) return;
+      }
+      int fastest = -1;
+      for(int i = 0; i < sz; ++i) {
+        final int l = bags[base + i];
+        if(round[l] == rnd && arr <= arrival[l] && walk <= walked[l]
+            && (bus || !canWalk(l))) {
+          dead[l] = true;
+          bags[base + i--] = bags[base + --sz];
+        } else if(fastest < 0 || arrival[l] < arrival[fastest]) {
+          fastest = l;
+        }
+      }
+      if(sz == BAG_SIZE) {
+        int victim = -1;
+        for(int i = 0; i < sz; ++i) {
+          final int l = bags[base + i];
+          if(l != fastest && (victim < 0 || walked[l] > walked[victim]
+              || walked[l] == walked[victim] && arrival[l] > arrival[victim])) {
+            victim = l;
+          }
+        }
+        if(arr >= arrival[fastest] && walk >= walked[victim]) {
+          bagSize[s] = sz;
+          return;
+        }
+        for(int i = 0; i < sz; ++i) {
+          if(bags[base + i] == victim) {
+            dead[victim] = true;
+            bags[base + i] = bags[base + --sz];
+            break;
+          }
+        }
+      }
+      final int l = newLabel();
+      arrival[l] = arr;
+      walked[l] = walk;
+      prev[l] = from;
+      station[l] = s;
+      round[l] = rnd;
+      pattern[l] = p;
+      inst[l] = in;
+      board[l] = on;
+      alight[l] = off;
+      dead[l] = false;
+      bags[base + sz++] = l;
+      bagSize[s] = sz;
+      marked[s] = true;
+      if(freshCount == fresh.length) {
+        fresh = Arrays.copyOf(fresh, 2 * freshCount);
+      }
+      fresh[freshCount++] = l;
+    }
+
+    /**
+     * Allocates a new label.
+     * 
+     * @return The label.
+     */
+    private int newLabel() {
+      if(size == arrival.length) {
+        final int cap = 2 * size;
+        arrival = Arrays.copyOf(arrival, cap);
+        walked = Arrays.copyOf(walked, cap);
+        prev = Arrays.copyOf(prev, cap);
+        station = Arrays.copyOf(station, cap);
+        round = Arrays.copyOf(round, cap);
+        pattern = Arrays.copyOf(pattern, cap);
+        inst = Arrays.copyOf(inst, cap);
+        board = Arrays.copyOf(board, cap);
+        alight = Arrays.copyOf(alight, cap);
+        dead = Arrays.copyOf(dead, cap);
+      }
+      return size++;
+    }
+
+    /**
+     * Scans a pattern. The route bag holds the trips that can be boarded with
+     * the labels of the previous round, trips that depart later and need more
+     * walking are dropped.
+     * 
+     * @param rnd The current round.
+     * @param p The pattern.
+     * @param from The first position to scan.
+     * @param waitSecs The change time in seconds.
+     */
+    private void scan(final int rnd, final int p, final int from, final int waitSecs) {
+      final Timetable tt = table;
+      final int[] stops = tt.patternStops[p];
+      routeSize = 0;
+      for(int pos = from; pos < stops.length; ++pos) {
+        final int s = stops[pos];
+        for(int r = 0; r < routeSize; ++r) {
+          final int l = routeLabel[r];
+          insert(s, tt.arrival(p, routeInst[r], pos) - startSecs, walked[l], l, rnd, p,
+              routeInst[r], routePos[r], pos);
+        }
+        if(pos == stops.length - 1) {
+          break;
+        }
+        final int base = s * BAG_SIZE;
+        for(int i = 0; i < bagSize[s]; ++i) {
+          final int l = bags[base + i];
+          if(round[l] != rnd - 1) {
+            continue;
+          }
+          final int ready = startSecs + arrival[l] + (prev[l] < 0 ? 0 : waitSecs);
+          final int et = tt.earliestTrip(p, pos, ready);
+          if(et >= 0) {
+            addRoute(p, pos, et, l);
+          }
+        }
+      }
+    }
+
+    /**
+     * Adds a trip to the route bag unless a trip departing earlier with less
+     * walking is already in there.
+     * 
+     * @param p The pattern.
+     * @param pos The boarding position.
+     * @param in The trip instance.
+     * @param l The boarding label.
+     */
+    private void addRoute(final int p, final int pos, final int in, final int l) {
+      final int dep = table.departure(p, in, pos);
+      for(int r = 0; r < routeSize; ++r) {
+        if(table.departure(p, routeInst[r], pos) <= dep
+            && walked[routeLabel[r]] <= walked[l]) return;
+      }
+      for(int r = 0; r < routeSize; ++r) {
+        if(dep <= table.departure(p, routeInst[r], pos)
+            && walked[l] <= walked[routeLabel[r]]) {
+          --routeSize;
+          routeInst[r] = routeInst[routeSize];
+          routeLabel[r] = routeLabel[routeSize];
+          routePos[r--] = routePos[routeSize];
+        }
+      }
+      if(routeSize == routeInst.length) {
+        routeInst = Arrays.copyOf(routeInst, 2 * routeSize);
+        routeLabel = Arrays.copyOf(routeLabel, 2 * routeSize);
+        routePos = Arrays.copyOf(routePos, 2 * routeSize);
+      }
+      routeInst[routeSize] = in;
+      routeLabel[routeSize] = l;
+      routePos[routeSize++] = pos;
+    }
+
+    /**
+     * Adds walks from all labels of the current round that arrived by bus.
+     * 
+     * @param rnd The current round.
+     * @param maxWalkSecs The maximal walking time in seconds.
+     */
+    private void walk(final int rnd, final int maxWalkSecs) {
+      final int count = freshCount;
+      for(int i = 0; i < count; ++i) {
+        final int l = fresh[i];
+        if(dead[l] || !canWalk(l)) {
+          continue;
+        }
+        final BusStation from = table.stations[station[l]];
+        final int near = from.walkingNeighbours(maxWalkSecs);
+        for(int j = 0; j < near; ++j) {
+          final int secs = from.getWalkingNeighbourSeconds(j);
+          insert(from.getWalkingNeighbour(j).getId(), arrival[l] + secs, walked[l] + secs,
+              l, rnd, -1, 0, 0, 0);
+        }
+      }
+    }
+
+    /**
+     * Creates the edges of the route ending in the given label.
+     * 
+     * @param end The last label of the route.
+     * @param start The start time.
+     * @return The edges.
+     */
+    BusEdge[] edges(final int end, final BusTime start) {
+      int len = 0;
+      for(int l = end; prev[l] >= 0; l = prev[l]) {
+        len += pattern[l] < 0 ? 1 : alight[l] - board[l];
+      }
+      final BusEdge[] res = new BusEdge[len];
+      int i = len;
+      for(int l = end; prev[l] >= 0; l = prev[l]) {
+        if(pattern[l] < 0) {
+          final int p = prev[l];
+          res[--i] = BusEdge.walking(table.stations[station[p]],
+              table.stations[station[l]], start.later(0, arrival[p]),
+              start.later(0, arrival[l]));
+        } else {
+          final BusEdge[] trip = table.edges(pattern[l], inst[l]);
+          for(int e = alight[l]; --e >= board[l];) {
+            res[--i] = trip[e];
+          }
+        }
+      }
+      return res;
+    }
+
+    /**
+     * Assembles the results of the last search.
+     * 
+     * @param dests The destinations, <code>null</code> means all stations.
+     * @param start The start time.
+     * @return The routes per station id, <code>null</code> for stations that
+     *         are no destinations.
+     */
+    RoutingResult[][] results(final BitSet dests, final BusTime start) {
+      final BusStation from = table.stations[source];
+      final RoutingResult[][] res = new RoutingResult[n][];
+      final Integer[] order = new Integer[BAG_SIZE];
+      final Comparator<Integer> cmp = new Comparator<Integer>() {
+        @Override
+        public int compare(final Integer a, final Integer b) {
+          if(arrival[a] != arrival[b]) return arrival[a] - arrival[b];
+          if(round[a] != round[b]) return round[a] - round[b];
+          return walked[a] - walked[b];
+        }
+      };
+      for(int id = 0; id < n; ++id) {
+        final BusStation to = table.stations[id];
+        if(to == null || dests != null && !dests.get(id) && id != source) {
+          continue;
+        }
+        if(id == source) {
+          res[id] = new RoutingResult[] { new RoutingResult(from)};
+          continue;
+        }
+        final int sz = bagSize[id];
+        for(int i = 0; i < sz; ++i) {
+          order[i] = bags[id * BAG_SIZE + i];
+        }
+        Arrays.sort(order, 0, sz, cmp);
+        res[id] = new RoutingResult[sz];
+        for(int i = 0; i < sz; ++i) {
+          final int l = order[i];
+          res[id][i] = new RoutingResult(from, to, edges(l, start), start, arrival[l]);
+        }
+      }
+      return res;
+    }
+
+  } // Search
+
+}
@@ -0,0 +1,462 @@
+package infovis.routing;
+
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Stopwatch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Round-based routing algorithm (RAPTOR). Every round scans all patterns that
+ * visit a station improved in the previous round, so the <code>k</code>-th
+ * round finds all fastest routes using <code>k</code> buses. The search works
+ * on the flat arrays of the {@link Timetable} and does not create any objects
+ * until the resulting routes are assembled.
+ * 
+ * @author agent <agent@local>
+ */
+public final class RaptorRouteFinder implements RoutingAlgorithm {
+
+  @Override
+  public RoutingResult[] findRoutes(final BusStationEnumerator bse,
+      final BusStation station, final BitSet dests, final BusTime start, final int wait,
+      final int maxDuration, final int maxWalk) throws InterruptedException {
+    final Search search = new Search(Timetable.get(bse));
+    search.run(station.getId(), dests, start.secondsFromMidnight(), wait, maxDuration,
+        maxWalk);
+    return search.results(start);
+  }
+
+  @Override
+  public String toString() {
+    return "RAPTOR route finder";
+  }
+
+  /**
+   * The state of a search. The arrays are kept between searches so a search
+   * object can be reused for many queries on the same time table. Labels are
+   * stored per round, station and type (arrival by bus or on foot) in slots.
+   * 
+   * @author agent <agent@local>
+   */
+  static final class Search {
+
+    /** Slot type for arrivals by bus and for the start station. */
+    private static final int BUS = 0;
+
+    /** Slot type for arrivals by foot. */
+    private static final int WALK = 1;
+
+    /** The time table. */
+    final Timetable table;
+
+    /** The number of stations. */
+    private final int n;
+
+    /** The arrival times in seconds after the start per slot. */
+    private int[] arrival;
+
+    /** The slot a label was reached from, <code>-1</code> for the start. */
+    private int[] prev;
+
+    /** The pattern of a bus slot. */
+    private int[] pattern;
+
+    /** The trip instance of a bus slot. */
+    private int[] inst;
+
+    /** The boarding position of a bus slot. */
+    private int[] board;
+
+    /** The position a bus slot leaves the bus. */
+    private int[] alight;
+
+    /** The best slot per round and station, <code>-1</code> if unreached. */
+    private int[] best;
+
+    /**
+     * The earliest arrival by bus per station. Walking is only allowed after
+     * arriving by bus, so a later arrival by bus is not dominated by an arrival
+     * on foot.
+     */
+    private final int[] bestBus;
+
+    /** The last round a station was improved by bus. */
+    private final int[] busRound;
+
+    /** The earliest marked position per pattern. */
+    private final int[] firstPos;
+
+    /** The patterns to scan in the current round. */
+    private final int[] queue;
+
+    /** Stations improved in the current round. */
+    private final boolean[] marked;
+
+    /** Stations improved by bus in the current round. */
+    private final int[] byBus;
+
+    /** The start station. */
+    private int source;
+
+    /** The start time in seconds after midnight. */
+    private int startSecs;
+
+    /** The number of the last finished round. */
+    private int rounds;
+
+    /** The destinations, possibly <code>null</code>. */
+    private BitSet dests;
+
+    /** The upper bound for arrival times. */
+    private int bound;
+
+    /**
+     * Creates a search for the given time table.
+     * 
+     * @param table The time table.
+     */
+    Search(final Timetable table) {
+      this.table = table;
+      n = table.stationCount;
+      firstPos = new int[table.patternStops.length];
+      queue = new int[table.patternStops.length];
+      marked = new boolean[n];
+      byBus = new int[n];
+      bestBus = new int[n];
+      busRound = new int[n];
+      ensureRounds(8);
+    }
+
+    /**
+     * Ensures the arrays can hold the given number of rounds.
+     * 
+     * @param r The number of rounds.
+     */
+    private void ensureRounds(final int r) {
+      if(best != null && best.length >= r * n) return;
+      final int slots = 2 * r * n;
+      arrival = grow(arrival, slots);
+      prev = grow(prev, slots);
+      pattern = grow(pattern, slots);
+      inst = grow(inst, slots);
+      board = grow(board, slots);
+      alight = grow(alight, slots);
+      best = grow(best, r * n);
+    }
+
+    /**
+     * Grows an array to the given size keeping its content.
+     * 
+     * @param arr The array, possibly <code>null</code>.
+     * @param size The new size.
+     * @return The array.
+     */
+    private static int[] grow(final int[] arr, final int size) {
+      return arr == null ? new int[size] : Arrays.copyOf(arr, size);
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param round The round.
+     * @param type The slot type.
+     * @param station The station id.
+     * @return The slot.
+     */
+    private int slot(final int round, final int type, final int station) {
+      return (2 * round + type) * n + station;
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param slot The slot.
+     * @return The arrival time of the slot or {@link Integer#MAX_VALUE} if the
+     *         slot is <code>-1</code>.
+     */
+    private int arrivalAt(final int slot) {
+      return slot < 0 ? Integer.MAX_VALUE : arrival[slot];
+    }
+
+    /**
+     * Sets a label. The label becomes the best label of the station if it
+     * arrives earlier than the current one.
+     * 
+     * @param slot The slot.
+     * @param time The arrival time.
+     * @param from The previous slot.
+     * @param round The round.
+     * @param station The station.
+     */
+    private void set(final int slot, final int time, final int from, final int round,
+        final int station) {
+      arrival[slot] = time;
+      prev[slot] = from;
+      if(time < arrivalAt(best[round * n + station])) {
+        best[round * n + station] = slot;
+        marked[station] = true;
+      }
+    }
+
+    /**
+     * Runs the search.
+     * 
+     * @param station The start station id.
+     * @param dests The destinations, <code>null</code> means all stations.
+     * @param start The start time in seconds after midnight.
+     * @param wait The change time in minutes.
+     * @param maxDuration The maximal duration in minutes.
+     * @param maxWalk The maximal walking time in minutes.
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    void run(final int station, final BitSet dests, final int start, final int wait,
+        final int maxDuration, final int maxWalk) throws InterruptedException {
+      final Stopwatch t = new Stopwatch();
+      final CancelToken cancel = CancelToken.current();
+      final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+      final int maxWalkSecs = maxWalk * BusTime.SECONDS_PER_MINUTE;
+      source = station;
+      startSecs = start;
+      this.dests = dests;
+      bound = maxDuration * BusTime.SECONDS_PER_MINUTE;
+      Arrays.fill(best, 0, n, -1);
+      Arrays.fill(marked, false);
+      Arrays.fill(firstPos, Integer.MAX_VALUE);
+      Arrays.fill(bestBus, Integer.MAX_VALUE);
+      Arrays.fill(busRound, -1);
+
+      final int origin = slot(0, BUS, station);
+      set(origin, 0, -1, 0, station);
+      bestBus[station] = 0;
+      busRound[station] = 0;
+      byBus[0] = station;
+      walk(0, 1, maxWalkSecs);
+
+      int round = 0;
+      long scanned = 0;
+      for(;;) {
+        int patterns = 0;
+        for(int s = 0; s < n; ++s) {
+          if(!marked[s]) {
+            continue;
+          }
+          marked[s] = false;
+          for(int i = table.stopIndex[s]; i < table.stopIndex[s + 1]; ++i) {
+            final int p = table.stopPatterns[i];
+            if(firstPos[p] == Integer.MAX_VALUE) {
+              queue[patterns++] = p;
+            }
+            firstPos[p] = Math.min(firstPos[p], table.stopPositions[i]);
+          }
+        }
+        if(patterns == 0) {
+          break;
+        }
+        ++round;
+        ensureRounds(round + 1);
+        System.arraycopy(best, (round - 1) * n, best, round * n, n);
+        int improved = 0;
+        for(int q = 0; q < patterns; ++q) {
+          cancel.check();
+          final int p = queue[q];
+          improved = scan(round, p, firstPos[p], waitSecs, improved);
+          firstPos[p] = Integer.MAX_VALUE;
+        }
+        scanned += patterns;
+        walk(round, improved, maxWalkSecs);
+        updateBound(round);
+      }
+      rounds = round;
+      System.out.println("Routing (thread: " + Thread.currentThread().getName()
+          + " time: " + t.current() + " rounds: " + round
+          + " patterns: " + scanned + ")");
+    }
+
+    /**
+     * Scans a pattern.
+     * 
+     * @param round The current round.
+     * @param p The pattern.
+     * @param from The first position to scan.
+     * @param waitSecs The change time in seconds.
+     * @param improved The number of stations already improved by bus.
+     * @return The new number of stations improved by bus.
+     */
+    private int scan(final int round, final int p, final int from, final int waitSecs,
+        final int improved) {
+      final Timetable tt = table;
+      final int[] stops = tt.patternStops[p];
+      final int prevRound = (round - 1) * n;
+      int count = improved;
+      int cur = -1;
+      int boardPos = -1;
+      int boardSlot = -1;
+      for(int pos = from; pos < stops.length; ++pos) {
+        final int s = stops[pos];
+        if(cur >= 0) {
+          final int a = tt.arrival(p, cur, pos) - startSecs;
+          if(a <= bound && a < bestBus[s]) {
+            if(busRound[s] != round) {
+              busRound[s] = round;
+              byBus[count++] = s;
+            }
+            bestBus[s] = a;
+            final int slot = slot(round, BUS, s);
+            set(slot, a, boardSlot, round, s);
+            pattern[slot] = p;
+            inst[slot] = cur;
+            board[slot] = boardPos;
+            alight[slot] = pos;
+          }
+        }
+        if(pos == stops.length - 1) {
+          break;
+        }
+        final int ps = best[prevRound + s];
+        if(ps < 0) {
+          continue;
+        }
+        final int ready = startSecs + arrival[ps] + (prev[ps] < 0 ? 0 : waitSecs);
+        if(cur >= 0 && tt.departure(p, cur, pos) < ready) {
+          continue;
+        }
+        final int et = tt.earliestTrip(p, pos, ready);
+        if(et >= 0 && (cur < 0 || tt.departure(p, et, pos) < tt.departure(p, cur, pos))) {
+          cur = et;
+          boardPos = pos;
+          boardSlot = ps;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Relaxes the walking distances from all stations reached by bus in the
+     * given round.
+     * 
+     * @param round The round.
+     * @param count The number of stations reached by bus.
+     * @param maxWalkSecs The maximal walking time in seconds.
+     */
+    private void walk(final int round, final int count, final int maxWalkSecs) {
+      final int curRound = round * n;
+      for(int i = 0; i < count; ++i) {
+        final int s = byBus[i];
+        final BusStation from = table.stations[s];
+        final int busSlot = slot(round, BUS, s);
+        final int t = arrival[busSlot];
+        final int near = from.walkingNeighbours(maxWalkSecs);
+        for(int j = 0; j < near; ++j) {
+          final int id = from.getWalkingNeighbour(j).getId();
+          final int a = t + from.getWalkingNeighbourSeconds(j);
+          if(a <= bound && a < arrivalAt(best[curRound + id])) {
+            set(slot(round, WALK, id), a, busSlot, round, id);
+          }
+        }
+      }
+    }
+
+    /**
+     * Tightens the upper bound when all destinations have been reached.
+     * 
+     * @param round The current round.
+     */
+    private void updateBound(final int round) {
+      if(dests == null) return;
+      int max = -1;
+      for(int d = dests.nextSetBit(0); d >= 0; d = dests.nextSetBit(d + 1)) {
+        if(d == source) {
+          continue;
+        }
+        final int s = best[round * n + d];
+        if(s < 0) return;
+        max = Math.max(max, arrival[s]);
+      }
+      if(max >= 0) {
+        bound = Math.min(bound, max);
+      }
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param station The station id.
+     * @return The best slot of the station after the last round.
+     */
+    int bestSlot(final int station) {
+      return best[rounds * n + station];
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param station The station id.
+     * @return The travel time to the station in seconds or <code>-1</code> if
+     *         it was not reached.
+     */
+    int seconds(final int station) {
+      final int s = bestSlot(station);
+      return s < 0 ? -1 : arrival[s];
+    }
+
+    /**
+     * Creates the edges of the route ending in the given slot.
+     * 
+     * @param end The last slot of the route.
+     * @param start The start time.
+     * @return The edges.
+     */
+    BusEdge[] edges(final int end, final BusTime start) {
+      int len = 0;
+      for(int s = end; prev[s] >= 0; s = prev[s]) {
+        len += s / n % 2 == WALK ? 1 : alight[s] - board[s];
+      }
+      final BusEdge[] res = new BusEdge[len];
+      int i = len;
+      for(int s = end; prev[s] >= 0; s = prev[s]) {
+        if(s / n % 2 == WALK) {
+          final int p = prev[s];
+          res[--i] = BusEdge.walking(table.stations[p % n], table.stations[s % n],
+              start.later(0, arrival[p]), start.later(0, arrival[s]));
+        } else {
+          final BusEdge[] trip = table.edges(pattern[s], inst[s]);
+          for(int e = alight[s]; --e >= board[s];) {
+            res[--i] = trip[e];
+          }
+        }
+      }
+      return res;
+    }
+
+    /**
+     * Assembles the results of the last search.
+     * 
+     * @param start The start time.
+     * @return The routes to all stations.
+     */
+    RoutingResult[] results(final BusTime start) {
+      final BusStation from = table.stations[source];
+      final RoutingResult[] res = new RoutingResult[n];
+      for(int id = 0; id < n; ++id) {
+        final BusStation to = table.stations[id];
+        if(id == source) {
+          res[id] = new RoutingResult(from);
+          continue;
+        }
+        final int s = bestSlot(id);
+        if(s < 0 || dests != null && !dests.get(id) && arrival[s] > bound) {
+          res[id] = new RoutingResult(from, to);
+          continue;
+        }
+        res[id] = new RoutingResult(from, to, edges(s, start), start, arrival[s]);
+      }
+      return res;
+    }
+
+  } // Search
+
+}
@@ -0,0 +1,391 @@
+package infovis.routing;
+
+import static infovis.routing.Timetable.*;
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Stopwatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Finds the latest departures from all stations that still reach a given
+ * destination until a given arrival time. The search is a mirrored
+ * {@link ConnectionScanRouteFinder}: the connections of the {@link Timetable}
+ * are scanned once in order of decreasing departure, starting at the arrival
+ * time. A connection is usable if the destination can be reached from its
+ * arrival, so the first usable connection leaving a station is its latest
+ * departure. Bus changes, walks and the change time follow the rules of the
+ * forward scan, so the found departures are exactly the latest ones.
+ * 
+ * @author agent <agent@local>
+ */
+public final class ReverseRouteFinder {
+
+  /** Value for unreached labels. */
+  private static final int NONE = Integer.MIN_VALUE;
+
+  /** The label continues by boarding the latest usable connection. */
+  private static final int BOARD = -1;
+
+  /** The label is at the destination. */
+  private static final int DONE = -2;
+
+  /** No constructor. */
+  private ReverseRouteFinder() {
+    // no constructor
+  }
+
+  /**
+   * Finds the latest routes from all stations to the given destination.
+   * 
+   * @param bse The bus station enumerator.
+   * @param dest The destination.
+   * @param starts The IDs of the start stations, <code>null</code> means all
+   *          stations.
+   * @param arrival The latest arrival time at the destination.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal time in minutes between the departure and
+   *          the latest arrival time.
+   * @param maxWalk The maximal continuous walking time in minutes.
+   * @return The routes by start station id. The start time of a route is the
+   *         latest departure, its end time the arrival at the destination.
+   * @throws InterruptedException if the current thread was interrupted or its
+   *           {@link CancelToken} was cancelled
+   */
+  public static RoutingResult[] findRoutesTo(final BusStationEnumerator bse,
+      final BusStation dest, final BitSet starts, final BusTime arrival, final int wait,
+      final int maxDuration, final int maxWalk) throws InterruptedException {
+    final Stopwatch t = new Stopwatch();
+    final Search search = new Search(Timetable.get(bse), dest.getId(), starts,
+        arrival.secondsFromMidnight(), wait * BusTime.SECONDS_PER_MINUTE,
+        maxWalk * BusTime.SECONDS_PER_MINUTE);
+    final int scanned = search.scan(maxDuration * BusTime.SECONDS_PER_MINUTE);
+
+    final RoutingResult[] res = new RoutingResult[bse.maxId() + 1];
+    for(final BusStation s : bse.getStations()) {
+      final int id = s.getId();
+      if(s.equals(dest)) {
+        res[id] = new RoutingResult(dest);
+      } else if(search.start[id] == NONE) {
+        res[id] = new RoutingResult(s, dest);
+      } else {
+        res[id] = search.result(id, arrival);
+      }
+    }
+
+    System.out.println("Routing (thread: " + Thread.currentThread().getName()
+        + " time: " + t.current() + " connections: " + scanned + " reverse)");
+    return res;
+  }
+
+  /**
+   * The state of a search. Like in the forward scan a station can be left
+   * directly at the start, after arriving by bus or after arriving by foot, so
+   * every station has one label for each case. A label is the latest time at
+   * which the station may be left in that state.
+   * 
+   * @author agent <agent@local>
+   */
+  private static final class Search {
+
+    /** The time table. */
+    private final Timetable table;
+
+    /** The destination id. */
+    private final int dest;
+
+    /** The start stations, <code>null</code> means all stations. */
+    private final BitSet starts;
+
+    /** The latest arrival in seconds after midnight. */
+    private final int end;
+
+    /** The change time in seconds. */
+    private final int waitSecs;
+
+    /** The maximal walking time in seconds. */
+    private final int maxWalkSecs;
+
+    /** The latest departure when starting at a station. */
+    final int[] start;
+
+    /** How a route continues from the start, see {@link #busVia}. */
+    private final int[] startVia;
+
+    /** The latest arrival by bus at a station. */
+    private final int[] bus;
+
+    /**
+     * How a route continues after arriving by bus: {@link #BOARD},
+     * {@link #DONE} or the id of the station walked to.
+     */
+    private final int[] busVia;
+
+    /** The latest arrival by foot at a station. */
+    private final int[] foot;
+
+    /** The latest usable connection leaving a station, <code>-1</code> if none. */
+    private final int[] depConn;
+
+    /** The day of the latest usable connection leaving a station. */
+    private final int[] depDay;
+
+    /** The connection the bus of {@link #depConn} is left with. */
+    private final int[] depExit;
+
+    /** The day of the connection the bus of {@link #depConn} is left with. */
+    private final int[] depExitDay;
+
+    /** The instance of a trip reaching the destination. */
+    private final int[] tripDay;
+
+    /** The connection a trip is left with. */
+    private final int[] tripExit;
+
+    /** The day of the connection a trip is left with. */
+    private final int[] tripExitDay;
+
+    /**
+     * Constructor.
+     * 
+     * @param table The time table.
+     * @param dest The destination id.
+     * @param starts The start stations, <code>null</code> means all stations.
+     * @param end The latest arrival in seconds after midnight.
+     * @param waitSecs The change time in seconds.
+     * @param maxWalkSecs The maximal walking time in seconds.
+     */
+    Search(final Timetable table, final int dest, final BitSet starts, final int end,
+        final int waitSecs, final int maxWalkSecs) {
+      this.table = table;
+      this.dest = dest;
+      this.starts = starts;
+      this.end = end;
+      this.waitSecs = waitSecs;
+      this.maxWalkSecs = maxWalkSecs;
+      final int n = table.stationCount;
+      start = new int[n];
+      startVia = new int[n];
+      bus = new int[n];
+      busVia = new int[n];
+      foot = new int[n];
+      depConn = new int[n];
+      depDay = new int[n];
+      depExit = new int[n];
+      depExitDay = new int[n];
+      Arrays.fill(start, NONE);
+      Arrays.fill(bus, NONE);
+      Arrays.fill(foot, NONE);
+      Arrays.fill(depConn, -1);
+      final int trips = table.tripEdges.length;
+      tripDay = new int[trips];
+      tripExit = new int[trips];
+      tripExitDay = new int[trips];
+      Arrays.fill(tripDay, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Scans the connections backwards in time.
+     * 
+     * @param maxDurSecs The maximal time in seconds between the departure and
+     *          the latest arrival.
+     * @return The number of scanned connections.
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    int scan(final int maxDurSecs) throws InterruptedException {
+      final CancelToken cancel = CancelToken.current();
+      final int limit = end - maxDurSecs;
+      bus[dest] = end;
+      busVia[dest] = DONE;
+      foot[dest] = end;
+      walkTo(dest, limit);
+
+      int missing = missing();
+      int exit = missing == 0 ? minStart() : NONE;
+
+      final Timetable tt = table;
+      final int[] cs = tt.conns;
+      final int count = tt.connCount;
+      int c = tt.firstConnection(end + 1);
+      int day = 0;
+      int scanned = 0;
+      for(;; ++scanned) {
+        if(--c < 0) {
+          if(count == 0) {
+            break;
+          }
+          c = count - 1;
+          --day;
+        }
+        final int o = c * CONN;
+        final int dep = cs[o + C_DEP] + day * DAY;
+        if(dep < limit || dep < exit) {
+          break;
+        }
+        if((scanned & 0xfff) == 0) {
+          cancel.check();
+        }
+
+        final int trip = cs[o + C_TRIP];
+        final int inst = day - cs[o + C_DAY];
+        if(tripDay[trip] != inst) {
+          // the bus has to be left at the end of this connection
+          final int to = cs[o + C_TO];
+          if(cs[o + C_ARR] + day * DAY > bus[to]) {
+            continue;
+          }
+          tripDay[trip] = inst;
+          tripExit[trip] = c;
+          tripExitDay[trip] = day;
+        }
+
+        final int from = cs[o + C_FROM];
+        if(from == dest || depConn[from] >= 0) {
+          // the station has a later departure already
+          continue;
+        }
+        depConn[from] = c;
+        depDay[from] = day;
+        depExit[from] = tripExit[trip];
+        depExitDay[from] = tripExitDay[trip];
+        setStart(from, dep, BOARD);
+        setBus(from, dep - waitSecs, BOARD);
+        foot[from] = dep - waitSecs;
+        walkTo(from, limit);
+        if(missing > 0) {
+          missing = missing();
+        }
+        if(missing == 0) {
+          exit = minStart();
+        }
+      }
+      return scanned;
+    }
+
+    /**
+     * Relaxes the walks to a station that was reached by foot.
+     * 
+     * @param to The station id.
+     * @param limit The earliest allowed departure.
+     */
+    private void walkTo(final int to, final int limit) {
+      final BusStation t = table.stations[to];
+      final int near = t.walkingNeighbours(maxWalkSecs);
+      for(int i = 0; i < near; ++i) {
+        // walking distances are symmetric
+        final int id = t.getWalkingNeighbour(i).getId();
+        final int time = foot[to] - t.getWalkingNeighbourSeconds(i);
+        if(id != dest && time >= limit) {
+          setStart(id, time, to);
+          setBus(id, time, to);
+        }
+      }
+    }
+
+    /**
+     * Updates the latest departure from a start station.
+     * 
+     * @param id The station id.
+     * @param time The departure.
+     * @param via How the route continues.
+     */
+    private void setStart(final int id, final int time, final int via) {
+      if(time > start[id]) {
+        start[id] = time;
+        startVia[id] = via;
+      }
+    }
+
+    /**
+     * Updates the latest arrival by bus at a station.
+     * 
+     * @param id The station id.
+     * @param time The arrival.
+     * @param via How the route continues.
+     */
+    private void setBus(final int id, final int time, final int via) {
+      if(time > bus[id]) {
+        bus[id] = time;
+        busVia[id] = via;
+      }
+    }
+
+    /**
+     * Counts the start stations without a departure yet.
+     * 
+     * @return The number of unreached start stations.
+     */
+    private int missing() {
+      if(starts == null) return 1;
+      int missing = 0;
+      for(int s = starts.nextSetBit(0); s >= 0; s = starts.nextSetBit(s + 1)) {
+        if(s != dest && start[s] == NONE) {
+          ++missing;
+        }
+      }
+      return missing;
+    }
+
+    /**
+     * Computes the earliest departure from any start station. All start
+     * stations must be reached already. No earlier connection can improve
+     * them.
+     * 
+     * @return The earliest departure.
+     */
+    private int minStart() {
+      int min = end;
+      for(int s = starts.nextSetBit(0); s >= 0; s = starts.nextSetBit(s + 1)) {
+        if(s != dest) {
+          min = Math.min(min, start[s]);
+        }
+      }
+      return min;
+    }
+
+    /**
+     * Creates the route from a reached start station.
+     * 
+     * @param id The start station id.
+     * @param arrival The latest arrival time.
+     * @return The route.
+     */
+    RoutingResult result(final int id, final BusTime arrival) {
+      final int[] cs = table.conns;
+      final List<BusEdge> edges = new ArrayList<BusEdge>();
+      int time = start[id];
+      int via = startVia[id];
+      for(int s = id; via != DONE;) {
+        if(via != BOARD) {
+          final BusStation from = table.stations[s];
+          final BusStation to = table.stations[via];
+          final int next = time + from.walkingSeconds(to);
+          edges.add(BusEdge.walking(from, to, arrival.later(0, time - end),
+              arrival.later(0, next - end)));
+          time = next;
+          s = via;
+          via = s == dest ? DONE : BOARD;
+        } else {
+          final int b = depConn[s] * CONN;
+          final int e = depExit[s] * CONN;
+          final BusEdge[] trip = table.tripEdges[cs[b + C_TRIP]];
+          for(int p = cs[b + C_POS]; p <= cs[e + C_POS]; ++p) {
+            edges.add(trip[p]);
+          }
+          time = cs[e + C_ARR] + depExitDay[s] * DAY;
+          s = cs[e + C_TO];
+          via = busVia[s];
+        }
+      }
+      return new RoutingResult(table.stations[id], table.stations[dest], edges,
+          arrival.later(0, start[id] - end), time - start[id]);
+    }
+
+  } // Search
+
+}
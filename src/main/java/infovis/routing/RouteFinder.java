@@ -1,17 +1,14 @@
 package infovis.routing;
 
 import infovis.data.BusEdge;
-import infovis.data.BusLine;
 import infovis.data.BusStation;
 import infovis.data.BusStationEnumerator;
 import infovis.data.BusTime;
+import infovis.util.IndexedHeap;
 import infovis.util.Stopwatch;
 
 import java.util.Arrays;
 import java.util.BitSet;
-import java.util.Comparator;
-import java.util.PriorityQueue;
-import java.util.Queue;
 
 /**
  * Algorithm for finding shortest routes from a given bus station.
@@ -20,24 +17,15 @@ import java.util.Queue;
  */
 public final class RouteFinder implements RoutingAlgorithm {
 
-  /** Comparator for comparing Routes by travel time, length, and walking time. */
-  private static final Comparator<Route> CMP = new Comparator<Route>() {
-    @Override
-    public int compare(final Route o1, final Route o2) {
-      final int timeDiff = o1.travelTime - o2.travelTime;
-      if(timeDiff != 0) return timeDiff;
-      final int stepsDiff = o1.getLength() - o2.getLength();
-      return stepsDiff != 0 ? stepsDiff : o1.walkTimeSecs() - o2.walkTimeSecs();
-    }
-  };
+  /** The maximal number of destinations for a goal-directed search. */
+  private static final int MAX_GOALS = 4;
 
   @Override
   public RoutingResult[] findRoutes(final BusStationEnumerator bse,
       final BusStation station, final BitSet dests, final BusTime start, final int wait,
       final int maxDuration, final int maxWalk) throws InterruptedException {
     final int sid = station.getId();
-    final BusEdge[][] map = findRoutesFrom(bse, station, dests,
-        start, wait, maxDuration, maxWalk);
+    final RouteTree tree = search(bse, station, dests, start, wait, maxDuration, maxWalk);
     final RoutingResult[] res = new RoutingResult[bse.maxId() + 1];
     for(int id = 0; id < res.length; ++id) {
       final BusStation to = bse.getForId(id);
@@ -45,20 +33,20 @@ public final class RouteFinder implements RoutingAlgorithm {
         res[id] = new RoutingResult(station);
         continue;
       }
-      final BusEdge[] list = map[id];
-      if(list == null) {
-        res[id] = new RoutingResult(station, to);
-        continue;
-      }
-      res[id] = new RoutingResult(station, to, list, start,
-          start.secondsTo(list[list.length - 1].getEnd()));
+      final int node = tree.getRoute(id);
+      res[id] = node < 0 ? new RoutingResult(station, to)
+          : new RoutingResult(to, tree, node);
     }
     return res;
   }
 
   /**
    * Finds shortest routes to all reachable stations from the given start
-   * station at the given start time.
+   * station at the given start time. Every route is reported to the
+   * {@link RoutingProgress} of the current thread as soon as it is final. For
+   * few destinations the search is goal-directed, it prefers labels closer to
+   * the destinations by {@link BusStation#lowerBound(BusStation)} and stops as
+   * soon as all destinations are found.
    * 
    * @param bse The bus station enumerator.
    * @param station start position
@@ -77,13 +65,47 @@ public final class RouteFinder implements RoutingAlgorithm {
       final BusStationEnumerator bse, final BusStation station, final BitSet dests,
       final BusTime start, final int wait, final int maxDuration, final int maxWalk)
           throws InterruptedException {
+    final RouteTree tree = search(bse, station, dests, start, wait, maxDuration, maxWalk);
+    final BusEdge[][] res = new BusEdge[bse.maxId() + 1][];
+    res[station.getId()] = new BusEdge[0];
+    for(int id = 0; id < res.length; ++id) {
+      final int node = tree.getRoute(id);
+      if(node >= 0) {
+        res[id] = tree.path(node);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Searches the shortest routes as described in
+   * {@link #findRoutesFrom(BusStationEnumerator, BusStation, BitSet, BusTime, int, int, int)}.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station start position
+   * @param dests set of IDs of stations that should be reached,
+   *          <code>null</code> means all stations
+   * @param start start time
+   * @param wait waiting time when changing lines
+   * @param maxDuration maximum allowed duration of a route
+   * @param maxWalk maximum allowed walking time
+   * @return the tree of the shortest routes
+   * @throws InterruptedException if the current thread was interrupted during
+   *           the computation
+   */
+  private static RouteTree search(final BusStationEnumerator bse, final BusStation station,
+      final BitSet dests, final BusTime start, final int wait, final int maxDuration,
+      final int maxWalk) throws InterruptedException {
     final Stopwatch t = new Stopwatch();
+    final CancelToken cancel = CancelToken.current();
+    final RoutingProgress progress = RoutingProgress.current();
     long edgeCount = 0;
     long enqueued = 0;
 
     final int maxWalkSecs = maxWalk * BusTime.SECONDS_PER_MINUTE;
     final int maxDurSecs = maxDuration * BusTime.SECONDS_PER_MINUTE;
     final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+    final int startSecs = start.secondsFromMidnight();
     // set of stations yet to be found
     final BitSet notFound;
     if(dests == null) {
@@ -95,92 +117,117 @@ public final class RouteFinder implements RoutingAlgorithm {
       notFound = (BitSet) dests.clone();
     }
     notFound.set(station.getId(), false);
+    // destinations that can never be reached in time are not waited for
+    for(int d = notFound.nextSetBit(0); d >= 0; d = notFound.nextSetBit(d + 1)) {
+      if(!mayReach(station, bse.getForId(d), start, maxDurSecs, maxWalkSecs)) {
+        notFound.clear(d);
+      }
+    }
 
     final int stationCount = bse.maxId() + 1;
     final int[] bestTimes = new int[stationCount]; // change time included
     Arrays.fill(bestTimes, -1);
 
-    final Route[] bestRoutes = new Route[stationCount];
+    final int[] bestRoutes = new int[stationCount];
+    Arrays.fill(bestRoutes, -1);
     final int initialQueueSize = stationCount; // yields good avg performance
-    final PriorityQueue<Route> queue = new PriorityQueue<Route>(initialQueueSize, CMP);
-    for(final BusEdge e : station.getEdges(start)) {
-      final Route route = new Route(start, e);
-      if(route.travelTime <= maxDurSecs) {
-        if(maybeEnqueue(queue, bestTimes, waitSecs, route)) {
+    final Labels labels = new Labels(initialQueueSize, stationCount);
+    if(notFound.cardinality() <= MAX_GOALS) {
+      labels.goal(lowerBounds(bse, notFound), maxDurSecs);
+    }
+    final int startDeps = station.departures();
+    for(int k = 0, i = station.firstDeparture(startSecs); k < startDeps;
+        ++k, i = i + 1 < startDeps ? i + 1 : 0) {
+      final int dep = station.getDepartSeconds(i);
+      final int time = secondsBetween(startSecs, dep)
+          + secondsBetween(dep, station.getArriveSeconds(i));
+      if(time <= maxDurSecs) {
+        if(labels.maybeEnqueue(bestTimes, waitSecs, -1, station, i,
+            station.getDestinationId(i), time, 0)) {
           ++enqueued;
         }
       }
     }
 
-    for(final BusStation dest : bse.getStations()) {
-      if(!dest.equals(station)) {
-        final int walkSecs = station.walkingSeconds(dest);
-        if(0 <= walkSecs && walkSecs <= maxWalkSecs) {
-          final BusTime end = start.later(0, walkSecs);
-          final Route route = new Route(start, BusEdge.walking(station, dest, start, end));
-          if(route.travelTime <= maxDurSecs) {
-            if(maybeEnqueue(queue, bestTimes, waitSecs, route)) {
-              ++enqueued;
-            }
-          }
-        }
+    final int walkable = station.walkingNeighbours(Math.min(maxWalkSecs, maxDurSecs));
+    for(int i = 0; i < walkable; ++i) {
+      final int walkSecs = station.getWalkingNeighbourSeconds(i);
+      if(labels.maybeEnqueue(bestTimes, waitSecs, -1, null, -1,
+          station.getWalkingNeighbour(i).getId(), walkSecs, walkSecs)) {
+        ++enqueued;
       }
     }
 
-    for(Route current; !notFound.isEmpty() && (current = queue.poll()) != null;) {
+    // stations on the route of the current label are marked with its index
+    final int[] onRoute = new int[stationCount];
+    Arrays.fill(onRoute, -1);
+    for(int current; !notFound.isEmpty() && (current = labels.poll()) >= 0;) {
       ++edgeCount;
 
-      if(Thread.interrupted()) throw new InterruptedException();
-      final BusEdge last = current.last;
-      final BusStation dest = last.getTo();
+      cancel.check();
+      final boolean walked = labels.edge[current] == null;
+      final int lastLine = labels.line[current];
+      final int lastTour = labels.tour[current];
+      final int destId = labels.station[current];
+      final BusStation dest = bse.getForId(destId);
+      final int travelTime = labels.time[current];
+      final int arrival = (startSecs + travelTime) % BusTime.SECONDS_PER_DAY;
+      onRoute[station.getId()] = current;
+      for(int l = current; l >= 0; l = labels.parent[l]) {
+        onRoute[labels.station[l]] = current;
+      }
 
-      final Route best = bestRoutes[dest.getId()];
-      if(best == null) {
-        bestRoutes[dest.getId()] = current;
-        notFound.set(dest.getId(), false);
+      final int best = bestRoutes[destId];
+      if(best < 0) {
+        bestRoutes[destId] = current;
+        notFound.set(destId, false);
+        if(progress.isWanted()) {
+          progress.settled(new RoutingResult(station, dest,
+              labels.asArray(current, bse, station, start), start, travelTime));
+        }
       }
 
-      final BusTime arrival = last.getEnd();
-      for(final BusEdge e : dest.getEdges(arrival)) {
-        if(current.timePlus(e) > maxDurSecs || current.contains(e.getTo())) {
+      // the departures are scanned cyclically, starting with the first one after the arrival
+      final int deps = dest.departures();
+      for(int k = 0, i = dest.firstDeparture(arrival); k < deps;
+          ++k, i = i + 1 < deps ? i + 1 : 0) {
+        final int dep = dest.getDepartSeconds(i);
+        final int changeSecs = secondsBetween(arrival, dep);
+        final int time = travelTime + changeSecs
+            + secondsBetween(dep, dest.getArriveSeconds(i));
+        final int to = dest.getDestinationId(i);
+        if(time > maxDurSecs || onRoute[to] == current) {
           // violates general invariants
           continue;
         }
 
-        final boolean sameTour = last.sameTour(e);
-        if(!sameTour && arrival.secondsTo(e.getStart()) < waitSecs) {
+        final boolean sameTour = !walked && lastLine == dest.getLineId(i)
+            && lastTour == dest.getTourNr(i);
+        if(!sameTour && changeSecs < waitSecs) {
           // bus is missed
           continue;
         }
 
-        if(best != null
-            && !(sameTour && best.last.getEnd().secondsTo(last.getEnd()) < waitSecs)) {
+        if(best >= 0 && !(sameTour && travelTime - labels.time[best] < waitSecs)) {
           // one could just change the bus from the optimal previous route
           continue;
         }
 
-        if(maybeEnqueue(queue, bestTimes, waitSecs, current.extendedBy(e))) {
+        if(labels.maybeEnqueue(bestTimes, waitSecs, current, dest, i, to, time,
+            labels.walk[current])) {
           ++enqueued;
         }
       }
 
-      if(last.getLine() != BusLine.WALK) {
-        for(final BusStation st : bse.getStations()) {
-          if(!current.contains(st) && bestRoutes[st.getId()] == null) {
-            final int secs = dest.walkingSeconds(st);
-            if(secs < 0 || secs > maxWalkSecs) {
-              continue;
-            }
-
-            final BusTime mid = last.getEnd(), end = mid.later(0, secs);
-            final BusEdge e = BusEdge.walking(dest, st, mid, end);
-
-            if(current.timePlus(e) > maxDurSecs) {
-              // violates general invariants
-              continue;
-            }
-
-            if(maybeEnqueue(queue, bestTimes, waitSecs, current.extendedBy(e))) {
+      if(!walked) {
+        final int near = dest.walkingNeighbours(Math.min(maxWalkSecs,
+            maxDurSecs - travelTime));
+        for(int i = 0; i < near; ++i) {
+          final int id = dest.getWalkingNeighbour(i).getId();
+          if(onRoute[id] != current && bestRoutes[id] < 0) {
+            final int secs = dest.getWalkingNeighbourSeconds(i);
+            if(labels.maybeEnqueue(bestTimes, waitSecs, current, null, -1, id,
+                travelTime + secs, labels.walk[current] + secs)) {
               ++enqueued;
             }
           }
@@ -188,15 +235,7 @@ public final class RouteFinder implements RoutingAlgorithm {
       }
     }
 
-    final BusEdge[][] res = new BusEdge[bse.maxId() + 1][];
-    res[station.getId()] = new BusEdge[0];
-    for(int id = 0; id < bestRoutes.length; ++id) {
-      if(bestRoutes[id] == null) {
-        continue;
-      }
-      res[id] = bestRoutes[id].asArray();
-    }
-
+    final RouteTree res = labels.toTree(bestRoutes, bse, station, start);
     System.out.println("Routing (thread: " + Thread.currentThread().getName()
         + " time: " + t.current() + " edges: " + edgeCount
         + " enqueued: " + enqueued + ")");
@@ -204,65 +243,66 @@ public final class RouteFinder implements RoutingAlgorithm {
   }
 
   /**
-   * Checks if a route may be better than the current optimum and enqueues it if
-   * so. Also the optimum gets updated.
-   * 
-   * @param queue The queue.
-   * @param bestTimes The map for current optima.
-   * @param wait The bus change time in seconds.
-   * @param r The route to maybe add.
-   * @return <code>true</code> if the route was enqueued.
-   */
-  private static boolean maybeEnqueue(final Queue<Route> queue,
-      final int[] bestTimes, final int wait, final Route r) {
-    if(!mayBeBetter(bestTimes, r)) return false;
-    updateBestTime(bestTimes, r.last.getTo(), r.travelTime, wait);
-    queue.add(r);
-    return true;
-  }
-
-  /**
-   * Updates the optimal time to reach a station.
+   * Checks whether a destination may be reachable with the given limits. This
+   * is the case if it can be reached from the start by walking or if it is
+   * statically reachable and a bus arrives at it or at a station in walking
+   * distance early enough.
    * 
-   * @param bestTimes The map for current optima.
-   * @param station The station.
-   * @param curTime The time in seconds.
-   * @param wait The bus change time in seconds.
+   * @param from The start station.
+   * @param to The destination.
+   * @param start The start time.
+   * @param maxDurSecs The maximal travel time in seconds.
+   * @param maxWalkSecs The maximal walking time in seconds.
+   * @return <code>false</code> if the destination is unreachable for sure.
    */
-  private static void updateBestTime(final int[] bestTimes,
-      final BusStation station, final int curTime, final int wait) {
-    final int id = station.getId();
-    final int bestTime = bestTimes[id];
-    final int newTime = curTime + Math.max(wait, 0);
-    if(bestTime < 0 || newTime < bestTime) {
-      bestTimes[id] = newTime;
+  private static boolean mayReach(final BusStation from, final BusStation to,
+      final BusTime start, final int maxDurSecs, final int maxWalkSecs) {
+    final int walk = from.walkingSeconds(to);
+    if(walk >= 0 && walk <= Math.min(maxWalkSecs, maxDurSecs)
+        && walk <= BusStation.MAX_WALK_MINUTES * BusTime.SECONDS_PER_MINUTE) return true;
+    if(!from.canReach(to)) return false;
+    final int lower = from.lowerBound(to);
+    if(lower < 0 || lower > maxDurSecs) return false;
+    if(to.hasArrivals(start, maxDurSecs)) return true;
+    final int near = to.walkingNeighbours(maxWalkSecs);
+    for(int i = 0; i < near; ++i) {
+      final int secs = to.getWalkingNeighbourSeconds(i);
+      if(to.getWalkingNeighbour(i).hasArrivals(start, maxDurSecs - secs)) return true;
     }
+    return false;
   }
 
   /**
-   * Whether a route may be better than the current optimum.
+   * Computes the lower bounds for the travel time to the nearest destination.
    * 
-   * @param bestTimes The map for current optima.
-   * @param r The route.
-   * @return Whether the route may be faster.
+   * @param bse The bus station enumerator.
+   * @param dests The destinations.
+   * @return The lower bounds in seconds by station id, <code>-1</code> if no
+   *         destination can be reached.
    */
-  private static boolean mayBeBetter(final int[] bestTimes, final Route r) {
-    return mayBeBetter(bestTimes, r.last.getTo(), r.travelTime);
+  private static int[] lowerBounds(final BusStationEnumerator bse, final BitSet dests) {
+    final int[] bounds = new int[bse.maxId() + 1];
+    Arrays.fill(bounds, -1);
+    for(final BusStation s : bse.getStations()) {
+      for(int d = dests.nextSetBit(0); d >= 0; d = dests.nextSetBit(d + 1)) {
+        final int b = s.lowerBound(bse.getForId(d));
+        if(b >= 0 && (bounds[s.getId()] < 0 || b < bounds[s.getId()])) {
+          bounds[s.getId()] = b;
+        }
+      }
+    }
+    return bounds;
   }
 
   /**
-   * Whether a travel time may be better than the current optimum.
+   * Calculates the seconds from a time of day until another one.
    * 
-   * @param bestTimes The map for current optima.
-   * @param station The station.
-   * @param time The time in seconds.
-   * @return Whether the travel time may be better.
+   * @param from The time of day in seconds.
+   * @param to The other time of day in seconds.
+   * @return The seconds between both times.
    */
-  private static boolean mayBeBetter(final int[] bestTimes,
-      final BusStation station, final int time) {
-    final int id = station.getId();
-    final int bestTime = bestTimes[id];
-    return bestTime < 0 || bestTime >= time;
+  private static int secondsBetween(final int from, final int to) {
+    return (to - from + BusTime.SECONDS_PER_DAY) % BusTime.SECONDS_PER_DAY;
   }
 
   /**
@@ -293,147 +333,245 @@ public final class RouteFinder implements RoutingAlgorithm {
   }
 
   /**
-   * Inner class for routes.
+   * Pool of route labels. A label is an index into parallel arrays holding the
+   * previous label, the last edge, the reached station, the travel time, the
+   * number of edges and the walking time of a route. Routes share their common
+   * prefixes, so extending a route copies nothing. The pool also contains the
+   * binary heap of the labels that still have to be expanded.
    * 
    * @author Leo Woerteler
    */
-  private static final class Route {
-
-    /** Route up to this point, possibly {@code null}. */
-    protected final Route before;
-    /** Last edge in the route. */
-    protected final BusEdge last;
+  private static final class Labels {
+
+    /** The previous label, <code>-1</code> for the first edge of a route. */
+    int[] parent;
+    /** The last edge, <code>null</code> for a walk. */
+    BusEdge[] edge;
+    /** The id of the reached station. */
+    int[] station;
     /** Overall travel time in seconds. */
-    protected final int travelTime;
-    /** The length of this route. */
-    private final int length;
-    /** Stations in this route. */
-    private final BitSet stations;
+    int[] time;
+    /** The number of edges. */
+    int[] length;
+    /** The overall walking time in seconds. */
+    int[] walk;
+    /** The line id of the last edge, <code>-1</code> for a walk. */
+    int[] line;
+    /** The tour number of the last edge. */
+    int[] tour;
+    /** The number of labels. */
+    private int size;
+
+    /** The labels to be expanded. */
+    private final IndexedHeap queue;
+    /** The queued walking label per station, <code>-1</code> for none. */
+    private final int[] walkLabel;
+    /** The lower bounds for the remaining travel time, may be <code>null</code>. */
+    private int[] bounds;
+    /** The maximal travel time in seconds including the lower bounds. */
+    private int limit = Integer.MAX_VALUE;
 
     /**
-     * Creates a new route with given waiting time and first edge.
+     * Constructor.
      * 
-     * @param start start time of the route
-     * @param first first edge
+     * @param capacity The initial capacity.
+     * @param stationCount The number of station ids.
      */
-    Route(final BusTime start, final BusEdge first) {
-      before = null;
-      last = first;
-      travelTime = start.secondsTo(first.getStart()) + first.travelSeconds();
-      stations = new BitSet();
-      stations.set(first.getFrom().getId());
-      stations.set(first.getTo().getId());
-      length = 1;
+    Labels(final int capacity, final int stationCount) {
+      final int cap = Math.max(capacity, 16);
+      parent = new int[cap];
+      edge = new BusEdge[cap];
+      station = new int[cap];
+      time = new int[cap];
+      length = new int[cap];
+      walk = new int[cap];
+      line = new int[cap];
+      tour = new int[cap];
+      queue = new IndexedHeap(cap);
+      walkLabel = new int[stationCount];
+      Arrays.fill(walkLabel, -1);
     }
 
     /**
-     * Creates a new route with given previous route and last edge.
+     * Directs the search towards the destinations. Labels are ordered by their
+     * travel time plus the lower bound of the remaining travel time and labels
+     * that cannot reach a destination in time are dropped.
      * 
-     * @param before previously taken route
-     * @param last last edge
+     * @param lower The lower bounds in seconds by station id, <code>-1</code>
+     *          if no destination is reachable.
+     * @param maxSecs The maximal travel time in seconds.
      */
-    private Route(final Route before, final BusEdge last) {
-      this.before = before;
-      this.last = last;
-      length = before.length + 1;
-      travelTime = before.timePlus(last);
-      stations = (BitSet) before.stations.clone();
-      stations.set(last.getTo().getId());
+    void goal(final int[] lower, final int maxSecs) {
+      bounds = lower;
+      limit = maxSecs;
     }
 
     /**
-     * Creates a new route by extending this one by the given edge.
+     * Checks if a route may be better than the current optimum and enqueues it
+     * if so. Also the optimum gets updated. A walk replaces a worse walk to the
+     * same station that is still queued, since only the better one can ever
+     * be extended.
      * 
-     * @param next edge to be added
-     * @return new route
+     * @param bestTimes The map for current optima.
+     * @param wait The bus change time in seconds.
+     * @param before The label of the route up to this point, <code>-1</code>
+     *          for none.
+     * @param from The station of the last departure, <code>null</code> for a
+     *          walk.
+     * @param dep The index of the last departure at the station.
+     * @param to The id of the reached station.
+     * @param secs The overall travel time in seconds.
+     * @param walked The overall walking time in seconds.
+     * @return <code>true</code> if a new label was enqueued.
      */
-    public Route extendedBy(final BusEdge next) {
-      assert loopFree(next); // loop detection
-      return new Route(this, next);
-    }
-
-    /**
-     * Tests whether a route with the given next edge would have no loops. This
-     * is a general invariant and the method should only be called for debugging
-     * purposes.
-     * 
-     * @param next The possible next route.
-     * @return Whether the resulting route has no loops.
-     */
-    private boolean loopFree(final BusEdge next) {
-      for(Route r = this; r != null; r = r.before) {
-        if(r.last.equals(next)) return false;
+    boolean maybeEnqueue(final int[] bestTimes, final int wait, final int before,
+        final BusStation from, final int dep, final int to, final int secs,
+        final int walked) {
+      final int bestTime = bestTimes[to];
+      if(bestTime >= 0 && bestTime < secs) return false;
+      final int lower = bounds != null ? bounds[to] : 0;
+      if(lower < 0 || secs + lower > limit) return false;
+      final int len = before < 0 ? 1 : length[before] + 1;
+      final long prio = priority(secs + lower, len, walked);
+      final int old = from == null ? walkLabel[to] : -1;
+      final boolean replace = old >= 0 && queue.contains(old);
+      if(replace && queue.getPriority(old) <= prio) return false;
+      final int newTime = secs + Math.max(wait, 0);
+      if(bestTime < 0 || newTime < bestTime) {
+        bestTimes[to] = newTime;
+      }
+      final int l;
+      if(replace) {
+        l = old;
+      } else {
+        if(size == parent.length) {
+          final int cap = 2 * size;
+          parent = Arrays.copyOf(parent, cap);
+          edge = Arrays.copyOf(edge, cap);
+          station = Arrays.copyOf(station, cap);
+          time = Arrays.copyOf(time, cap);
+          length = Arrays.copyOf(length, cap);
+          walk = Arrays.copyOf(walk, cap);
+          line = Arrays.copyOf(line, cap);
+          tour = Arrays.copyOf(tour, cap);
+        }
+        l = size++;
+        if(from == null) {
+          walkLabel[to] = l;
+        }
+      }
+      parent[l] = before;
+      if(from != null) {
+        edge[l] = from.getEdge(dep);
+        line[l] = from.getLineId(dep);
+        tour[l] = from.getTourNr(dep);
+      } else {
+        edge[l] = null;
+        line[l] = -1;
+        tour[l] = -1;
       }
+      station[l] = to;
+      time[l] = secs;
+      length[l] = len;
+      walk[l] = walked;
+      if(replace) {
+        queue.decreaseKey(l, prio);
+        return false;
+      }
+      queue.add(l, prio);
       return true;
     }
 
     /**
-     * Checks if this route contains the given bus station.
+     * Computes the priority of a label. Labels are ordered by travel time,
+     * length, and walking time.
      * 
-     * @param s bus station
-     * @return <code>true</code> if the station is contained, <code>false</code>
-     *         otherwise
+     * @param secs The travel time in seconds, possibly with a lower bound.
+     * @param len The number of edges.
+     * @param walked The walking time in seconds.
+     * @return The priority.
      */
-    public boolean contains(final BusStation s) {
-      return stations.get(s.getId());
+    private static long priority(final int secs, final int len, final int walked) {
+      return (long) secs << 32 | (long) Math.min(len, 0xfff) << 20
+          | Math.min(walked, 0xfffff);
     }
 
     /**
-     * Getter.
+     * Removes the smallest label from the queue.
      * 
-     * @return number of edges in this route
+     * @return The label or <code>-1</code> if the queue is empty.
      */
-    public int getLength() {
-      return length;
+    int poll() {
+      return queue.poll();
     }
 
     /**
-     * Total time walked in this route.
+     * Copies the labels of the given routes into a route tree. Labels that are
+     * not part of any route are left out.
      * 
-     * @return number of seconds spent walking
+     * @param best The last label of the route per station id, <code>-1</code>
+     *          for none.
+     * @param bse The bus station enumerator.
+     * @param from The start station.
+     * @param start The start time.
+     * @return The route tree.
      */
-    public int walkTimeSecs() {
-      int walked = 0;
-      for(Route route = this; route != null; route = route.before) {
-        if(route.last.getLine() == BusLine.WALK) {
-          walked += route.last.travelSeconds();
+    RouteTree toTree(final int[] best, final BusStationEnumerator bse,
+        final BusStation from, final BusTime start) {
+      final RouteTree tree = new RouteTree(bse, from, start, best.length);
+      final int[] nodes = new int[size];
+      Arrays.fill(nodes, -1);
+      int[] stack = new int[16];
+      for(int id = 0; id < best.length; ++id) {
+        if(best[id] < 0) {
+          continue;
+        }
+        // the labels not copied yet, starting with the last one
+        int top = 0;
+        for(int l = best[id]; l >= 0 && nodes[l] < 0; l = parent[l]) {
+          if(top == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * top);
+          }
+          stack[top++] = l;
         }
+        while(--top >= 0) {
+          final int l = stack[top];
+          final int before = parent[l];
+          nodes[l] = tree.add(before < 0 ? -1 : nodes[before], edge[l], station[l], time[l]);
+        }
+        tree.setRoute(id, nodes[best[id]]);
       }
-      return walked;
+      return tree;
     }
 
     /**
-     * Calculates the overall travel time of this route as extended by the given
-     * edge.
-     * 
-     * @param next next edge
-     * @return time in seconds
-     */
-    public int timePlus(final BusEdge next) {
-      return travelTime + last.getEnd().secondsTo(next.getStart()) + next.travelSeconds();
-    }
-
-    /**
-     * Creates an array containing all edges of this route.
+     * Creates an array containing all edges of a route.
      * 
+     * @param l The last label of the route.
+     * @param bse The bus station enumerator.
+     * @param from The start station.
+     * @param start The start time.
      * @return array containing all edges
      */
-    public BusEdge[] asArray() {
-      final BusEdge[] res = new BusEdge[length];
-      Route cur = this;
-      int i = length;
+    BusEdge[] asArray(final int l, final BusStationEnumerator bse, final BusStation from,
+        final BusTime start) {
+      final BusEdge[] res = new BusEdge[length[l]];
+      int cur = l;
+      int i = res.length;
       while(--i >= 0) {
-        res[i] = cur.last;
-        cur = cur.before;
+        final int before = parent[cur];
+        if(edge[cur] != null) {
+          res[i] = edge[cur];
+        } else {
+          final BusStation s = before < 0 ? from : bse.getForId(station[before]);
+          res[i] = BusEdge.walking(s, bse.getForId(station[cur]),
+              start.later(0, before < 0 ? 0 : time[before]), start.later(0, time[cur]));
+        }
+        cur = before;
       }
       return res;
     }
 
-    @Override
-    public String toString() {
-      return last.toString();
-    }
-
-  } // Route
+  } // Labels
 
 }
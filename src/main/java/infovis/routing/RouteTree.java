@@ -0,0 +1,220 @@
+package infovis.routing;
+
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+
+import java.util.Arrays;
+
+/**
+ * The routes from one start station as a tree. Every node stands for a
+ * station reached by a bus edge or a walk and links to the node it was reached
+ * from. The routes share their common prefixes, so the tree only needs memory
+ * in the order of the number of stations. The edges of a route are only
+ * created when they are requested.
+ * 
+ * @author agent <agent@local>
+ */
+final class RouteTree {
+
+  /** The bus station enumerator. */
+  private final BusStationEnumerator bse;
+
+  /** The start station. */
+  private final BusStation from;
+
+  /** The start time. */
+  private final BusTime start;
+
+  /** The previous node, <code>-1</code> for the first edge of a route. */
+  private int[] parent;
+
+  /** The edge leading to the node, <code>null</code> for a walk. */
+  private BusEdge[] edge;
+
+  /** The id of the station of the node. */
+  private int[] station;
+
+  /** The travel time until the node in seconds. */
+  private int[] time;
+
+  /** The number of edges until the node. */
+  private int[] length;
+
+  /** The number of nodes. */
+  private int size;
+
+  /** The node of the route to every station id, <code>-1</code> for none. */
+  private final int[] routes;
+
+  /**
+   * Constructor.
+   * 
+   * @param bse The bus station enumerator.
+   * @param from The start station.
+   * @param start The start time.
+   * @param capacity The initial number of nodes.
+   */
+  RouteTree(final BusStationEnumerator bse, final BusStation from, final BusTime start,
+      final int capacity) {
+    this.bse = bse;
+    this.from = from;
+    this.start = start;
+    final int cap = Math.max(capacity, 16);
+    parent = new int[cap];
+    edge = new BusEdge[cap];
+    station = new int[cap];
+    time = new int[cap];
+    length = new int[cap];
+    routes = new int[bse.maxId() + 1];
+    Arrays.fill(routes, -1);
+  }
+
+  /**
+   * Adds a node.
+   * 
+   * @param before The previous node, <code>-1</code> for none.
+   * @param e The edge leading to the node, <code>null</code> for a walk.
+   * @param id The id of the reached station.
+   * @param secs The travel time until the node in seconds.
+   * @return The new node.
+   */
+  int add(final int before, final BusEdge e, final int id, final int secs) {
+    if(size == parent.length) {
+      final int cap = 2 * size;
+      parent = Arrays.copyOf(parent, cap);
+      edge = Arrays.copyOf(edge, cap);
+      station = Arrays.copyOf(station, cap);
+      time = Arrays.copyOf(time, cap);
+      length = Arrays.copyOf(length, cap);
+    }
+    final int n = size++;
+    parent[n] = before;
+    edge[n] = e;
+    station[n] = id;
+    time[n] = secs;
+    length[n] = before < 0 ? 1 : length[before] + 1;
+    return n;
+  }
+
+  /**
+   * Sets the route to a station.
+   * 
+   * @param id The station id.
+   * @param node The last node of the route.
+   */
+  void setRoute(final int id, final int node) {
+    routes[id] = node;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param id The station id.
+   * @return The last node of the route to the station, <code>-1</code> if
+   *         there is none.
+   */
+  int getRoute(final int id) {
+    return routes[id];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of nodes.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The start station.
+   */
+  BusStation getFrom() {
+    return from;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The start time.
+   */
+  BusTime getStart() {
+    return start;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param node The node.
+   * @return The travel time until the node in seconds.
+   */
+  int seconds(final int node) {
+    return time[node];
+  }
+
+  /**
+   * Finds the first bus edge of a route.
+   * 
+   * @param node The last node of the route.
+   * @return The node reached by the first bus edge of the route or
+   *         <code>-1</code> if the route only walks.
+   */
+  int firstBus(final int node) {
+    int res = -1;
+    for(int cur = node; cur >= 0; cur = parent[cur]) {
+      if(edge[cur] != null) {
+        res = cur;
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param node The node.
+   * @return The edge leading to the node, <code>null</code> for a walk.
+   */
+  BusEdge edge(final int node) {
+    return edge[node];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param node The node.
+   * @return The previous node, <code>-1</code> for the first edge of a route.
+   */
+  int parent(final int node) {
+    return parent[node];
+  }
+
+  /**
+   * Creates the edges of the route ending with the given node.
+   * 
+   * @param node The last node of the route.
+   * @return The edges.
+   */
+  BusEdge[] path(final int node) {
+    final BusEdge[] res = new BusEdge[length[node]];
+    int cur = node;
+    int i = res.length;
+    while(--i >= 0) {
+      final int before = parent[cur];
+      if(edge[cur] != null) {
+        res[i] = edge[cur];
+      } else {
+        final BusStation s = before < 0 ? from : bse.getForId(station[before]);
+        res[i] = BusEdge.walking(s, bse.getForId(station[cur]),
+            start.later(0, before < 0 ? 0 : time[before]), start.later(0, time[cur]));
+      }
+      cur = before;
+    }
+    return res;
+  }
+
+}
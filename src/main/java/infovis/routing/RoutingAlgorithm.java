@@ -28,8 +28,8 @@ public interface RoutingAlgorithm {
    * @param maxDuration maximum allowed duration of a route
    * @param maxWalk maximum allowed continuous walking time
    * @return all routes
-   * @throws InterruptedException if the current thread was interrupted during
-   *           the computation
+   * @throws InterruptedException if the current thread was interrupted or its
+   *           {@link CancelToken} was cancelled during the computation
    */
   RoutingResult[] findRoutes(BusStationEnumerator bse,
       final BusStation station, final BitSet dests, final BusTime start, final int wait,
@@ -5,21 +5,116 @@ import infovis.data.BusStationEnumerator;
 import infovis.data.BusTime;
 
 import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A thread that calculates routes on demand.
+ * Calculates routes on demand. Requests are executed by a small pool of
+ * worker threads. Only the latest request is of interest, so every new
+ * request cancels the previous one via its {@link CancelToken}. Cancelled
+ * requests that did not start yet are skipped and a request with the same
+ * parameters as the running one is merged into it.
  * 
  * @author Leo Woerteler
  */
 public final class RoutingManager {
 
-  /** Currently executed thread, may be {@code null}. */
-  protected volatile Thread current;
+  /** The maximal number of cached routing results. */
+  public static final int CACHE_ENTRIES = 64;
+
+  /**
+   * The maximal overall weight of the cached routing results, the weight of a
+   * result is the number of routes plus the number of their edges.
+   */
+  public static final long CACHE_WEIGHT = 1L << 20;
+
+  /** The number of worker threads. */
+  public static final int WORKERS = 2;
+
+  /** The maximal number of waiting tasks. */
+  public static final int QUEUE_SIZE = 16;
+
+  /** The number of created worker threads, used for naming. */
+  private static final AtomicInteger THREADS = new AtomicInteger();
+
+  /** The latest task, may be {@code null}. Guarded by the manager. */
+  private Job<?> latest;
+
+  /** The executor running the tasks. */
+  private final ThreadPoolExecutor executor;
+
+  /** The running speculative task, may be {@code null}. Guarded by the manager. */
+  private Job<?> prefetching;
+
+  /** The executor running speculative tasks with low priority. */
+  private final ThreadPoolExecutor prefetcher;
+
+  /** The number of tasks whose result was not delivered. */
+  private final AtomicLong cancelled = new AtomicLong();
+
+  /** The number of requests merged into a running task. */
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /** The cached results in access order, guarded by the map itself. */
+  private final LinkedHashMap<Key, RoutingResult[]> cache =
+      new LinkedHashMap<Key, RoutingResult[]>(16, 0.75f, true);
+
+  /** The overall weight of the cached results. */
+  private long weight;
+
+  /** The number of cache hits. */
+  private long hits;
+
+  /** The number of cache misses. */
+  private long misses;
 
   /** Hidden default constructor. */
   private RoutingManager() {
-    // empty
+    executor = newExecutor(WORKERS, Thread.NORM_PRIORITY, "routing-");
+    prefetcher = newExecutor(1, Thread.MIN_PRIORITY, "prefetch-");
+  }
+
+  /**
+   * Creates an executor with daemon threads and a bounded queue. When the
+   * queue is full the oldest waiting task is dropped.
+   * 
+   * @param threads The number of threads.
+   * @param priority The priority of the threads.
+   * @param name The prefix of the thread names.
+   * @return The executor.
+   */
+  private ThreadPoolExecutor newExecutor(final int threads, final int priority,
+      final String name) {
+    final ThreadPoolExecutor exec = new ThreadPoolExecutor(threads, threads, 30,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable r) {
+            final Thread t = new Thread(r, name + THREADS.getAndIncrement());
+            t.setPriority(priority);
+            t.setDaemon(true);
+            return t;
+          }
+        }, new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(final Runnable r, final ThreadPoolExecutor e) {
+            // all waiting tasks but the newest are superseded
+            if(e.getQueue().poll() != null) {
+              cancelled.incrementAndGet();
+            }
+            e.execute(r);
+          }
+        });
+    exec.allowCoreThreadTimeOut(true);
+    return exec;
   }
 
   /**
@@ -34,7 +129,9 @@ public final class RoutingManager {
   /**
    * Registers the given request for routes with the routing thread. If the
    * routing finishes without being interrupted, the given callback is called
-   * with the result as argument.
+   * with the result as argument. Results of earlier requests with the same
+   * parameters are taken from the cache, in that case the callback is called
+   * immediately.
    * 
    * @param bse The bus station enumerator.
    * @param station start station
@@ -49,14 +146,336 @@ public final class RoutingManager {
   public void findRoutes(final BusStationEnumerator bse, final BusStation station,
       final BitSet dests, final BusTime start, final int wait, final int maxDuration,
       final int maxWalk, final RoutingAlgorithm algo, final CallBack<RoutingResult[]> call) {
-    registerTask(new Callable<RoutingResult[]>() {
+    findRoutes(bse, station, dests, start, wait, maxDuration, maxWalk, algo, call, null);
+  }
+
+  /**
+   * Registers the given request for routes with the routing thread like
+   * {@link #findRoutes(BusStationEnumerator, BusStation, BitSet, BusTime, int, int, int,
+   * RoutingAlgorithm, CallBack)}. Additionally the routes found so far are
+   * streamed to the progress callback while the routing runs, if the
+   * algorithm reports them via {@link RoutingProgress}. The progress callback
+   * gets all routes found so far, stations without a final route yet are
+   * <code>null</code>. It is not called for cached results.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station start station
+   * @param dests IDs of requested destinations
+   * @param start start time
+   * @param wait minimum waiting time when changing bus lines
+   * @param maxDuration maximum time in minutes that a route may take
+   * @param maxWalk maximum allowed continuous walking time
+   * @param algo The routing algorithm.
+   * @param call callback for results
+   * @param progress callback for partial results, may be <code>null</code>
+   */
+  public void findRoutes(final BusStationEnumerator bse, final BusStation station,
+      final BitSet dests, final BusTime start, final int wait, final int maxDuration,
+      final int maxWalk, final RoutingAlgorithm algo, final CallBack<RoutingResult[]> call,
+      final CallBack<RoutingResult[]> progress) {
+    final Key key = new Key(bse, station, dests, start, wait, maxDuration, maxWalk, algo);
+    final RoutingResult[] cached = getCached(key);
+    synchronized(this) {
+      if(cached != null) {
+        // the cached result supersedes the old computation
+        cancelLatest();
+        call.callBack(cached);
+        return;
+      }
+      if(latest != null && key.equals(latest.key) && !latest.token.isCancelled()) {
+        // the running computation delivers to the new callback instead
+        @SuppressWarnings("unchecked")
+        final Job<RoutingResult[]> job = (Job<RoutingResult[]>) latest;
+        job.callback = call;
+        job.progress = progress;
+        coalesced.incrementAndGet();
+        return;
+      }
+      if(prefetching != null && key.equals(prefetching.key)
+          && !prefetching.token.isCancelled()) {
+        // the speculative computation becomes the latest task
+        cancelLatest();
+        @SuppressWarnings("unchecked")
+        final Job<RoutingResult[]> job = (Job<RoutingResult[]>) prefetching;
+        prefetching = null;
+        job.callback = call;
+        job.progress = progress;
+        job.promote();
+        latest = job;
+        coalesced.incrementAndGet();
+        return;
+      }
+      submit(routing(key, bse, station, dests, start, wait, maxDuration, maxWalk, algo),
+          call, key);
+      latest.progress = progress;
+    }
+  }
+
+  /**
+   * Updates routes for a later start time with the routing thread, see
+   * {@link RoutingUpdate#later(BusTime)}. Only the routes that cannot be taken
+   * any more are computed again. Like other requests the update cancels the
+   * previous request.
+   * 
+   * @param previous The previous routes.
+   * @param start The new start time.
+   * @param call callback for the updated routes
+   */
+  public void updateRoutes(final RoutingUpdate previous, final BusTime start,
+      final CallBack<RoutingUpdate> call) {
+    registerTask(new Callable<RoutingUpdate>() {
       @Override
-      public RoutingResult[] call() throws InterruptedException {
-        return algo.findRoutes(bse, station, dests, start, wait, maxDuration, maxWalk);
+      public RoutingUpdate call() throws InterruptedException {
+        return previous.later(start);
       }
     }, call);
   }
 
+  /**
+   * Speculatively computes routes into the cache with low priority, eg. for a
+   * station the user will likely select next. A later request with the same
+   * parameters uses the result or takes over the running computation. Only
+   * the latest speculative request is computed, earlier ones are cancelled.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station start station
+   * @param dests IDs of requested destinations
+   * @param start start time
+   * @param wait minimum waiting time when changing bus lines
+   * @param maxDuration maximum time in minutes that a route may take
+   * @param maxWalk maximum allowed continuous walking time
+   * @param algo The routing algorithm.
+   */
+  public void prefetch(final BusStationEnumerator bse, final BusStation station,
+      final BitSet dests, final BusTime start, final int wait, final int maxDuration,
+      final int maxWalk, final RoutingAlgorithm algo) {
+    final Key key = new Key(bse, station, dests, start, wait, maxDuration, maxWalk, algo);
+    if(isCached(key)) return;
+    synchronized(this) {
+      if(latest != null && key.equals(latest.key) || prefetching != null
+          && key.equals(prefetching.key) && !prefetching.token.isCancelled()) return;
+      cancelPrefetch();
+      final Job<RoutingResult[]> job = new Job<RoutingResult[]>(routing(key, bse, station,
+          dests, start, wait, maxDuration, maxWalk, algo), null, key);
+      prefetching = job;
+      prefetcher.execute(job);
+    }
+  }
+
+  /**
+   * Computes the routes for the next start times of a moving start time into
+   * the cache, eg. for the next steps of the fast forward mode. The start times
+   * are computed one after another like speculative requests, so a request
+   * for a start time that is being computed takes over the computation. Start
+   * times that are cached already are skipped. A new speculative request
+   * cancels the look-ahead.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station start station
+   * @param dests IDs of requested destinations
+   * @param start The current start time, it is not computed.
+   * @param step The time between two start times in seconds.
+   * @param steps The number of start times to compute.
+   * @param wait minimum waiting time when changing bus lines
+   * @param maxDuration maximum time in minutes that a route may take
+   * @param maxWalk maximum allowed continuous walking time
+   * @param algo The routing algorithm.
+   */
+  public synchronized void lookAhead(final BusStationEnumerator bse,
+      final BusStation station, final BitSet dests, final BusTime start, final int step,
+      final int steps, final int wait, final int maxDuration, final int maxWalk,
+      final RoutingAlgorithm algo) {
+    for(int i = 1; i <= steps; ++i) {
+      final BusTime time = start.later(0, i * step);
+      final Key key = new Key(bse, station, dests, time, wait, maxDuration, maxWalk, algo);
+      if(isCached(key) || latest != null && key.equals(latest.key)) {
+        continue;
+      }
+      if(prefetching != null && key.equals(prefetching.key)
+          && !prefetching.token.isCancelled()) return;
+      if(prefetching != null && isCached(prefetching.key)) {
+        // the previous start time is finished
+        prefetching = null;
+      }
+      cancelPrefetch();
+      final Callable<RoutingResult[]> routing = routing(key, bse, station, dests, time,
+          wait, maxDuration, maxWalk, algo);
+      final Job<RoutingResult[]> job = new Job<RoutingResult[]>(
+          new Callable<RoutingResult[]>() {
+            @Override
+            public RoutingResult[] call() throws Exception {
+              final RoutingResult[] res = routing.call();
+              // go on with the next start time
+              lookAhead(bse, station, dests, start, step, steps, wait, maxDuration,
+                  maxWalk, algo);
+              return res;
+            }
+          }, null, key);
+      prefetching = job;
+      prefetcher.execute(job);
+      return;
+    }
+  }
+
+  /**
+   * Cancels the running speculative computation if there is one.
+   */
+  public synchronized void cancelPrefetch() {
+    if(prefetching != null) {
+      prefetching.token.cancel();
+      prefetching = null;
+    }
+  }
+
+  /**
+   * Creates a task computing routes into the cache.
+   * 
+   * @param key The query.
+   * @param bse The bus station enumerator.
+   * @param station start station
+   * @param dests IDs of requested destinations
+   * @param start start time
+   * @param wait minimum waiting time when changing bus lines
+   * @param maxDuration maximum time in minutes that a route may take
+   * @param maxWalk maximum allowed continuous walking time
+   * @param algo The routing algorithm.
+   * @return The task.
+   */
+  private Callable<RoutingResult[]> routing(final Key key, final BusStationEnumerator bse,
+      final BusStation station, final BitSet dests, final BusTime start, final int wait,
+      final int maxDuration, final int maxWalk, final RoutingAlgorithm algo) {
+    return new Callable<RoutingResult[]>() {
+      @Override
+      public RoutingResult[] call() throws InterruptedException {
+        final RoutingResult[] res = algo.findRoutes(bse, station, dests, start, wait,
+            maxDuration, maxWalk);
+        putCached(key, res);
+        return res;
+      }
+    };
+  }
+
+  /**
+   * Checks whether a result is cached without counting a hit or miss.
+   * 
+   * @param key The query.
+   * @return Whether the result is cached.
+   */
+  private boolean isCached(final Key key) {
+    synchronized(cache) {
+      return cache.containsKey(key);
+    }
+  }
+
+  /**
+   * Looks up a result in the cache and counts the hit or miss.
+   * 
+   * @param key The query.
+   * @return A copy of the cached result or <code>null</code> if there is none.
+   */
+  private RoutingResult[] getCached(final Key key) {
+    synchronized(cache) {
+      final RoutingResult[] res = cache.get(key);
+      if(res == null) {
+        ++misses;
+        return null;
+      }
+      ++hits;
+      return res.clone();
+    }
+  }
+
+  /**
+   * Puts a result into the cache. The least recently used results are evicted
+   * until the number and the weight of the results are within bounds.
+   * 
+   * @param key The query.
+   * @param res The result.
+   */
+  private void putCached(final Key key, final RoutingResult[] res) {
+    final long w = weight(res);
+    if(w > CACHE_WEIGHT) return;
+    synchronized(cache) {
+      final RoutingResult[] old = cache.put(key, res.clone());
+      if(old != null) {
+        weight -= weight(old);
+      }
+      weight += w;
+      final Iterator<Map.Entry<Key, RoutingResult[]>> it = cache.entrySet().iterator();
+      while(cache.size() > CACHE_ENTRIES || weight > CACHE_WEIGHT) {
+        weight -= weight(it.next().getValue());
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Computes the weight of a result.
+   * 
+   * @param res The result.
+   * @return The number of routes plus the number of their edges. Routes in a
+   *         common route tree count the nodes of the tree once.
+   */
+  private static long weight(final RoutingResult[] res) {
+    long w = res.length;
+    RouteTree shared = null;
+    for(final RoutingResult r : res) {
+      if(r != null && r.isReachable() && !r.isStartNode()) {
+        final RouteTree tree = r.getTree();
+        if(tree == null) {
+          w += r.getEdges().size();
+        } else if(tree != shared) {
+          w += tree.size();
+          shared = tree;
+        }
+      }
+    }
+    return w;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of requests answered from the cache.
+   */
+  public long getCacheHits() {
+    synchronized(cache) {
+      return hits;
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of requests that were not in the cache.
+   */
+  public long getCacheMisses() {
+    synchronized(cache) {
+      return misses;
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of cached results.
+   */
+  public int getCacheSize() {
+    synchronized(cache) {
+      return cache.size();
+    }
+  }
+
+  /**
+   * Removes all cached results, eg. when the bus data changes.
+   */
+  public void clearCache() {
+    synchronized(cache) {
+      cache.clear();
+      weight = 0;
+    }
+  }
+
   /**
    * Registers a new task and tries to terminate the old one if one exists.
    * 
@@ -66,35 +485,202 @@ public final class RoutingManager {
    */
   public synchronized <T> void registerTask(final Callable<T> task,
       final CallBack<T> callback) {
-    // try to terminate the old computation early
-    if(current != null) {
-      current.interrupt();
+    submit(task, callback, null);
+  }
+
+  /**
+   * Cancels the latest task and submits a new one. Must be called while
+   * holding the lock of the manager.
+   * 
+   * @param <T> result type
+   * @param task The task.
+   * @param callback The callback.
+   * @param key The routing query or <code>null</code> if the task is no
+   *          routing.
+   */
+  private <T> void submit(final Callable<T> task, final CallBack<T> callback,
+      final Key key) {
+    cancelLatest();
+    final Job<T> job = new Job<T>(task, callback, key);
+    latest = job;
+    executor.execute(job);
+  }
+
+  /**
+   * Cancels the latest task if there is one. Must be called while holding the
+   * lock of the manager.
+   */
+  private void cancelLatest() {
+    if(latest != null) {
+      latest.token.cancel();
+      latest = null;
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of tasks waiting for a worker thread.
+   */
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of tasks that were superseded before their result was
+   *         delivered.
+   */
+  public long getCancelledTasks() {
+    return cancelled.get();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of requests that were merged into a running task with
+   *         the same parameters.
+   */
+  public long getCoalescedRequests() {
+    return coalesced.get();
+  }
+
+  /**
+   * A submitted task.
+   * 
+   * @author agent <agent@local>
+   * @param <T> result type
+   */
+  private final class Job<T> implements Runnable, RoutingProgress.Listener {
+
+    /** The task. */
+    private final Callable<T> task;
+
+    /** The routing query, may be <code>null</code>. */
+    final Key key;
+
+    /** The cancellation token. */
+    final CancelToken token = new CancelToken();
+
+    /** The callback, <code>null</code> for speculative tasks. Guarded by the manager. */
+    CallBack<T> callback;
+
+    /**
+     * The callback for partial routes, may be <code>null</code>. Written while
+     * holding the lock of the manager, read by the worker thread.
+     */
+    volatile CallBack<RoutingResult[]> progress;
+
+    /** The routes found so far by station id, only used by the worker thread. */
+    private RoutingResult[] partial;
+
+    /** The thread running the task, may be <code>null</code>. */
+    private volatile Thread worker;
+
+    /** Whether the task was speculative but its result is requested now. */
+    private volatile boolean promoted;
+
+    /**
+     * Constructor.
+     * 
+     * @param task The task.
+     * @param callback The callback.
+     * @param key The routing query, may be <code>null</code>.
+     */
+    Job(final Callable<T> task, final CallBack<T> callback, final Key key) {
+      this.task = task;
+      this.callback = callback;
+      this.key = key;
     }
 
-    current = new Thread() {
-      {
-        setDaemon(true);
+    /**
+     * Runs a speculative task with normal priority since its result is
+     * requested now.
+     */
+    void promote() {
+      promoted = true;
+      final Thread t = worker;
+      if(t != null) {
+        t.setPriority(Thread.NORM_PRIORITY);
       }
+    }
 
-      @Override
-      public void run() {
-        try {
-          final T res = task.call();
-          synchronized(RoutingManager.this) {
-            if(current == this) {
-              callback.callBack(res);
-            }
+    @Override
+    public boolean isWanted() {
+      // requests joining the running task may add a progress callback, it only
+      // gets the routes found from then on
+      return progress != null;
+    }
+
+    @Override
+    public void settled(final RoutingResult[] routes, final int count) {
+      if(partial == null) {
+        partial = new RoutingResult[key.bse.maxId() + 1];
+      }
+      for(int i = 0; i < count; ++i) {
+        partial[routes[i].getEnd().getId()] = routes[i];
+      }
+      synchronized(RoutingManager.this) {
+        if(latest == this && progress != null && !token.isCancelled()) {
+          progress.callBack(partial.clone());
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      if(token.isCancelled()) {
+        cancelled.incrementAndGet();
+        return;
+      }
+      final Thread t = Thread.currentThread();
+      final int priority = t.getPriority();
+      worker = t;
+      if(promoted) {
+        t.setPriority(Thread.NORM_PRIORITY);
+      }
+      token.attach();
+      final RoutingProgress stream = key != null ? new RoutingProgress(this) : null;
+      if(stream != null) {
+        stream.attach();
+      }
+      try {
+        final T res = task.call();
+        synchronized(RoutingManager.this) {
+          if(latest == this) {
+            latest = null;
+            callback.callBack(res);
+            return;
           }
-        } catch(final InterruptedException e) {
-          // terminate
-        } catch(final Exception e) {
-          // TODO what to do here?
-          e.printStackTrace();
+          if(callback == null) return;
         }
+        cancelled.incrementAndGet();
+      } catch(final InterruptedException e) {
+        // terminate
+        cancelled.incrementAndGet();
+      } catch(final Exception e) {
+        // TODO what to do here?
+        e.printStackTrace();
+      } finally {
+        synchronized(RoutingManager.this) {
+          if(latest == this) {
+            latest = null;
+          }
+          if(prefetching == this) {
+            prefetching = null;
+          }
+        }
+        worker = null;
+        if(stream != null) {
+          stream.detach();
+        }
+        token.detach();
+        t.setPriority(priority);
       }
-    };
-    current.start();
-  }
+    }
+
+  } // Job
 
   /**
    * Interface for callbacks that are called when the result was calculated.
@@ -112,4 +698,84 @@ public final class RoutingManager {
     void callBack(final T result);
 
   } // CallBack
+
+  /**
+   * The parameters of a routing query, used as key of the cache.
+   * 
+   * @author agent <agent@local>
+   */
+  private static final class Key {
+
+    /** The bus station enumerator. */
+    private final BusStationEnumerator bse;
+
+    /** The start station id. */
+    private final int station;
+
+    /** The destinations, may be <code>null</code>. */
+    private final BitSet dests;
+
+    /** The start time in seconds from midnight. */
+    private final int start;
+
+    /** The change time. */
+    private final int wait;
+
+    /** The maximal duration. */
+    private final int maxDuration;
+
+    /** The maximal walking time. */
+    private final int maxWalk;
+
+    /** The routing algorithm. */
+    private final RoutingAlgorithm algo;
+
+    /**
+     * Constructor.
+     * 
+     * @param bse The bus station enumerator.
+     * @param station The start station.
+     * @param dests The destinations, may be <code>null</code>.
+     * @param start The start time.
+     * @param wait The change time.
+     * @param maxDuration The maximal duration.
+     * @param maxWalk The maximal walking time.
+     * @param algo The routing algorithm.
+     */
+    Key(final BusStationEnumerator bse, final BusStation station, final BitSet dests,
+        final BusTime start, final int wait, final int maxDuration, final int maxWalk,
+        final RoutingAlgorithm algo) {
+      this.bse = bse;
+      this.station = station.getId();
+      this.dests = dests != null ? (BitSet) dests.clone() : null;
+      this.start = start.secondsFromMidnight();
+      this.wait = wait;
+      this.maxDuration = maxDuration;
+      this.maxWalk = maxWalk;
+      this.algo = algo;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if(!(obj instanceof Key)) return false;
+      final Key k = (Key) obj;
+      return bse == k.bse && station == k.station && start == k.start && wait == k.wait
+          && maxDuration == k.maxDuration && maxWalk == k.maxWalk && algo == k.algo
+          && (dests == null ? k.dests == null : dests.equals(k.dests));
+    }
+
+    @Override
+    public int hashCode() {
+      int h = System.identityHashCode(bse);
+      h = 31 * h + station;
+      h = 31 * h + start;
+      h = 31 * h + wait;
+      h = 31 * h + maxDuration;
+      h = 31 * h + maxWalk;
+      h = 31 * h + System.identityHashCode(algo);
+      return 31 * h + (dests == null ? 0 : dests.hashCode());
+    }
+
+  } // Key
+
 }
@@ -72,6 +72,20 @@ public final class RoutingPerformanceTest {
       out.close();
       System.out.println(fullTime / 1000 + "s");
       System.out.println(fullTime / c + "ms per line");
+
+      final long parallel = System.currentTimeMillis();
+      AllPairsRouter.compute(man, new BusTime(12, 0), 5,
+          man.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR, 0,
+          new AllPairsRouter.RowConsumer() {
+
+            @Override
+            public void row(final BusStation from, final int[] seconds) {
+              // only the time is measured
+            }
+
+          });
+      System.out.println((System.currentTimeMillis() - parallel) / 1000.0
+          + "s all pairs in parallel");
     } else if(store) {
       final List<BusStation> stations = new ArrayList<BusStation>(man.getStations());
       Collections.sort(stations);
@@ -0,0 +1,360 @@
+package infovis.routing;
+
+import static infovis.routing.Timetable.*;
+import infovis.data.BusEdge;
+import infovis.data.BusLine;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Stopwatch;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * All fastest routes from one station for a whole window of start times. For
+ * every destination the profile holds the Pareto set of departure and arrival
+ * times, ie. a route is only kept when no route departing later arrives at the
+ * same time or earlier. The results for any start time in the window can be
+ * read from the profile without routing again.
+ * 
+ * @author agent <agent@local>
+ */
+public final class RoutingProfile {
+
+  /** The start station. */
+  private final BusStation station;
+
+  /** The bus station enumerator. */
+  private final BusStationEnumerator bse;
+
+  /** The first start time of the window. */
+  private final BusTime start;
+
+  /** The length of the window in seconds. */
+  private final int window;
+
+  /** The maximal duration in seconds. */
+  private final int maxDurSecs;
+
+  /** The maximal walking time in seconds. */
+  private final int maxWalkSecs;
+
+  /** The departures in seconds after the window start per station id. */
+  private final int[][] deps;
+
+  /** The arrivals in seconds after the window start per station id. */
+  private final int[][] arrs;
+
+  /** The routes per station id. */
+  private final BusEdge[][][] routes;
+
+  /** The number of routes per station id. */
+  private final int[] sizes;
+
+  /**
+   * Creates an empty profile.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station The start station.
+   * @param start The first start time of the window.
+   * @param window The length of the window in seconds.
+   * @param maxDurSecs The maximal duration in seconds.
+   * @param maxWalkSecs The maximal walking time in seconds.
+   */
+  private RoutingProfile(final BusStationEnumerator bse, final BusStation station,
+      final BusTime start, final int window, final int maxDurSecs, final int maxWalkSecs) {
+    this.bse = bse;
+    this.station = station;
+    this.start = start;
+    this.window = window;
+    this.maxDurSecs = maxDurSecs;
+    this.maxWalkSecs = maxWalkSecs;
+    final int n = bse.maxId() + 1;
+    deps = new int[n][];
+    arrs = new int[n][];
+    routes = new BusEdge[n][][];
+    sizes = new int[n];
+  }
+
+  /**
+   * Computes the profile of a station. The connections are scanned once for
+   * every relevant departure in decreasing order while the labels are kept, so
+   * every scan only finds routes that are strictly faster than the ones
+   * departing later.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station The start station.
+   * @param start The first start time of the window.
+   * @param window The length of the window in minutes.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @return The profile.
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public static RoutingProfile compute(final BusStationEnumerator bse,
+      final BusStation station, final BusTime start, final int window, final int wait,
+      final int maxDuration, final int maxWalk) throws InterruptedException {
+    final Stopwatch t = new Stopwatch();
+    final int windowSecs = window * BusTime.SECONDS_PER_MINUTE;
+    final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+    final int maxWalkSecs = maxWalk * BusTime.SECONDS_PER_MINUTE;
+    final int maxDurSecs = maxDuration * BusTime.SECONDS_PER_MINUTE;
+    final Timetable table = Timetable.get(bse);
+    final int n = table.stationCount;
+    final int id = station.getId();
+    final int startSecs = start.secondsFromMidnight();
+    final RoutingProfile prof = new RoutingProfile(bse, station, start, windowSecs,
+        maxDurSecs, maxWalkSecs);
+
+    // the latest start times that still reach a bus at the station or after a walk
+    final int[] offset = new int[n];
+    Arrays.fill(offset, -1);
+    offset[id] = 0;
+    for(int i = station.walkingNeighbours(maxWalkSecs); --i >= 0;) {
+      offset[station.getWalkingNeighbour(i).getId()] =
+          station.getWalkingNeighbourSeconds(i) + waitSecs;
+    }
+    int[] departs = new int[16];
+    int count = 0;
+    departs[count++] = windowSecs;
+    final int[] cs = table.conns;
+    for(int c = 0; c < table.connCount; ++c) {
+      final int off = offset[cs[c * CONN + C_FROM]];
+      if(off < 0) {
+        continue;
+      }
+      int d = cs[c * CONN + C_DEP] - startSecs - off;
+      while(d < 0) {
+        d += DAY;
+      }
+      for(; d < windowSecs; d += DAY) {
+        if(count == departs.length) {
+          departs = Arrays.copyOf(departs, 2 * count);
+        }
+        departs[count++] = d;
+      }
+    }
+    Arrays.sort(departs, 0, count);
+
+    final ConnectionScanRouteFinder.Search search =
+        new ConnectionScanRouteFinder.Search(table);
+    search.reset(id, null);
+    final int[] last = new int[n];
+    Arrays.fill(last, Integer.MAX_VALUE);
+    int runs = 0;
+    long scanned = 0;
+    for(int i = count; --i >= 0;) {
+      final int d = departs[i];
+      if(i + 1 < count && departs[i + 1] == d) {
+        continue;
+      }
+      ++runs;
+      scanned += search.scan(startSecs, d, waitSecs, maxWalkSecs, d + maxDurSecs);
+      for(int s = 0; s < n; ++s) {
+        final int a = search.arrival(s);
+        if(a >= last[s]) {
+          continue;
+        }
+        last[s] = a;
+        if(s != id && !search.walkedFromStart(s)) {
+          prof.add(s, d, a, search.edges(s, start));
+        }
+      }
+    }
+    prof.finish();
+    System.out.println("Profile (thread: " + Thread.currentThread().getName()
+        + " time: " + t.current() + " runs: " + runs + " connections: " + scanned + ")");
+    return prof;
+  }
+
+  /**
+   * Adds a route. Routes must be added with decreasing departures.
+   * 
+   * @param id The destination id.
+   * @param dep The departure in seconds after the window start.
+   * @param arr The arrival in seconds after the window start.
+   * @param route The route.
+   */
+  private void add(final int id, final int dep, final int arr, final BusEdge[] route) {
+    final int size = sizes[id];
+    if(size == 0) {
+      deps[id] = new int[4];
+      arrs[id] = new int[4];
+      routes[id] = new BusEdge[4][];
+    } else if(size == deps[id].length) {
+      deps[id] = Arrays.copyOf(deps[id], 2 * size);
+      arrs[id] = Arrays.copyOf(arrs[id], 2 * size);
+      routes[id] = Arrays.copyOf(routes[id], 2 * size);
+    }
+    deps[id][size] = dep;
+    arrs[id][size] = arr;
+    routes[id][size] = route;
+    sizes[id] = size + 1;
+  }
+
+  /**
+   * Sorts the routes by increasing departure.
+   */
+  private void finish() {
+    for(int id = 0; id < sizes.length; ++id) {
+      final int size = sizes[id];
+      for(int i = 0, j = size - 1; i < j; ++i, --j) {
+        final int d = deps[id][i];
+        deps[id][i] = deps[id][j];
+        deps[id][j] = d;
+        final int a = arrs[id][i];
+        arrs[id][i] = arrs[id][j];
+        arrs[id][j] = a;
+        final BusEdge[] r = routes[id][i];
+        routes[id][i] = routes[id][j];
+        routes[id][j] = r;
+      }
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The start station.
+   */
+  public BusStation getStation() {
+    return station;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The first start time of the window.
+   */
+  public BusTime getStartTime() {
+    return start;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The last start time of the window.
+   */
+  public BusTime getEndTime() {
+    return start.later(0, window);
+  }
+
+  /**
+   * Checks whether the given start time lies within the window.
+   * 
+   * @param time The start time.
+   * @return Whether the results for the time can be read from the profile.
+   */
+  public boolean covers(final BusTime time) {
+    return start.secondsTo(time) <= window;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param dest The destination.
+   * @return The number of Pareto optimal routes to the destination.
+   */
+  public int size(final BusStation dest) {
+    return sizes[dest.getId()];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param dest The destination.
+   * @param i The index of the route, routes are sorted by departure.
+   * @return The departure of the route.
+   */
+  public BusTime getDeparture(final BusStation dest, final int i) {
+    return start.later(0, deps[dest.getId()][i]);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param dest The destination.
+   * @param i The index of the route, routes are sorted by departure.
+   * @return The arrival of the route.
+   */
+  public BusTime getArrival(final BusStation dest, final int i) {
+    return start.later(0, arrs[dest.getId()][i]);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param dest The destination.
+   * @param i The index of the route, routes are sorted by departure.
+   * @return The edges of the route.
+   */
+  public Collection<BusEdge> getEdges(final BusStation dest, final int i) {
+    return Collections.unmodifiableList(Arrays.asList(routes[dest.getId()][i]));
+  }
+
+  /**
+   * Reads the fastest routes for the given start time from the profile.
+   * 
+   * @param time The start time. It must be covered by the profile.
+   * @return The routes to all stations.
+   */
+  public RoutingResult[] getResults(final BusTime time) {
+    final int off = start.secondsTo(time);
+    if(off > window) throw new IllegalArgumentException("time not covered: " + time);
+    final RoutingResult[] res = new RoutingResult[sizes.length];
+    for(final BusStation to : bse.getStations()) {
+      final int id = to.getId();
+      if(to.equals(station)) {
+        res[id] = new RoutingResult(station);
+        continue;
+      }
+      final int walk = station.walkingSeconds(to);
+      final boolean canWalk = walk >= 0 && walk <= maxWalkSecs && walk <= maxDurSecs;
+      final int i = first(id, off);
+      if(i < 0 || arrs[id][i] - off > maxDurSecs
+          || canWalk && arrs[id][i] - off >= walk) {
+        res[id] = canWalk ? new RoutingResult(station, to, new BusEdge[] {
+            BusEdge.walking(station, to, time, time.later(0, walk))}, time, walk)
+            : new RoutingResult(station, to);
+        continue;
+      }
+      final BusEdge[] edges = routes[id][i];
+      final BusEdge e = edges[0];
+      if(e.getLine() == BusLine.WALK) {
+        // the walk starts at the requested time
+        final BusEdge[] moved = edges.clone();
+        moved[0] = BusEdge.walking(station, e.getTo(), time,
+            time.later(0, e.travelSeconds()));
+        res[id] = new RoutingResult(station, to, moved, time, arrs[id][i] - off);
+      } else {
+        res[id] = new RoutingResult(station, to, edges, time, arrs[id][i] - off);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Finds the route with the earliest departure not before the given time.
+   * 
+   * @param id The destination id.
+   * @param off The start time in seconds after the window start.
+   * @return The index of the route or <code>-1</code> if there is none.
+   */
+  private int first(final int id, final int off) {
+    final int[] d = deps[id];
+    int low = 0, high = sizes[id] - 1;
+    while(low <= high) {
+      final int mid = (low + high) >>> 1;
+      if(d[mid] < off) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low < sizes[id] ? low : -1;
+  }
+
+}
@@ -0,0 +1,136 @@
+package infovis.routing;
+
+/**
+ * Streams the routes of a running routing in batches. Routing algorithms that
+ * settle stations one after another, like the {@link RouteFinder}, obtain the
+ * progress of their thread via {@link #current()} and report every route as
+ * soon as it is final. The routes are passed on to the listener every
+ * {@link #BATCH} routes or every {@link #INTERVAL} milliseconds, whatever comes
+ * first.
+ * 
+ * @author agent <agent@local>
+ */
+public final class RoutingProgress {
+
+  /** The maximal number of routes per batch. */
+  public static final int BATCH = 64;
+
+  /** The maximal time in milliseconds a route is held back. */
+  public static final int INTERVAL = 16;
+
+  /** The progress attached to the current thread. */
+  private static final ThreadLocal<RoutingProgress> CURRENT =
+      new ThreadLocal<RoutingProgress>();
+
+  /** The progress of threads without a listener. */
+  private static final RoutingProgress NONE = new RoutingProgress(null);
+
+  /** The listener, <code>null</code> if nobody is interested. */
+  private final Listener listener;
+
+  /** The routes that were not passed on yet, created on first use. */
+  private RoutingResult[] pending;
+
+  /** The number of pending routes. */
+  private int count;
+
+  /** The time of the last batch in nanoseconds. */
+  private long last;
+
+  /**
+   * Constructor.
+   * 
+   * @param listener The listener, may be <code>null</code>.
+   */
+  RoutingProgress(final Listener listener) {
+    this.listener = listener;
+    last = System.nanoTime();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The progress attached to the current thread or a progress
+   *         discarding all routes if there is none.
+   */
+  public static RoutingProgress current() {
+    final RoutingProgress progress = CURRENT.get();
+    return progress != null ? progress : NONE;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the routes are of interest. Algorithms should only create
+   *         the routes in advance if they are. This may change while the
+   *         routing runs.
+   */
+  public boolean isWanted() {
+    return listener != null && listener.isWanted();
+  }
+
+  /**
+   * Reports a final route.
+   * 
+   * @param route The route.
+   */
+  public void settled(final RoutingResult route) {
+    if(!isWanted()) return;
+    if(pending == null) {
+      pending = new RoutingResult[BATCH];
+    }
+    pending[count++] = route;
+    if(count == BATCH || System.nanoTime() - last >= INTERVAL * 1000000L) {
+      flush();
+    }
+  }
+
+  /**
+   * Passes all pending routes on to the listener.
+   */
+  public void flush() {
+    if(count == 0) return;
+    listener.settled(pending, count);
+    count = 0;
+    last = System.nanoTime();
+  }
+
+  /**
+   * Attaches the progress to the current thread.
+   */
+  void attach() {
+    CURRENT.set(this);
+  }
+
+  /**
+   * Detaches the progress from the current thread.
+   */
+  void detach() {
+    CURRENT.remove();
+  }
+
+  /**
+   * Receives the routes of a running routing.
+   * 
+   * @author agent <agent@local>
+   */
+  interface Listener {
+
+    /**
+     * Getter.
+     * 
+     * @return Whether the listener is currently interested in routes.
+     */
+    boolean isWanted();
+
+    /**
+     * Called with a batch of final routes.
+     * 
+     * @param routes The routes, the array is reused afterwards.
+     * @param count The number of routes in the array.
+     */
+    void settled(RoutingResult[] routes, int count);
+
+  } // Listener
+
+}
@@ -25,9 +25,18 @@ public final class RoutingResult {
   /** The travel time. */
   private final int seconds;
 
-  /** The edges used by this route. */
+  /** The edges used by this route, <code>null</code> if not reachable or in a tree. */
   private final Collection<BusEdge> edges;
 
+  /** The tree containing this route, may be <code>null</code>. */
+  private final RouteTree tree;
+
+  /** The last node of this route in the {@link #tree}. */
+  private final int node;
+
+  /** The edges of a route in a tree, created when first requested. */
+  private volatile Collection<BusEdge> path;
+
   /** The start time. */
   private final BusTime startTime;
 
@@ -61,6 +70,44 @@ public final class RoutingResult {
     this.seconds = seconds;
     this.edges = Collections.unmodifiableCollection(edges);
     this.startTime = startTime;
+    tree = null;
+    node = -1;
+  }
+
+  /**
+   * Creates a routing result for a reachable station whose edges are only
+   * created from the route tree when they are requested.
+   * 
+   * @param to The end station.
+   * @param tree The tree of routes from the start station.
+   * @param node The last node of the route in the tree.
+   */
+  RoutingResult(final BusStation to, final RouteTree tree, final int node) {
+    from = tree.getFrom();
+    this.to = to;
+    seconds = tree.seconds(node);
+    edges = null;
+    startTime = tree.getStart();
+    this.tree = tree;
+    this.node = node;
+  }
+
+  /**
+   * Creates the same route for a later start time.
+   * 
+   * @param route The route.
+   * @param startTime The new start time.
+   * @param seconds The new travel time.
+   */
+  private RoutingResult(final RoutingResult route, final BusTime startTime,
+      final int seconds) {
+    from = route.from;
+    to = route.to;
+    this.seconds = seconds;
+    edges = route.edges;
+    this.startTime = startTime;
+    tree = route.tree;
+    node = route.node;
   }
 
   /**
@@ -75,6 +122,8 @@ public final class RoutingResult {
     seconds = from != to ? -1 : 0;
     edges = null;
     startTime = null;
+    tree = null;
+    node = -1;
   }
 
   /**
@@ -129,7 +178,7 @@ public final class RoutingResult {
    * @return Whether the destination is not reachable.
    */
   public boolean isReachable() {
-    return edges != null || from == to;
+    return edges != null || tree != null || from == to;
   }
 
   /**
@@ -147,7 +196,111 @@ public final class RoutingResult {
    * @return The edges used by this route.
    */
   public Collection<BusEdge> getEdges() {
-    return edges;
+    if(tree == null) return edges;
+    // the edges are drawn over and over, so they are only created once
+    Collection<BusEdge> res = path;
+    if(res == null) {
+      res = Collections.unmodifiableList(Arrays.asList(tree.path(node)));
+      path = res;
+    }
+    return res;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The route tree containing this route, <code>null</code> if the
+   *         edges are stored directly.
+   */
+  RouteTree getTree() {
+    return tree;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The first bus of the route or <code>null</code> if the route takes
+   *         no bus.
+   */
+  private BusEdge firstBus() {
+    if(!isReachable() || isStartNode()) return null;
+    if(tree != null) {
+      final int first = tree.firstBus(node);
+      return first < 0 ? null : tree.edge(first);
+    }
+    for(final BusEdge e : edges) {
+      if(e.getLine() != BusLine.WALK) return e;
+    }
+    return null;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The walking time before the first bus in seconds or
+   *         <code>-1</code> if the route starts with a bus.
+   */
+  private int walkBeforeBus() {
+    if(tree != null) {
+      final int before = tree.parent(tree.firstBus(node));
+      return before < 0 ? -1 : tree.seconds(before);
+    }
+    final BusEdge first = edges.iterator().next();
+    return first.getLine() == BusLine.WALK ? first.travelSeconds() : -1;
+  }
+
+  /**
+   * Calculates how long after the start time the route can still be taken,
+   * ie. until its first bus leaves. Walking to the first bus needs the change
+   * time.
+   * 
+   * @param wait The change time in seconds.
+   * @return The latest start in seconds after the start time or
+   *         <code>-1</code> if the route takes no bus.
+   */
+  int latestStart(final int wait) {
+    final BusEdge bus = firstBus();
+    if(bus == null) return -1;
+    final int walk = walkBeforeBus();
+    return startTime.secondsTo(bus.getStart()) - (walk < 0 ? 0 : walk + wait);
+  }
+
+  /**
+   * Moves the route to a later start time. The route can still be taken if
+   * its first bus has not left yet, the arrival stays the same then. Since
+   * no route starting later arrives earlier, the route stays the fastest one.
+   * Routes only walking are not moved, since a bus arriving during the time
+   * in between may be faster now.
+   * 
+   * @param time The new start time.
+   * @param wait The change time in seconds, needed when walking to the first
+   *          bus.
+   * @return The moved route or <code>null</code> if the route has to be
+   *         computed again.
+   */
+  RoutingResult later(final BusTime time, final int wait) {
+    if(isStartNode()) return this;
+    if(!isReachable()) return null;
+    final int delta = startTime.secondsTo(time);
+    if(latestStart(wait) < delta) return null;
+    final int walk = walkBeforeBus();
+    if(walk < 0) return new RoutingResult(this, time, seconds - delta);
+    // the walk to the first bus starts later
+    final BusEdge[] path = getEdges().toArray(new BusEdge[0]);
+    path[0] = BusEdge.walking(from, path[0].getTo(), time, time.later(0, walk));
+    return new RoutingResult(from, to, path, time, seconds - delta);
+  }
+
+  /**
+   * Moves a route only walking to a later start time. The walk takes as long
+   * as before.
+   * 
+   * @param time The new start time.
+   * @return The moved route.
+   */
+  RoutingResult walkLater(final BusTime time) {
+    final BusEdge walk = BusEdge.walking(from, to, time, time.later(0, seconds));
+    return new RoutingResult(from, to, new BusEdge[] { walk}, time, seconds);
   }
 
   /**
@@ -179,7 +332,7 @@ public final class RoutingResult {
     sb.append(",\n  steps=[\n    Start at ").append(from.getName());
     if(!from.equals(to)) {
       BusEdge prev = null;
-      for(final BusEdge curr : edges) {
+      for(final BusEdge curr : getEdges()) {
         if(prev == null || !prev.sameTour(curr)) {
           final int wait = (prev == null ? startTime : prev.getEnd()).minutesTo(curr.getStart());
           if(prev != null) {
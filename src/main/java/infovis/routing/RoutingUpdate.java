@@ -0,0 +1,356 @@
+package infovis.routing;
+
+import infovis.data.BusEdge;
+import infovis.data.BusLine;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Stopwatch;
+
+import java.util.BitSet;
+import java.util.Iterator;
+
+/**
+ * The routes from a station together with the query they answer. When the
+ * start time moves on, eg. every second in realtime mode, the routes can be
+ * updated instead of computed from scratch: a route whose first bus has not
+ * left yet still arrives as early as possible. Only the destinations whose
+ * route is gone are routed again, and the update tells which routes actually
+ * changed. Before the {@link #getNextChange() next change time} no route is
+ * gone, so nothing is routed at all.
+ * 
+ * @author agent <agent@local>
+ */
+public final class RoutingUpdate {
+
+  /** The number of seconds per day. */
+  private static final int DAY = BusTime.SECONDS_PER_DAY;
+
+  /** The bus station enumerator. */
+  private final BusStationEnumerator bse;
+
+  /** The start station. */
+  private final BusStation station;
+
+  /** The start time. */
+  private final BusTime start;
+
+  /** The change time in minutes. */
+  private final int wait;
+
+  /** The maximal duration in minutes. */
+  private final int maxDuration;
+
+  /** The maximal walking time in minutes. */
+  private final int maxWalk;
+
+  /** The routing algorithm. */
+  private final RoutingAlgorithm algo;
+
+  /** The routes by station id. */
+  private final RoutingResult[] routes;
+
+  /** The ids of the stations whose route changed. */
+  private final BitSet changed;
+
+  /**
+   * The seconds after the start time for which all routes stay the same,
+   * <code>-1</code> if a route may change right away.
+   */
+  private final int quiet;
+
+  /**
+   * Constructor.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station The start station.
+   * @param start The start time.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @param algo The routing algorithm.
+   * @param routes The routes by station id.
+   * @param changed The ids of the stations whose route changed.
+   */
+  private RoutingUpdate(final BusStationEnumerator bse, final BusStation station,
+      final BusTime start, final int wait, final int maxDuration, final int maxWalk,
+      final RoutingAlgorithm algo, final RoutingResult[] routes, final BitSet changed) {
+    this.bse = bse;
+    this.station = station;
+    this.start = start;
+    this.wait = wait;
+    this.maxDuration = maxDuration;
+    this.maxWalk = maxWalk;
+    this.algo = algo;
+    this.routes = routes;
+    this.changed = changed;
+    quiet = quietSeconds();
+  }
+
+  /**
+   * Wraps routes computed from scratch. All routes count as changed.
+   * 
+   * @param bse The bus station enumerator.
+   * @param station The start station.
+   * @param start The start time.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @param algo The routing algorithm.
+   * @param routes The routes to all stations, as returned by the algorithm.
+   * @return The routes with their query.
+   */
+  public static RoutingUpdate of(final BusStationEnumerator bse, final BusStation station,
+      final BusTime start, final int wait, final int maxDuration, final int maxWalk,
+      final RoutingAlgorithm algo, final RoutingResult[] routes) {
+    final BitSet all = new BitSet();
+    all.set(0, routes.length);
+    return new RoutingUpdate(bse, station, start, wait, maxDuration, maxWalk, algo,
+        routes.clone(), all);
+  }
+
+  /**
+   * Checks whether the routes answer a query with the given parameters, apart
+   * from the start time.
+   * 
+   * @param s The start station.
+   * @param w The change time in minutes.
+   * @param duration The maximal duration in minutes.
+   * @param walk The maximal walking time in minutes.
+   * @param a The routing algorithm.
+   * @return Whether the routes can be updated for the query.
+   */
+  public boolean answers(final BusStation s, final int w, final int duration,
+      final int walk, final RoutingAlgorithm a) {
+    return station.equals(s) && wait == w && maxDuration == duration
+        && maxWalk == walk && algo == a;
+  }
+
+  /**
+   * Updates the routes for a later start time. Routes that can still be taken
+   * are kept, all others are computed again by the routing algorithm.
+   * 
+   * @param time The new start time.
+   * @return The updated routes.
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public RoutingUpdate later(final BusTime time) throws InterruptedException {
+    final Stopwatch t = new Stopwatch();
+    final RoutingResult[] res = new RoutingResult[routes.length];
+    final BitSet stale = move(time, res);
+    final BitSet diff = new BitSet();
+    if(!stale.isEmpty()) {
+      final RoutingResult[] fresh = algo.findRoutes(bse, station, stale, time, wait,
+          maxDuration, maxWalk);
+      for(int id = stale.nextSetBit(0); id >= 0; id = stale.nextSetBit(id + 1)) {
+        res[id] = fresh[id];
+        if(!sameRoute(routes[id], fresh[id])) {
+          diff.set(id);
+        }
+      }
+      System.out.println("Routing update (thread: " + Thread.currentThread().getName()
+          + " time: " + t.current() + " recomputed: " + stale.cardinality()
+          + " changed: " + diff.cardinality() + ")");
+    }
+    return new RoutingUpdate(bse, station, time, wait, maxDuration, maxWalk, algo, res,
+        diff);
+  }
+
+  /**
+   * Moves the routes to a later start time before the {@link #getNextChange()
+   * next change time}. Since no route is gone before that time, nothing is
+   * routed and the caller does not need to wait for a routing.
+   * 
+   * @param time The new start time.
+   * @return The moved routes or <code>null</code> if the time is not before
+   *         the next change time.
+   */
+  public RoutingUpdate shift(final BusTime time) {
+    if(start.secondsTo(time) > quiet) return null;
+    final RoutingResult[] res = new RoutingResult[routes.length];
+    if(!move(time, res).isEmpty()) throw new IllegalStateException(
+        "route gone before the next change: " + time);
+    return new RoutingUpdate(bse, station, time, wait, maxDuration, maxWalk, algo, res,
+        new BitSet());
+  }
+
+  /**
+   * Moves all routes that can still be taken to a later start time.
+   * 
+   * @param time The new start time.
+   * @param res The array the moved routes are stored in.
+   * @return The ids of the stations whose route is gone.
+   */
+  private BitSet move(final BusTime time, final RoutingResult[] res) {
+    final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+    final int delta = start.secondsTo(time);
+    final BitSet stale = new BitSet();
+    int bus = -1;
+    for(int id = 0; id < routes.length; ++id) {
+      final RoutingResult r = routes[id];
+      if(r == null) {
+        continue;
+      }
+      res[id] = r.later(time, waitSecs);
+      if(res[id] != null) {
+        continue;
+      }
+      if(!r.isReachable()) {
+        if(!station.canReach(r.getEnd())) {
+          // the station is never reachable
+          res[id] = r;
+        }
+      } else if(r.latestStart(waitSecs) < 0) {
+        // no bus is faster than walking before the first bus leaves
+        if(bus < 0) {
+          bus = firstBus();
+        }
+        if(delta < bus - r.seconds()) {
+          res[id] = r.walkLater(time);
+        }
+      }
+      if(res[id] == null) {
+        stale.set(id);
+      }
+    }
+    return stale;
+  }
+
+  /**
+   * Calculates when the first bus can be taken at the earliest. Buses at
+   * other stations need the walk there and the change time.
+   * 
+   * @return The departure of the first bus in seconds after the start time.
+   */
+  private int firstBus() {
+    final int secs = start.secondsFromMidnight();
+    int min = nextDeparture(station, secs);
+    final int near = station.walkingNeighbours(maxWalk * BusTime.SECONDS_PER_MINUTE);
+    for(int i = 0; i < near; ++i) {
+      final int before = station.getWalkingNeighbourSeconds(i)
+          + wait * BusTime.SECONDS_PER_MINUTE;
+      min = Math.min(min, before
+          + nextDeparture(station.getWalkingNeighbour(i), (secs + before) % DAY));
+    }
+    return min;
+  }
+
+  /**
+   * Calculates the time until the next departure at a station.
+   * 
+   * @param s The station.
+   * @param secs The time of day in seconds.
+   * @return The time until the next departure in seconds, a day if there is
+   *         none.
+   */
+  private static int nextDeparture(final BusStation s, final int secs) {
+    if(s.departures() == 0) return DAY;
+    return (s.getDepartSeconds(s.firstDeparture(secs)) - secs + DAY) % DAY;
+  }
+
+  /**
+   * Calculates for how long after the start time the routes stay the same. A
+   * route with a bus stays until the bus leaves. A route only walking stays
+   * until a bus that may arrive before the walk leaves, and a station that is
+   * not reachable may be reachable at any time.
+   * 
+   * @return The time in seconds, <code>-1</code> if a route may change right
+   *         away.
+   */
+  private int quietSeconds() {
+    final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+    int res = DAY - 1;
+    int bus = -1;
+    for(final RoutingResult r : routes) {
+      if(r == null || r.isStartNode()) {
+        continue;
+      }
+      if(!r.isReachable()) {
+        if(station.canReach(r.getEnd())) return -1;
+        continue;
+      }
+      final int latest = r.latestStart(waitSecs);
+      if(latest < 0) {
+        if(bus < 0) {
+          bus = firstBus();
+        }
+        res = Math.min(res, bus - r.seconds() - 1);
+      } else {
+        res = Math.min(res, latest);
+      }
+    }
+    return Math.max(res, -1);
+  }
+
+  /**
+   * Checks whether two routes to the same station take the same buses and
+   * walks, regardless of the start time.
+   * 
+   * @param a The first route.
+   * @param b The second route.
+   * @return Whether the routes are the same.
+   */
+  private static boolean sameRoute(final RoutingResult a, final RoutingResult b) {
+    if(a.isReachable() != b.isReachable()) return false;
+    if(!a.isReachable() || a.isStartNode()) return true;
+    final Iterator<BusEdge> ea = a.getEdges().iterator();
+    final Iterator<BusEdge> eb = b.getEdges().iterator();
+    while(ea.hasNext() && eb.hasNext()) {
+      final BusEdge x = ea.next();
+      final BusEdge y = eb.next();
+      if(x.getLine() == BusLine.WALK ? y.getLine() != BusLine.WALK
+          || !x.getFrom().equals(y.getFrom()) || !x.getTo().equals(y.getTo())
+          : !x.equals(y)) return false;
+    }
+    return ea.hasNext() == eb.hasNext();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The routes by station id. The array must not be modified.
+   */
+  public RoutingResult[] getRoutes() {
+    return routes;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The start time of the routes.
+   */
+  public BusTime getStart() {
+    return start;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The earliest start time at which any route may change. Before
+   *         that the routes are only moved to the later start time.
+   */
+  public BusTime getNextChange() {
+    return start.later(0, quiet + 1);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether any route uses other buses or walks than before the
+   *         update. The travel times change with the start time anyway.
+   */
+  public boolean hasChanged() {
+    return !changed.isEmpty();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The ids of the stations whose route uses other buses or walks
+   *         than before the update.
+   */
+  public BitSet getChanged() {
+    return (BitSet) changed.clone();
+  }
+
+}
@@ -0,0 +1,431 @@
+package infovis.routing;
+
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.IndexedHeap;
+import infovis.util.Stopwatch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Time-dependent Dijkstra search on the {@link TravelTimeGraph}. Instead of
+ * scanning every departure of a station like the {@link RouteFinder}, an arc
+ * to a neighbouring station is relaxed only once with the earliest usable
+ * departure, so the work depends on the number of connected station pairs and
+ * not on the number of buses. Every station has one label for arriving by bus
+ * and one for arriving on foot, since walking is only allowed after a bus. The
+ * change time is not needed to stay on the same bus, which makes the travel
+ * times not FIFO: a bus arriving a bit later than the best one may still be
+ * the better choice to ride on. Such buses are followed along their tour
+ * until they improve a label. The found routes are always feasible but in
+ * rare cases not the fastest ones.
+ * 
+ * @author agent <agent@local>
+ */
+public final class TimeDependentRouteFinder implements RoutingAlgorithm {
+
+  /** Label type for arrivals by bus and for the start station. */
+  private static final int BUS = 0;
+
+  /** Label type for arrivals by foot. */
+  private static final int WALK = 1;
+
+  @Override
+  public RoutingResult[] findRoutes(final BusStationEnumerator bse,
+      final BusStation station, final BitSet dests, final BusTime start, final int wait,
+      final int maxDuration, final int maxWalk) throws InterruptedException {
+    final Stopwatch t = new Stopwatch();
+    final CancelToken cancel = CancelToken.current();
+    final TravelTimeGraph graph = TravelTimeGraph.get(bse);
+    final int n = graph.stationCount;
+    final int maxWalkSecs = maxWalk * BusTime.SECONDS_PER_MINUTE;
+    final int maxDurSecs = maxDuration * BusTime.SECONDS_PER_MINUTE;
+    final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+    final int startSecs = start.secondsFromMidnight();
+    final int sid = station.getId();
+
+    final BitSet notFound;
+    if(dests == null) {
+      notFound = new BitSet();
+      for(final BusStation s : bse.getStations()) {
+        notFound.set(s.getId());
+      }
+    } else {
+      notFound = (BitSet) dests.clone();
+    }
+    notFound.set(sid, false);
+
+    final Labels labels = new Labels(2 * n);
+    final int[] bestRoutes = new int[n];
+    Arrays.fill(bestRoutes, -1);
+    final int origin = 2 * sid + BUS;
+    labels.update(origin, 0, -1, -1, -1, -1);
+    long settled = 0;
+    for(int cur; !notFound.isEmpty() && (cur = labels.poll()) >= 0;) {
+      ++settled;
+      cancel.check();
+      final int id = labels.station[cur];
+      final BusStation at = graph.stations[id];
+      final int secs = labels.time[cur];
+      if(bestRoutes[id] < 0) {
+        bestRoutes[id] = cur;
+        notFound.set(id, false);
+      }
+      final int time = (startSecs + secs) % BusTime.SECONDS_PER_DAY;
+      // walking to the first bus needs the change time as well
+      final int gap = cur == origin ? 0 : waitSecs;
+      if((cur & 1) == BUS && gap > 0) {
+        // staying on the bus needs no change time
+        final int stay = continuation(at, time, gap, labels.line[cur], labels.tour[cur]);
+        if(stay >= 0) {
+          ride(graph, labels, cur, at, stay, secs + secondsBetween(time,
+              at.getDepartSeconds(stay)), startSecs, waitSecs, maxDurSecs);
+        }
+      }
+      final int board = (time + gap) % BusTime.SECONDS_PER_DAY;
+      for(int a = graph.firstArc[id]; a < graph.firstArc[id + 1]; ++a) {
+        final int first = graph.next(a, board);
+        final int d = graph.best[first];
+        final int limit = secs + gap + secondsBetween(board, graph.dep[d]) + graph.dur[d]
+            + waitSecs;
+        // buses arriving a bit later than the best one may still be worth riding
+        for(int i = first, k = graph.firstDep[a + 1] - graph.firstDep[a]; --k >= 0;
+            i = graph.after(a, i)) {
+          final int dsecs = secs + gap + secondsBetween(board, graph.dep[i]);
+          if(dsecs > limit) {
+            break;
+          }
+          if(i == d || dsecs + graph.dur[i] < limit) {
+            ride(graph, labels, cur, at, graph.index[i], dsecs, startSecs, waitSecs,
+                maxDurSecs);
+          }
+        }
+      }
+      if((cur & 1) == BUS) {
+        final int near = at.walkingNeighbours(Math.min(maxWalkSecs, maxDurSecs - secs));
+        for(int i = 0; i < near; ++i) {
+          final int to = at.getWalkingNeighbour(i).getId();
+          labels.update(2 * to + WALK, secs + at.getWalkingNeighbourSeconds(i), cur, -1,
+              -1, -1);
+        }
+      }
+    }
+
+    final RouteTree tree = labels.toTree(bestRoutes, graph, bse, station, start);
+    final RoutingResult[] res = new RoutingResult[bse.maxId() + 1];
+    for(final BusStation to : bse.getStations()) {
+      final int id = to.getId();
+      if(id == sid) {
+        res[id] = new RoutingResult(station);
+      } else {
+        final int node = tree.getRoute(id);
+        res[id] = node < 0 ? new RoutingResult(station, to)
+            : new RoutingResult(to, tree, node);
+      }
+    }
+    System.out.println("Routing (thread: " + Thread.currentThread().getName()
+        + " time: " + t.current() + " labels: " + settled + " arcs: " + graph.arcs()
+        + " time-dependent)");
+    return res;
+  }
+
+  /**
+   * Rides a bus from a station. The bus label of the next station is updated
+   * if the bus arrives there first. Otherwise the bus is followed along its
+   * tour as long as it arrives less than the change time after the best bus,
+   * since staying on it may still be faster than changing.
+   * 
+   * @param graph The graph.
+   * @param labels The labels.
+   * @param from The label of the station the bus is boarded at.
+   * @param at The station the bus is boarded at.
+   * @param dep The index of the departure at the station.
+   * @param secs The departure in seconds after the start.
+   * @param startSecs The start time in seconds after midnight.
+   * @param waitSecs The change time in seconds.
+   * @param maxDurSecs The maximal travel time in seconds.
+   */
+  private static void ride(final TravelTimeGraph graph, final Labels labels,
+      final int from, final BusStation at, final int dep, final int secs,
+      final int startSecs, final int waitSecs, final int maxDurSecs) {
+    int before = from;
+    BusStation s = at;
+    int d = dep;
+    int dsecs = secs;
+    for(;;) {
+      final int arr = dsecs + secondsBetween(s.getDepartSeconds(d), s.getArriveSeconds(d));
+      if(arr > maxDurSecs) return;
+      final int to = s.getDestinationId(d);
+      final int lineId = s.getLineId(d);
+      final int tourNr = s.getTourNr(d);
+      final int slot = 2 * to + BUS;
+      final int old = labels.time[slot];
+      // a replaced bus that arrives only a bit later is followed instead
+      int pass = old >= 0 && arr <= old && old < arr + waitSecs && labels.line[slot] >= 0
+          && labels.queued(slot) ? labels.copy(slot) : -1;
+      if(labels.update(slot, arr, before, d, lineId, tourNr)) {
+        if(pass < 0) return;
+      } else {
+        if(old + waitSecs <= arr) return;
+        pass = labels.pass(before, to, arr, d, lineId, tourNr);
+      }
+      final BusStation next = graph.stations[to];
+      final int time = (startSecs + labels.time[pass]) % BusTime.SECONDS_PER_DAY;
+      final int stay = continuation(next, time, waitSecs, labels.line[pass],
+          labels.tour[pass]);
+      if(stay < 0) return;
+      before = pass;
+      s = next;
+      d = stay;
+      dsecs = labels.time[pass] + secondsBetween(time, next.getDepartSeconds(stay));
+    }
+  }
+
+  /**
+   * Finds the departure that continues the tour of a bus.
+   * 
+   * @param s The station.
+   * @param time The arrival of the bus as time of day in seconds.
+   * @param gap The change time in seconds, later departures are ignored.
+   * @param lineId The line id of the bus.
+   * @param tourNr The tour number of the bus.
+   * @return The index of the departure, <code>-1</code> if there is none.
+   */
+  private static int continuation(final BusStation s, final int time, final int gap,
+      final int lineId, final int tourNr) {
+    final int deps = s.departures();
+    for(int k = 0, i = s.firstDeparture(time); k < deps
+        && secondsBetween(time, s.getDepartSeconds(i)) < gap;
+        ++k, i = i + 1 < deps ? i + 1 : 0) {
+      if(s.getLineId(i) == lineId && s.getTourNr(i) == tourNr) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Calculates the seconds from a time of day until another one.
+   * 
+   * @param from The time of day in seconds.
+   * @param to The other time of day in seconds.
+   * @return The seconds between both times.
+   */
+  private static int secondsBetween(final int from, final int to) {
+    return (to - from + BusTime.SECONDS_PER_DAY) % BusTime.SECONDS_PER_DAY;
+  }
+
+  @Override
+  public String toString() {
+    return "Time-dependent route finder";
+  }
+
+  /**
+   * The labels of a search. Label <code>2 * id + type</code> holds the
+   * earliest arrival at the station with the given id by the given type. The
+   * labels after them are stations a bus passes through on the way to a
+   * label, they are never expanded.
+   * 
+   * @author agent <agent@local>
+   */
+  private static final class Labels {
+
+    /** The arrival in seconds after the start, <code>-1</code> if unreached. */
+    int[] time;
+    /** The label the station was reached from, <code>-1</code> for the start. */
+    int[] parent;
+    /** The id of the station. */
+    int[] station;
+    /** The departure index at the previous station, <code>-1</code> for a walk. */
+    int[] dep;
+    /** The line id of the bus, <code>-1</code> for a walk. */
+    int[] line;
+    /** The tour number of the bus. */
+    int[] tour;
+    /** The number of edges. */
+    int[] length;
+    /** The number of labels. */
+    private int size;
+    /** The labels that are final. */
+    private final BitSet done = new BitSet();
+    /** The labels to be expanded. */
+    private final IndexedHeap queue;
+
+    /**
+     * Constructor.
+     * 
+     * @param slots The number of station labels.
+     */
+    Labels(final int slots) {
+      final int cap = 2 * slots;
+      time = new int[cap];
+      Arrays.fill(time, -1);
+      parent = new int[cap];
+      station = new int[cap];
+      for(int l = 0; l < slots; ++l) {
+        station[l] = l >> 1;
+      }
+      dep = new int[cap];
+      line = new int[cap];
+      tour = new int[cap];
+      length = new int[cap];
+      size = slots;
+      queue = new IndexedHeap(slots);
+    }
+
+    /**
+     * Improves a station label if the new arrival is earlier, or as early with
+     * fewer edges.
+     * 
+     * @param l The label.
+     * @param secs The arrival in seconds after the start.
+     * @param before The label it is reached from, <code>-1</code> for none.
+     * @param d The departure index at the previous station, <code>-1</code> for
+     *          a walk.
+     * @param lineId The line id of the bus.
+     * @param tourNr The tour number of the bus.
+     * @return Whether the label was improved.
+     */
+    boolean update(final int l, final int secs, final int before, final int d,
+        final int lineId, final int tourNr) {
+      if(done.get(l)) return false;
+      final int len = before < 0 ? 0 : length[before] + 1;
+      final long prio = (long) secs << 32 | len;
+      final boolean queued = queue.contains(l);
+      if(queued && queue.getPriority(l) <= prio) return false;
+      set(l, secs, before, d, lineId, tourNr, len);
+      if(queued) {
+        queue.decreaseKey(l, prio);
+      } else {
+        queue.add(l, prio);
+      }
+      return true;
+    }
+
+    /**
+     * Adds a label for a station a bus passes through.
+     * 
+     * @param before The label it is reached from.
+     * @param id The id of the station.
+     * @param secs The arrival in seconds after the start.
+     * @param d The departure index at the previous station.
+     * @param lineId The line id of the bus.
+     * @param tourNr The tour number of the bus.
+     * @return The label.
+     */
+    int pass(final int before, final int id, final int secs, final int d,
+        final int lineId, final int tourNr) {
+      if(size == time.length) {
+        final int cap = 2 * size;
+        time = Arrays.copyOf(time, cap);
+        parent = Arrays.copyOf(parent, cap);
+        station = Arrays.copyOf(station, cap);
+        dep = Arrays.copyOf(dep, cap);
+        line = Arrays.copyOf(line, cap);
+        tour = Arrays.copyOf(tour, cap);
+        length = Arrays.copyOf(length, cap);
+      }
+      final int l = size++;
+      station[l] = id;
+      set(l, secs, before, d, lineId, tourNr, length[before] + 1);
+      return l;
+    }
+
+    /**
+     * Copies a station label to a label for a station a bus passes through.
+     * 
+     * @param l The label.
+     * @return The copy.
+     */
+    int copy(final int l) {
+      return pass(parent[l], station[l], time[l], dep[l], line[l], tour[l]);
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param l The label.
+     * @return Whether the label is waiting to be expanded.
+     */
+    boolean queued(final int l) {
+      return queue.contains(l);
+    }
+
+    /**
+     * Sets the values of a label.
+     * 
+     * @param l The label.
+     * @param secs The arrival in seconds after the start.
+     * @param before The label it is reached from.
+     * @param d The departure index at the previous station.
+     * @param lineId The line id of the bus.
+     * @param tourNr The tour number of the bus.
+     * @param len The number of edges.
+     */
+    private void set(final int l, final int secs, final int before, final int d,
+        final int lineId, final int tourNr, final int len) {
+      time[l] = secs;
+      parent[l] = before;
+      dep[l] = d;
+      line[l] = lineId;
+      tour[l] = tourNr;
+      length[l] = len;
+    }
+
+    /**
+     * Removes the label with the earliest arrival and marks it as final.
+     * 
+     * @return The label or <code>-1</code> if there is none.
+     */
+    int poll() {
+      final int l = queue.poll();
+      if(l >= 0) {
+        done.set(l);
+      }
+      return l;
+    }
+
+    /**
+     * Copies the labels of the given routes into a route tree.
+     * 
+     * @param best The label of the route per station id, <code>-1</code> for
+     *          none.
+     * @param graph The graph.
+     * @param bse The bus station enumerator.
+     * @param from The start station.
+     * @param start The start time.
+     * @return The route tree.
+     */
+    RouteTree toTree(final int[] best, final TravelTimeGraph graph,
+        final BusStationEnumerator bse, final BusStation from, final BusTime start) {
+      final RouteTree tree = new RouteTree(bse, from, start, best.length);
+      final int[] nodes = new int[size];
+      Arrays.fill(nodes, -1);
+      int[] stack = new int[16];
+      for(int id = 0; id < best.length; ++id) {
+        if(best[id] < 0 || parent[best[id]] < 0) {
+          continue;
+        }
+        // the labels not copied yet, starting with the last one
+        int top = 0;
+        for(int l = best[id]; parent[l] >= 0 && nodes[l] < 0; l = parent[l]) {
+          if(top == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * top);
+          }
+          stack[top++] = l;
+        }
+        while(--top >= 0) {
+          final int l = stack[top];
+          final int before = parent[l];
+          final int d = dep[l];
+          nodes[l] = tree.add(parent[before] < 0 ? -1 : nodes[before], d < 0 ? null
+              : graph.stations[station[before]].getEdge(d), station[l], time[l]);
+        }
+        tree.setRoute(id, nodes[best[id]]);
+      }
+      return tree;
+    }
+
+  } // Labels
+
+}
@@ -0,0 +1,556 @@
+package infovis.routing;
+
+import infovis.data.BusEdge;
+import infovis.data.BusLine;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A compact, array based view of all bus tours of a
+ * {@link BusStationEnumerator} used by the scanning routing algorithms. Tours
+ * are split into trips, ie. chains of {@link BusEdge}s that can be ridden
+ * without changing the bus. Trips with the same sequence of stations are
+ * grouped into patterns that can be scanned in one go. All times are stored in
+ * seconds and unwrapped, ie. a trip starting before midnight keeps counting
+ * past {@link BusTime#SECONDS_PER_DAY}.
+ * 
+ * @author agent <agent@local>
+ */
+final class Timetable {
+
+  /** The number of seconds per day. */
+  static final int DAY = BusTime.SECONDS_PER_DAY;
+
+  /** Offset of the departure time of a connection. */
+  static final int C_DEP = 0;
+
+  /** Offset of the arrival time of a connection. */
+  static final int C_ARR = 1;
+
+  /** Offset of the departure station id of a connection. */
+  static final int C_FROM = 2;
+
+  /** Offset of the arrival station id of a connection. */
+  static final int C_TO = 3;
+
+  /** Offset of the trip id of a connection. */
+  static final int C_TRIP = 4;
+
+  /** Offset of the position of a connection within its trip. */
+  static final int C_POS = 5;
+
+  /** Offset of the day the trip of a connection started before its departure. */
+  static final int C_DAY = 6;
+
+  /** The number of integers per connection. */
+  static final int CONN = 7;
+
+  /** Already built time tables, keyed by the station collection. */
+  private static final Map<Collection<BusStation>, Timetable> CACHE =
+      new WeakHashMap<Collection<BusStation>, Timetable>();
+
+  /**
+   * Getter.
+   * 
+   * @param bse The bus station enumerator.
+   * @return The time table for the given stations. It is built only once per
+   *         station collection.
+   */
+  static Timetable get(final BusStationEnumerator bse) {
+    final Collection<BusStation> key = bse.getStations();
+    synchronized(CACHE) {
+      Timetable table = CACHE.get(key);
+      if(table == null) {
+        table = new Timetable(bse);
+        CACHE.put(key, table);
+      }
+      return table;
+    }
+  }
+
+  /** The number of station ids, ie. the highest id plus one. */
+  final int stationCount;
+
+  /** The stations by id. */
+  final BusStation[] stations;
+
+  /** The edges of every trip in travel order. */
+  final BusEdge[][] tripEdges;
+
+  /** The station ids of every pattern in travel order. */
+  final int[][] patternStops;
+
+  /** The trip ids of every pattern sorted by departure. */
+  final int[][] patternTrips;
+
+  /**
+   * The departure times at every position of a pattern in trip-major order.
+   * The departure at the last position is the arrival time.
+   */
+  final int[][] patternDep;
+
+  /**
+   * The arrival times at every position of a pattern in trip-major order. The
+   * arrival at the first position is the departure time.
+   */
+  final int[][] patternArr;
+
+  /** Offsets into {@link #stopPatterns} for every station id. */
+  final int[] stopIndex;
+
+  /** The patterns visiting the stations. */
+  final int[] stopPatterns;
+
+  /** The positions of the stations within {@link #stopPatterns}. */
+  final int[] stopPositions;
+
+  /** The number of connections. */
+  final int connCount;
+
+  /**
+   * All connections, ie. the edges of all trips, sorted by their departure
+   * time. Every connection occupies {@link #CONN} consecutive integers. The
+   * departure times are taken modulo {@link #DAY}, the arrival times are
+   * shifted by the same amount.
+   */
+  final int[] conns;
+
+  /**
+   * Builds the time table.
+   * 
+   * @param bse The bus station enumerator.
+   */
+  private Timetable(final BusStationEnumerator bse) {
+    stationCount = bse.maxId() + 1;
+    stations = new BusStation[stationCount];
+    final Map<Tour, List<BusEdge>> tours = new LinkedHashMap<Tour, List<BusEdge>>();
+    for(final BusStation s : bse.getStations()) {
+      stations[s.getId()] = s;
+    }
+    for(final BusStation s : stations) {
+      if(s == null) {
+        continue;
+      }
+      for(final BusEdge e : s.getEdges()) {
+        final Tour t = new Tour(e.getLine(), e.getTourNr());
+        List<BusEdge> list = tours.get(t);
+        if(list == null) {
+          list = new ArrayList<BusEdge>();
+          tours.put(t, list);
+        }
+        list.add(e);
+      }
+    }
+    final List<BusEdge[]> trips = new ArrayList<BusEdge[]>();
+    for(final List<BusEdge> tour : tours.values()) {
+      chain(tour, trips);
+    }
+    tripEdges = trips.toArray(new BusEdge[trips.size()][]);
+
+    // group trips by their station sequence
+    final Map<List<Integer>, List<Integer>> seqs =
+        new LinkedHashMap<List<Integer>, List<Integer>>();
+    final int[][] times = new int[tripEdges.length][];
+    for(int t = 0; t < tripEdges.length; ++t) {
+      final BusEdge[] edges = tripEdges[t];
+      final List<Integer> seq = new ArrayList<Integer>(edges.length + 1);
+      seq.add(edges[0].getFrom().getId());
+      for(final BusEdge e : edges) {
+        seq.add(e.getTo().getId());
+      }
+      List<Integer> list = seqs.get(seq);
+      if(list == null) {
+        list = new ArrayList<Integer>();
+        seqs.put(seq, list);
+      }
+      list.add(t);
+      times[t] = unwrap(edges);
+    }
+
+    // split the groups until no trip overtakes another one
+    final List<int[]> stops = new ArrayList<int[]>();
+    final List<int[]> pats = new ArrayList<int[]>();
+    for(final Map.Entry<List<Integer>, List<Integer>> e : seqs.entrySet()) {
+      final List<Integer> seq = e.getKey();
+      final int[] st = new int[seq.size()];
+      for(int i = 0; i < st.length; ++i) {
+        st[i] = seq.get(i);
+      }
+      final List<Integer> group = e.getValue();
+      Collections.sort(group, new Comparator<Integer>() {
+        @Override
+        public int compare(final Integer a, final Integer b) {
+          return times[a][0] - times[b][0];
+        }
+      });
+      final List<List<Integer>> buckets = new ArrayList<List<Integer>>();
+      for(final Integer t : group) {
+        List<Integer> fit = null;
+        for(final List<Integer> b : buckets) {
+          if(noOvertaking(times[b.get(b.size() - 1)], times[t], 0)
+              && noOvertaking(times[t], times[b.get(0)], DAY)) {
+            fit = b;
+            break;
+          }
+        }
+        if(fit == null) {
+          fit = new ArrayList<Integer>();
+          buckets.add(fit);
+        }
+        fit.add(t);
+      }
+      for(final List<Integer> b : buckets) {
+        final int[] ts = new int[b.size()];
+        for(int i = 0; i < ts.length; ++i) {
+          ts[i] = b.get(i);
+        }
+        stops.add(st);
+        pats.add(ts);
+      }
+    }
+
+    final int patternCount = pats.size();
+    patternStops = stops.toArray(new int[patternCount][]);
+    patternTrips = pats.toArray(new int[patternCount][]);
+    patternDep = new int[patternCount][];
+    patternArr = new int[patternCount][];
+    final int[] stopCount = new int[stationCount + 1];
+    for(int p = 0; p < patternCount; ++p) {
+      final int len = patternStops[p].length;
+      final int[] ts = patternTrips[p];
+      final int[] dep = new int[ts.length * len];
+      final int[] arr = new int[ts.length * len];
+      for(int j = 0; j < ts.length; ++j) {
+        final int[] tm = times[ts[j]];
+        for(int i = 0; i < len; ++i) {
+          dep[j * len + i] = tm[Math.min(2 * i, tm.length - 1)];
+          arr[j * len + i] = tm[Math.max(2 * i - 1, 0)];
+        }
+      }
+      patternDep[p] = dep;
+      patternArr[p] = arr;
+      for(final int s : patternStops[p]) {
+        ++stopCount[s + 1];
+      }
+    }
+    stopIndex = new int[stationCount + 1];
+    for(int s = 0; s < stationCount; ++s) {
+      stopIndex[s + 1] = stopIndex[s] + stopCount[s + 1];
+    }
+    stopPatterns = new int[stopIndex[stationCount]];
+    stopPositions = new int[stopPatterns.length];
+    final int[] fill = Arrays.copyOf(stopIndex, stationCount);
+    for(int p = 0; p < patternCount; ++p) {
+      final int[] st = patternStops[p];
+      for(int i = 0; i < st.length; ++i) {
+        final int pos = fill[st[i]]++;
+        stopPatterns[pos] = p;
+        stopPositions[pos] = i;
+      }
+    }
+
+    // sort all connections by departure
+    final List<int[]> cs = new ArrayList<int[]>();
+    for(int t = 0; t < tripEdges.length; ++t) {
+      final BusEdge[] edges = tripEdges[t];
+      final int[] tm = times[t];
+      for(int i = 0; i < edges.length; ++i) {
+        final int day = tm[2 * i] / DAY;
+        cs.add(new int[] { tm[2 * i] - day * DAY, tm[2 * i + 1] - day * DAY,
+            edges[i].getFrom().getId(), edges[i].getTo().getId(), t, i, day});
+      }
+    }
+    Collections.sort(cs, new Comparator<int[]>() {
+      @Override
+      public int compare(final int[] a, final int[] b) {
+        if(a[C_DEP] != b[C_DEP]) return a[C_DEP] - b[C_DEP];
+        if(a[C_ARR] != b[C_ARR]) return a[C_ARR] - b[C_ARR];
+        return a[C_POS] - b[C_POS];
+      }
+    });
+    connCount = cs.size();
+    conns = new int[connCount * CONN];
+    for(int c = 0; c < connCount; ++c) {
+      System.arraycopy(cs.get(c), 0, conns, c * CONN, CONN);
+    }
+  }
+
+  /**
+   * Splits the edges of a tour into chains of consecutive edges. Edges are
+   * linked greedily by the shortest time the bus stands at the station.
+   * 
+   * @param tour The edges of the tour.
+   * @param out The list to add the chains to.
+   */
+  private static void chain(final List<BusEdge> tour, final List<BusEdge[]> out) {
+    final int m = tour.size();
+    final int[] next = new int[m];
+    final int[] prev = new int[m];
+    final int[] root = new int[m];
+    Arrays.fill(next, -1);
+    Arrays.fill(prev, -1);
+    final List<long[]> links = new ArrayList<long[]>();
+    for(int a = 0; a < m; ++a) {
+      root[a] = a;
+      final BusEdge ea = tour.get(a);
+      for(int b = 0; b < m; ++b) {
+        final BusEdge eb = tour.get(b);
+        if(a != b && ea.getTo().equals(eb.getFrom())) {
+          links.add(new long[] { ea.getEnd().secondsTo(eb.getStart()), a, b});
+        }
+      }
+    }
+    Collections.sort(links, new Comparator<long[]>() {
+      @Override
+      public int compare(final long[] x, final long[] y) {
+        return x[0] < y[0] ? -1 : x[0] > y[0] ? 1 : 0;
+      }
+    });
+    for(final long[] l : links) {
+      final int a = (int) l[1], b = (int) l[2];
+      if(next[a] >= 0 || prev[b] >= 0) {
+        continue;
+      }
+      final int ra = find(root, a), rb = find(root, b);
+      if(ra == rb) {
+        continue;
+      }
+      root[rb] = ra;
+      next[a] = b;
+      prev[b] = a;
+    }
+    for(int a = 0; a < m; ++a) {
+      if(prev[a] >= 0) {
+        continue;
+      }
+      int len = 0;
+      for(int e = a; e >= 0; e = next[e]) {
+        ++len;
+      }
+      final BusEdge[] trip = new BusEdge[len];
+      int i = 0;
+      for(int e = a; e >= 0; e = next[e]) {
+        trip[i++] = tour.get(e);
+      }
+      out.add(trip);
+    }
+  }
+
+  /**
+   * Finds the representative of a chain.
+   * 
+   * @param root The union-find array.
+   * @param e The element.
+   * @return The representative.
+   */
+  private static int find(final int[] root, final int e) {
+    int r = e;
+    while(root[r] != r) {
+      r = root[r];
+    }
+    return r;
+  }
+
+  /**
+   * Computes the unwrapped times of a trip.
+   * 
+   * @param edges The edges of the trip.
+   * @return The times in seconds, alternating between departure and arrival.
+   */
+  private static int[] unwrap(final BusEdge[] edges) {
+    final int[] res = new int[2 * edges.length];
+    int cur = edges[0].getStart().secondsFromMidnight();
+    BusTime last = edges[0].getStart();
+    for(int i = 0; i < edges.length; ++i) {
+      final BusEdge e = edges[i];
+      cur += last.secondsTo(e.getStart());
+      res[2 * i] = cur;
+      cur += e.travelSeconds();
+      res[2 * i + 1] = cur;
+      last = e.getEnd();
+    }
+    return res;
+  }
+
+  /**
+   * Checks whether the second trip neither departs nor arrives anywhere before
+   * the first one.
+   * 
+   * @param first The times of the first trip.
+   * @param second The times of the second trip.
+   * @param shift The shift in seconds added to the second trip.
+   * @return Whether the second trip does not overtake the first.
+   */
+  private static boolean noOvertaking(final int[] first, final int[] second,
+      final int shift) {
+    for(int i = 0; i < first.length; ++i) {
+      if(first[i] > second[i] + shift) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Finds the earliest trip instance of a pattern departing at the given
+   * position not before the given time. Since trips run every day a trip may
+   * also be taken one day earlier or later.
+   * 
+   * @param pattern The pattern.
+   * @param pos The position in the pattern.
+   * @param time The earliest departure in seconds.
+   * @return The instance as <code>3 * trip + day + 1</code> with the trip index
+   *         in the pattern and the day offset between <code>-1</code> and
+   *         <code>1</code>, or <code>-1</code> if there is none.
+   */
+  int earliestTrip(final int pattern, final int pos, final int time) {
+    final int[] dep = patternDep[pattern];
+    final int len = patternStops[pattern].length;
+    final int trips = patternTrips[pattern].length;
+    int best = -1;
+    int bestDep = Integer.MAX_VALUE;
+    for(int day = -1; day <= 1; ++day) {
+      final int shift = day * DAY;
+      int low = 0, high = trips - 1;
+      while(low <= high) {
+        final int mid = (low + high) >>> 1;
+        if(dep[mid * len + pos] + shift < time) {
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      if(low < trips && dep[low * len + pos] + shift < bestDep) {
+        bestDep = dep[low * len + pos] + shift;
+        best = 3 * low + day + 1;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Finds the first connection departing not before the given time.
+   * 
+   * @param time The time in seconds after midnight.
+   * @return The index of the connection, {@link #connCount} if there is none.
+   */
+  int firstConnection(final int time) {
+    int low = 0, high = connCount - 1;
+    while(low <= high) {
+      final int mid = (low + high) >>> 1;
+      if(conns[mid * CONN + C_DEP] < time) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param pattern The pattern.
+   * @param inst The trip instance.
+   * @param pos The position in the pattern.
+   * @return The departure of the trip instance at the given position.
+   */
+  int departure(final int pattern, final int inst, final int pos) {
+    return patternDep[pattern][inst / 3 * patternStops[pattern].length + pos]
+        + (inst % 3 - 1) * DAY;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param pattern The pattern.
+   * @param inst The trip instance.
+   * @param pos The position in the pattern.
+   * @return The arrival of the trip instance at the given position.
+   */
+  int arrival(final int pattern, final int inst, final int pos) {
+    return patternArr[pattern][inst / 3 * patternStops[pattern].length + pos]
+        + (inst % 3 - 1) * DAY;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param pattern The pattern.
+   * @param inst The trip instance.
+   * @return The edges of the trip.
+   */
+  BusEdge[] edges(final int pattern, final int inst) {
+    return tripEdges[patternTrips[pattern][inst / 3]];
+  }
+
+  /**
+   * Computes a fingerprint of the time table and the walks between the
+   * stations, so data derived from them and stored for other bus data is not
+   * used.
+   * 
+   * @return The fingerprint.
+   */
+  int fingerprint() {
+    int res = 31 * Arrays.hashCode(conns) + tripEdges.length;
+    for(final BusStation s : stations) {
+      if(s == null) {
+        continue;
+      }
+      final int near = s.walkingNeighbours(Integer.MAX_VALUE);
+      for(int i = 0; i < near; ++i) {
+        res = 31 * (31 * res + s.getWalkingNeighbour(i).getId())
+            + s.getWalkingNeighbourSeconds(i);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * The line and number of a tour.
+   * 
+   * @author agent <agent@local>
+   */
+  private static final class Tour {
+
+    /** The line. */
+    private final BusLine line;
+
+    /** The tour number. */
+    private final int nr;
+
+    /**
+     * Constructor.
+     * 
+     * @param line The line.
+     * @param nr The tour number.
+     */
+    Tour(final BusLine line, final int nr) {
+      this.line = line;
+      this.nr = nr;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if(!(obj instanceof Tour)) return false;
+      final Tour t = (Tour) obj;
+      return nr == t.nr && line.equals(t.line);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * line.hashCode() + nr;
+    }
+
+  } // Tour
+
+}
@@ -0,0 +1,446 @@
+package infovis.routing;
+
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Resource;
+import infovis.util.Stopwatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Travel times between all pairs of stations for start times every few
+ * minutes, precomputed by the {@link AllPairsRouter} and stored in a file. The
+ * times are stored as <code>short</code> minutes, rounded up, ordered by start
+ * station, start time slot and end station, so all travel times from one
+ * station at one time are adjacent. The file is memory-mapped, so a lookup only
+ * touches the pages it needs. A lookup starts with the next time slot, so the
+ * travel times are never too optimistic but may be a few minutes too long. The
+ * cube only holds travel times, not the routes themselves.
+ * 
+ * @author agent <agent@local>
+ */
+public final class TravelTimeCube {
+
+  /** The first integer of a cube file. */
+  private static final int MAGIC = 0x54544355;
+
+  /** The version of the cube file format. */
+  private static final int VERSION = 1;
+
+  /** The size of the file header in bytes. */
+  private static final int HEADER = 9 * 4;
+
+  /** The number of seconds per day. */
+  private static final int DAY = BusTime.SECONDS_PER_DAY;
+
+  /** The stored value for stations that are not reachable. */
+  private static final short UNREACHABLE = -1;
+
+  /** Already opened cubes, keyed by the station collection. */
+  private static final Map<Collection<BusStation>, Map<String, TravelTimeCube>> CACHE =
+      new WeakHashMap<Collection<BusStation>, Map<String, TravelTimeCube>>();
+
+  /**
+   * The length and modification time of the files that could not be opened
+   * by their path, keyed by the station collection and guarded by
+   * {@link #CACHE}.
+   */
+  private static final Map<Collection<BusStation>, Map<String, String>> FAILED =
+      new WeakHashMap<Collection<BusStation>, Map<String, String>>();
+
+  /** The file. */
+  private final FileChannel channel;
+
+  /** The number of station ids. */
+  private final int stations;
+
+  /** The number of time slots per day. */
+  private final int slots;
+
+  /** The length of a time slot in seconds. */
+  private final int slotSeconds;
+
+  /** The change time in minutes. */
+  private final int wait;
+
+  /** The maximal duration in minutes. */
+  private final int maxDuration;
+
+  /** The maximal walking time in minutes. */
+  private final int maxWalk;
+
+  /** The mapped travel times by start station, mapped when first needed. */
+  private final ShortBuffer[] blocks;
+
+  /**
+   * Constructor.
+   * 
+   * @param channel The file.
+   * @param stations The number of station ids.
+   * @param slots The number of time slots per day.
+   * @param slotSeconds The length of a time slot in seconds.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   */
+  private TravelTimeCube(final FileChannel channel, final int stations, final int slots,
+      final int slotSeconds, final int wait, final int maxDuration, final int maxWalk) {
+    this.channel = channel;
+    this.stations = stations;
+    this.slots = slots;
+    this.slotSeconds = slotSeconds;
+    this.wait = wait;
+    this.maxDuration = maxDuration;
+    this.maxWalk = maxWalk;
+    blocks = new ShortBuffer[stations];
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param bse The bus station enumerator.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @return The cube stored in the cache directory of the bus data or
+   *         <code>null</code> if there is none for the given parameters.
+   */
+  public static TravelTimeCube get(final BusStationEnumerator bse, final int wait,
+      final int maxDuration, final int maxWalk) {
+    final Resource dir = bse.getCache();
+    if(dir == null) return null;
+    final Resource file = dir.getFile(fileName(wait, maxDuration, maxWalk));
+    if(!file.hasDirectFile()) return null;
+    final Collection<BusStation> key = bse.getStations();
+    synchronized(CACHE) {
+      Map<String, TravelTimeCube> map = CACHE.get(key);
+      if(map == null) {
+        map = new HashMap<String, TravelTimeCube>();
+        CACHE.put(key, map);
+      }
+      final File f = file.directFile();
+      final String path = f.getPath();
+      TravelTimeCube cube = map.get(path);
+      if(cube == null) {
+        if(!f.isFile()) return null;
+        Map<String, String> failed = FAILED.get(key);
+        if(failed == null) {
+          failed = new HashMap<String, String>();
+          FAILED.put(key, failed);
+        }
+        // a broken file is only tried again once it was written again
+        final String stamp = f.length() + "@" + f.lastModified();
+        if(stamp.equals(failed.get(path))) return null;
+        try {
+          cube = open(bse, f);
+        } catch(final IOException e) {
+          System.err.println("Ignoring travel time cube: " + e.getMessage());
+          failed.put(path, stamp);
+          return null;
+        }
+        failed.remove(path);
+        map.put(path, cube);
+      }
+      return cube;
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @return The name of the cube file in the cache directory.
+   */
+  public static String fileName(final int wait, final int maxDuration, final int maxWalk) {
+    return "cube-" + wait + "-" + maxDuration + "-" + maxWalk + ".bin";
+  }
+
+  /**
+   * Computes the travel times and writes them to a file.
+   * 
+   * @param bse The bus station enumerator.
+   * @param file The file.
+   * @param slotMinutes The length of a time slot in minutes. It must divide a
+   *          day.
+   * @param wait The change time in minutes.
+   * @param maxDuration The maximal duration in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @throws IOException I/O exception
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  public static void build(final BusStationEnumerator bse, final File file,
+      final int slotMinutes, final int wait, final int maxDuration, final int maxWalk)
+          throws IOException, InterruptedException {
+    final int slotSecs = slotMinutes * BusTime.SECONDS_PER_MINUTE;
+    if(slotSecs <= 0 || DAY % slotSecs != 0) throw new IllegalArgumentException(
+        "slot length does not divide a day: " + slotMinutes);
+    final Stopwatch t = new Stopwatch();
+    final int n = bse.maxId() + 1;
+    final int slots = DAY / slotSecs;
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      final FileChannel ch = raf.getChannel();
+      // the header is written last, so an unfinished cube is never opened
+      final ByteBuffer header = ByteBuffer.allocate(HEADER);
+      writeFully(ch, header, 0);
+      ch.force(false);
+      raf.setLength(HEADER + (long) n * slots * n * 2);
+      final ByteBuffer row = ByteBuffer.allocate(n * 2);
+      final IOException[] failure = new IOException[1];
+      for(int s = 0; s < slots; ++s) {
+        final int slot = s;
+        AllPairsRouter.compute(bse, BusTime.ofSeconds(s * slotSecs), wait, maxDuration,
+            maxWalk, new AllPairsRouter.RowConsumer() {
+
+              @Override
+              public void row(final BusStation from, final int[] seconds) {
+                if(failure[0] != null) return;
+                row.clear();
+                for(int to = 0; to < n; ++to) {
+                  row.putShort(minutes(seconds[to]));
+                }
+                row.flip();
+                try {
+                  writeFully(ch, row, offset(from.getId(), slot, 0, slots, n));
+                } catch(final IOException e) {
+                  failure[0] = e;
+                }
+              }
+
+            });
+        if(failure[0] != null) throw failure[0];
+      }
+      ch.force(false);
+      header.clear();
+      header.putInt(MAGIC).putInt(VERSION).putInt(Timetable.get(bse).fingerprint());
+      header.putInt(n).putInt(slots).putInt(slotSecs);
+      header.putInt(wait).putInt(maxDuration).putInt(maxWalk);
+      header.flip();
+      writeFully(ch, header, 0);
+      ch.force(false);
+    } finally {
+      raf.close();
+    }
+    System.out.println("Travel time cube (slots: " + slots + " stations: " + n
+        + " time: " + t.current() + ")");
+  }
+
+  /**
+   * Converts a travel time into whole minutes, rounded up.
+   * 
+   * @param seconds The travel time in seconds or <code>-1</code> if the station
+   *          is not reachable.
+   * @return The stored value.
+   */
+  static short minutes(final int seconds) {
+    if(seconds < 0) return UNREACHABLE;
+    final int min = (seconds + BusTime.SECONDS_PER_MINUTE - 1) / BusTime.SECONDS_PER_MINUTE;
+    return (short) Math.min(min, Short.MAX_VALUE);
+  }
+
+  /**
+   * Calculates the position of a travel time in the file.
+   * 
+   * @param from The start station id.
+   * @param slot The time slot.
+   * @param to The end station id.
+   * @param slots The number of time slots.
+   * @param n The number of station ids.
+   * @return The offset in bytes.
+   */
+  static long offset(final int from, final int slot, final int to, final int slots,
+      final int n) {
+    return HEADER + (((long) from * slots + slot) * n + to) * 2;
+  }
+
+  /**
+   * Writes a buffer completely.
+   * 
+   * @param ch The file.
+   * @param buf The buffer.
+   * @param pos The position in the file.
+   * @throws IOException I/O exception
+   */
+  private static void writeFully(final FileChannel ch, final ByteBuffer buf,
+      final long pos) throws IOException {
+    long p = pos;
+    while(buf.hasRemaining()) {
+      p += ch.write(buf, p);
+    }
+  }
+
+  /**
+   * Opens a cube file.
+   * 
+   * @param bse The bus station enumerator.
+   * @param file The file.
+   * @return The cube.
+   * @throws IOException if the file could not be read or belongs to other bus
+   *           data
+   */
+  public static TravelTimeCube open(final BusStationEnumerator bse, final File file)
+      throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    boolean ok = false;
+    try {
+      final FileChannel ch = raf.getChannel();
+      final ByteBuffer header = ByteBuffer.allocate(HEADER);
+      while(header.hasRemaining()) {
+        if(ch.read(header, header.position()) < 0) throw new IOException(
+            "truncated cube: " + file);
+      }
+      header.flip();
+      if(header.getInt() != MAGIC || header.getInt() != VERSION) throw new IOException(
+          "no travel time cube: " + file);
+      if(header.getInt() != Timetable.get(bse).fingerprint()) throw new IOException(
+          "cube belongs to other bus data: " + file);
+      final int n = header.getInt();
+      final int slots = header.getInt();
+      final int slotSecs = header.getInt();
+      if(n != bse.maxId() + 1 || slots * slotSecs != DAY
+          || ch.size() != offset(n, 0, 0, slots, n)) throw new IOException(
+              "corrupt cube: " + file);
+      final TravelTimeCube cube = new TravelTimeCube(ch, n, slots, slotSecs,
+          header.getInt(), header.getInt(), header.getInt());
+      ok = true;
+      return cube;
+    } finally {
+      // the mapped blocks stay valid after the file is closed
+      if(!ok) {
+        raf.close();
+      }
+    }
+  }
+
+  /**
+   * Checks whether the cube answers a query with the given parameters.
+   * 
+   * @param w The change time in minutes.
+   * @param duration The maximal duration in minutes.
+   * @param walk The maximal walking time in minutes.
+   * @return Whether the cube holds the travel times for the query.
+   */
+  public boolean answers(final int w, final int duration, final int walk) {
+    return wait == w && maxDuration == duration && maxWalk == walk;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param from The start station id.
+   * @return The travel times from the station.
+   * @throws IOException I/O exception
+   */
+  private synchronized ShortBuffer block(final int from) throws IOException {
+    if(blocks[from] == null) {
+      final long pos = offset(from, 0, 0, slots, stations);
+      blocks[from] = channel.map(MapMode.READ_ONLY, pos,
+          offset(from + 1, 0, 0, slots, stations) - pos).asShortBuffer();
+    }
+    return blocks[from];
+  }
+
+  /**
+   * Calculates the first time slot starting at or after the given time.
+   * 
+   * @param time The time.
+   * @return The time slot.
+   */
+  private int slot(final BusTime time) {
+    return (time.secondsFromMidnight() + slotSeconds - 1) / slotSeconds % slots;
+  }
+
+  /**
+   * Calculates the seconds from the given time until the start of a time slot.
+   * 
+   * @param time The time.
+   * @param slot The time slot.
+   * @return The waiting time in seconds.
+   */
+  private int waitFor(final BusTime time, final int slot) {
+    return (slot * slotSeconds - time.secondsFromMidnight() + DAY) % DAY;
+  }
+
+  /**
+   * Looks up a travel time. The travel time starts with the next time slot, so
+   * it can always be achieved.
+   * 
+   * @param from The start station id.
+   * @param to The end station id.
+   * @param time The start time.
+   * @return The travel time in seconds or <code>-1</code> if the station is not
+   *         reachable.
+   * @throws IOException I/O exception
+   */
+  public int seconds(final int from, final int to, final BusTime time)
+      throws IOException {
+    if(from == to) return 0;
+    final int slot = slot(time);
+    return seconds(block(from).get(slot * stations + to), waitFor(time, slot));
+  }
+
+  /**
+   * Converts a stored travel time into seconds.
+   * 
+   * @param min The stored value.
+   * @param before The waiting time before the time slot starts in seconds.
+   * @return The travel time in seconds or <code>-1</code> if the station is not
+   *         reachable within the maximal duration.
+   */
+  private int seconds(final short min, final int before) {
+    if(min == UNREACHABLE) return -1;
+    final int secs = before + min * BusTime.SECONDS_PER_MINUTE;
+    return secs <= maxDuration * BusTime.SECONDS_PER_MINUTE ? secs : -1;
+  }
+
+  /**
+   * Looks up the travel times from a station to all stations. The results have
+   * no edges since only the travel times are stored.
+   * 
+   * @param bse The bus station enumerator.
+   * @param from The start station.
+   * @param time The start time.
+   * @return The routing results by station id.
+   * @throws IOException I/O exception
+   */
+  public RoutingResult[] routes(final BusStationEnumerator bse, final BusStation from,
+      final BusTime time) throws IOException {
+    final Stopwatch t = new Stopwatch();
+    final ShortBuffer block = block(from.getId());
+    final int slot = slot(time);
+    final int before = waitFor(time, slot);
+    final RoutingResult[] res = new RoutingResult[stations];
+    final BusEdge[] none = new BusEdge[0];
+    for(int id = 0; id < stations; ++id) {
+      final BusStation to = bse.getForId(id);
+      if(to == null) {
+        continue;
+      }
+      if(to.equals(from)) {
+        res[id] = new RoutingResult(from);
+        continue;
+      }
+      final int secs = seconds(block.get(slot * stations + id), before);
+      res[id] = secs < 0 ? new RoutingResult(from, to)
+          : new RoutingResult(from, to, none, time, secs);
+    }
+    System.out.println("Lookup (thread: " + Thread.currentThread().getName() + " time: "
+        + t.current() + ")");
+    return res;
+  }
+
+}
@@ -0,0 +1,211 @@
+package infovis.routing;
+
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A time-dependent view of the bus network. There is one arc for every pair of
+ * stations with a direct bus connection and every arc holds a travel time
+ * function: the departures along the arc sorted by time together with their
+ * travel times. The time needed to reach the end of an arc at a given time is
+ * the waiting time until the next departure plus its travel time, a piecewise
+ * linear function of the time. Its breakpoints are the departures that are
+ * not overtaken by a later one, they are precomputed for every departure so
+ * the function can be evaluated with a binary search. The departures are
+ * stored in flat arrays.
+ * 
+ * @author agent <agent@local>
+ */
+final class TravelTimeGraph {
+
+  /** The number of seconds per day. */
+  private static final int DAY = BusTime.SECONDS_PER_DAY;
+
+  /** Already built graphs, keyed by the station collection. */
+  private static final Map<Collection<BusStation>, TravelTimeGraph> CACHE =
+      new WeakHashMap<Collection<BusStation>, TravelTimeGraph>();
+
+  /**
+   * Getter.
+   * 
+   * @param bse The bus station enumerator.
+   * @return The graph for the given stations. It is built only once per station
+   *         collection.
+   */
+  static TravelTimeGraph get(final BusStationEnumerator bse) {
+    final Collection<BusStation> key = bse.getStations();
+    synchronized(CACHE) {
+      TravelTimeGraph graph = CACHE.get(key);
+      if(graph == null) {
+        graph = new TravelTimeGraph(bse);
+        CACHE.put(key, graph);
+      }
+      return graph;
+    }
+  }
+
+  /** The number of station ids, ie. the highest id plus one. */
+  final int stationCount;
+
+  /** The stations by id. */
+  final BusStation[] stations;
+
+  /** Offsets into the arcs for every station id. */
+  final int[] firstArc;
+
+  /** The station id the arcs lead to. */
+  final int[] arcTo;
+
+  /** Offsets into the departures for every arc. */
+  final int[] firstDep;
+
+  /** The departures in seconds after midnight, sorted per arc. */
+  final int[] dep;
+
+  /** The travel times of the departures in seconds. */
+  final int[] dur;
+
+  /** The index of the departure at the start station of its arc. */
+  final int[] index;
+
+  /**
+   * The departure along the same arc with the earliest arrival among all
+   * departures not before the given one, ie. the bus to take when reaching the
+   * start of the arc before the given departure. These departures are the
+   * breakpoints of the travel time function.
+   */
+  final int[] best;
+
+  /**
+   * Builds the graph.
+   * 
+   * @param bse The bus station enumerator.
+   */
+  private TravelTimeGraph(final BusStationEnumerator bse) {
+    stationCount = bse.maxId() + 1;
+    stations = new BusStation[stationCount];
+    int total = 0;
+    for(final BusStation s : bse.getStations()) {
+      stations[s.getId()] = s;
+      total += s.departures();
+    }
+    firstArc = new int[stationCount + 1];
+    int[] to = new int[16];
+    int[] first = new int[17];
+    dep = new int[total];
+    dur = new int[total];
+    index = new int[total];
+    best = new int[total];
+    int arcs = 0, size = 0;
+    for(int id = 0; id < stationCount; ++id) {
+      firstArc[id] = arcs;
+      final BusStation s = stations[id];
+      if(s == null) {
+        continue;
+      }
+      // the departures grouped by destination, each group sorted by time
+      final int deps = s.departures();
+      final long[] keys = new long[deps];
+      for(int i = 0; i < deps; ++i) {
+        keys[i] = (long) s.getDestinationId(i) << 32 | i;
+      }
+      Arrays.sort(keys);
+      for(int g = 0; g < deps;) {
+        final int dest = (int) (keys[g] >>> 32);
+        final int start = size;
+        for(; g < deps && (int) (keys[g] >>> 32) == dest; ++g) {
+          final int i = (int) keys[g];
+          dep[size] = s.getDepartSeconds(i);
+          dur[size] = travelSeconds(s, i);
+          index[size] = i;
+          ++size;
+        }
+        final int m = size - start;
+        // the earliest arrival not departing before a departure, also on the next day
+        long minArr = Long.MAX_VALUE;
+        int min = -1;
+        for(int j = 2 * m; --j >= 0;) {
+          final int p = start + j % m;
+          final long arr = dep[p] + (j >= m ? DAY : 0) + dur[p];
+          if(arr < minArr) {
+            minArr = arr;
+            min = p;
+          }
+          if(j < m) {
+            best[p] = min;
+          }
+        }
+        if(arcs == to.length) {
+          to = Arrays.copyOf(to, 2 * arcs);
+          first = Arrays.copyOf(first, 2 * arcs + 1);
+        }
+        to[arcs] = dest;
+        first[arcs++] = start;
+      }
+    }
+    firstArc[stationCount] = arcs;
+    first[arcs] = size;
+    arcTo = Arrays.copyOf(to, arcs);
+    firstDep = Arrays.copyOf(first, arcs + 1);
+  }
+
+  /**
+   * Calculates the travel time of a departure.
+   * 
+   * @param s The station.
+   * @param i The index of the departure.
+   * @return The travel time in seconds.
+   */
+  private static int travelSeconds(final BusStation s, final int i) {
+    return (s.getArriveSeconds(i) - s.getDepartSeconds(i) + DAY) % DAY;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of arcs.
+   */
+  int arcs() {
+    return arcTo.length;
+  }
+
+  /**
+   * Finds the first departure along an arc not before the given time of day.
+   * After the last departure of the day the first one of the next day follows.
+   * 
+   * @param arc The arc.
+   * @param time The time of day in seconds.
+   * @return The departure.
+   */
+  int next(final int arc, final int time) {
+    final int lo = firstDep[arc], hi = firstDep[arc + 1];
+    int low = lo, high = hi - 1;
+    while(low <= high) {
+      final int mid = (low + high) >>> 1;
+      if(dep[mid] < time) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low < hi ? low : lo;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param arc The arc.
+   * @param i A departure along the arc.
+   * @return The departure following the given one, cyclically.
+   */
+  int after(final int arc, final int i) {
+    return i + 1 < firstDep[arc + 1] ? i + 1 : firstDep[arc];
+  }
+
+}
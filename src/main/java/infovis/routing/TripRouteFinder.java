@@ -0,0 +1,449 @@
+package infovis.routing;
+
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Stopwatch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Trip-based routing algorithm. The search is a breadth first search over
+ * trip segments, ie. parts of trips that are ridden without changing the bus.
+ * A segment is followed by the {@link TripTransfers} from its arrivals, so the
+ * <code>k</code>-th round finds all fastest routes using <code>k</code> buses.
+ * Every trip remembers the first position it was boarded at, so a trip and all
+ * later trips of its pattern are never scanned twice. Stations and departures
+ * are not looked at during the search at all, the work lies in computing the
+ * transfers once per change time and walking time.
+ * 
+ * @author agent <agent@local>
+ */
+public final class TripRouteFinder implements RoutingAlgorithm {
+
+  /**
+   * The number of days a trip can run on, starting with the day before the
+   * start time.
+   */
+  private static final int DAYS = 5;
+
+  @Override
+  public RoutingResult[] findRoutes(final BusStationEnumerator bse,
+      final BusStation station, final BitSet dests, final BusTime start, final int wait,
+      final int maxDuration, final int maxWalk) throws InterruptedException {
+    final Search search = new Search(TripTransfers.get(bse, wait, maxWalk));
+    search.run(station.getId(), dests, start.secondsFromMidnight(), wait, maxDuration,
+        maxWalk);
+    final RouteTree tree = search.toTree(bse, station, start);
+    final RoutingResult[] res = new RoutingResult[bse.maxId() + 1];
+    for(final BusStation to : bse.getStations()) {
+      final int id = to.getId();
+      if(id == station.getId()) {
+        res[id] = new RoutingResult(station);
+      } else {
+        final int node = tree.getRoute(id);
+        res[id] = node < 0 ? new RoutingResult(station, to)
+            : new RoutingResult(to, tree, node);
+      }
+    }
+    return res;
+  }
+
+  @Override
+  public String toString() {
+    return "Trip-based route finder";
+  }
+
+  /**
+   * The state of a search. Segments are stored in flat arrays in the order
+   * they are found, which is the order of their rounds.
+   * 
+   * @author agent <agent@local>
+   */
+  private static final class Search {
+
+    /** The transfers. */
+    private final TripTransfers transfers;
+
+    /** The time table. */
+    private final Timetable table;
+
+    /** The number of stations. */
+    private final int n;
+
+    /**
+     * The first position every trip instance was boarded at, in slots of
+     * {@link TripRouteFinder#DAYS} per trip.
+     */
+    private final int[] reached;
+
+    /** The trip of a segment. */
+    private int[] trip = new int[256];
+
+    /** The day offset of the trip of a segment. */
+    private int[] day = new int[256];
+
+    /** The boarding position of a segment. */
+    private int[] from = new int[256];
+
+    /** The last position of a segment. */
+    private int[] to = new int[256];
+
+    /** The segment a segment was reached from, <code>-1</code> for the start. */
+    private int[] parent = new int[256];
+
+    /** The position the previous segment was left at. */
+    private int[] stop = new int[256];
+
+    /** The walking time before boarding the trip of a segment in seconds. */
+    private int[] walk = new int[256];
+
+    /** The offset of the route tree nodes of a segment. */
+    private int[] offset = new int[256];
+
+    /** The number of segments. */
+    private int size;
+
+    /** The total number of positions of all segments. */
+    private int positions;
+
+    /** The earliest arrival by bus per station. */
+    private final int[] bestBus;
+
+    /** The segment of the earliest arrival by bus. */
+    private final int[] busSeg;
+
+    /** The position of the earliest arrival by bus. */
+    private final int[] busPos;
+
+    /** The earliest arrival on foot per station. */
+    private final int[] bestWalk;
+
+    /** The segment walked from, <code>-1</code> for the start station. */
+    private final int[] walkSeg;
+
+    /** The position walked from. */
+    private final int[] walkPos;
+
+    /** The start station. */
+    private int source;
+
+    /** The start time in seconds after midnight. */
+    private int startSecs;
+
+    /** The destinations, possibly <code>null</code>. */
+    private BitSet dests;
+
+    /** The upper bound for arrival times. */
+    private int bound;
+
+    /**
+     * Creates a search.
+     * 
+     * @param transfers The transfers.
+     */
+    Search(final TripTransfers transfers) {
+      this.transfers = transfers;
+      table = transfers.table;
+      n = table.stationCount;
+      reached = new int[table.tripEdges.length * DAYS];
+      bestBus = new int[n];
+      busSeg = new int[n];
+      busPos = new int[n];
+      bestWalk = new int[n];
+      walkSeg = new int[n];
+      walkPos = new int[n];
+    }
+
+    /**
+     * Runs the search.
+     * 
+     * @param station The start station id.
+     * @param dests The destinations, <code>null</code> means all stations.
+     * @param start The start time in seconds after midnight.
+     * @param wait The change time in minutes.
+     * @param maxDuration The maximal duration in minutes.
+     * @param maxWalk The maximal walking time in minutes.
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    void run(final int station, final BitSet dests, final int start, final int wait,
+        final int maxDuration, final int maxWalk) throws InterruptedException {
+      final Stopwatch t = new Stopwatch();
+      final CancelToken cancel = CancelToken.current();
+      final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+      final int maxWalkSecs = maxWalk * BusTime.SECONDS_PER_MINUTE;
+      source = station;
+      startSecs = start;
+      this.dests = dests;
+      bound = maxDuration * BusTime.SECONDS_PER_MINUTE;
+      Arrays.fill(reached, Integer.MAX_VALUE);
+      Arrays.fill(bestBus, Integer.MAX_VALUE);
+      Arrays.fill(bestWalk, Integer.MAX_VALUE);
+      size = 0;
+      positions = 0;
+
+      board(station, start, -1, -1, 0);
+      // walking to the first bus needs the change time as well
+      final BusStation at = table.stations[station];
+      final int near = at.walkingNeighbours(Math.min(maxWalkSecs, bound));
+      for(int i = 0; i < near; ++i) {
+        final int id = at.getWalkingNeighbour(i).getId();
+        final int w = at.getWalkingNeighbourSeconds(i);
+        bestWalk[id] = w;
+        walkSeg[id] = -1;
+        board(id, start + w + waitSecs, -1, -1, w);
+      }
+
+      int rounds = 0;
+      for(int sg = 0, end = 0; sg < size; ++sg) {
+        if(sg == end) {
+          updateBound();
+          end = size;
+          ++rounds;
+        }
+        cancel.check();
+        scan(sg, maxWalkSecs);
+      }
+      System.out.println("Routing (thread: " + Thread.currentThread().getName()
+          + " time: " + t.current() + " rounds: " + rounds + " segments: " + size
+          + " trip-based)");
+    }
+
+    /**
+     * Boards the first trips of all patterns at a station.
+     * 
+     * @param station The station id.
+     * @param time The earliest departure in seconds after midnight.
+     * @param seg The segment the station was reached from, <code>-1</code> for
+     *          the start.
+     * @param pos The position the segment was left at.
+     * @param w The walking time to the station in seconds.
+     */
+    private void board(final int station, final int time, final int seg, final int pos,
+        final int w) {
+      for(int i = table.stopIndex[station]; i < table.stopIndex[station + 1]; ++i) {
+        final int p = table.stopPatterns[i];
+        final int at = table.stopPositions[i];
+        if(at == table.patternStops[p].length - 1) {
+          continue;
+        }
+        final int et = table.earliestTrip(p, at, time);
+        if(et >= 0) {
+          enqueue(table.patternTrips[p][et / 3], et % 3 - 1, at, seg, pos, w);
+        }
+      }
+    }
+
+    /**
+     * Adds a segment if the trip was not boarded at this or an earlier position
+     * yet. The trip and all later trips of its pattern are marked as boarded.
+     * 
+     * @param tr The trip.
+     * @param d The day offset of the trip.
+     * @param pos The boarding position.
+     * @param seg The segment the trip was reached from, <code>-1</code> for the
+     *          start.
+     * @param at The position the segment was left at.
+     * @param w The walking time before boarding in seconds.
+     */
+    private void enqueue(final int tr, final int d, final int pos, final int seg,
+        final int at, final int w) {
+      if(d < -1 || d + 1 >= DAYS) return;
+      final int last = Math.min(reached[tr * DAYS + d + 1],
+          table.tripEdges[tr].length);
+      if(pos >= last) return;
+      if(size == trip.length) {
+        final int cap = 2 * size;
+        trip = Arrays.copyOf(trip, cap);
+        day = Arrays.copyOf(day, cap);
+        from = Arrays.copyOf(from, cap);
+        to = Arrays.copyOf(to, cap);
+        parent = Arrays.copyOf(parent, cap);
+        stop = Arrays.copyOf(stop, cap);
+        walk = Arrays.copyOf(walk, cap);
+        offset = Arrays.copyOf(offset, cap);
+      }
+      trip[size] = tr;
+      day[size] = d;
+      from[size] = pos;
+      to[size] = last;
+      parent[size] = seg;
+      stop[size] = at;
+      walk[size] = w;
+      offset[size] = positions;
+      positions += last - pos;
+      ++size;
+      // later trips of the same pattern never arrive earlier
+      final int[] trips = table.patternTrips[transfers.tripPattern[tr]];
+      for(int i = transfers.tripIndex[tr], dd = d; dd + 1 < DAYS;) {
+        final int slot = trips[i] * DAYS + dd + 1;
+        if(reached[slot] <= pos) {
+          break;
+        }
+        reached[slot] = pos;
+        if(++i == trips.length) {
+          i = 0;
+          ++dd;
+        }
+      }
+    }
+
+    /**
+     * Scans the arrivals of a segment and adds the segments reached by its
+     * transfers.
+     * 
+     * @param sg The segment.
+     * @param maxWalkSecs The maximal walking time in seconds.
+     */
+    private void scan(final int sg, final int maxWalkSecs) {
+      final int tr = trip[sg];
+      final int d = day[sg];
+      final int p = transfers.tripPattern[tr];
+      final int[] stops = table.patternStops[p];
+      final int[] arr = table.patternArr[p];
+      final int base = transfers.tripIndex[tr] * stops.length;
+      final int shift = d * Timetable.DAY - startSecs;
+      final int ev = transfers.firstEvent[tr];
+      for(int pos = from[sg] + 1; pos <= to[sg]; ++pos) {
+        final int a = arr[base + pos] + shift;
+        if(a > bound) {
+          break;
+        }
+        final int s = stops[pos];
+        if(a < bestBus[s]) {
+          bestBus[s] = a;
+          busSeg[s] = sg;
+          busPos[s] = pos;
+        }
+        final BusStation at = table.stations[s];
+        final int near = at.walkingNeighbours(Math.min(maxWalkSecs, bound - a));
+        for(int i = 0; i < near; ++i) {
+          final int id = at.getWalkingNeighbour(i).getId();
+          final int w = a + at.getWalkingNeighbourSeconds(i);
+          if(w < bestWalk[id]) {
+            bestWalk[id] = w;
+            walkSeg[id] = sg;
+            walkPos[id] = pos;
+          }
+        }
+        for(int x = transfers.firstTransfer[ev + pos]; x < transfers.firstTransfer[ev
+            + pos + 1]; ++x) {
+          enqueue(transfers.toTrip[x], d + transfers.toDay[x], transfers.toPos[x], sg, pos,
+              transfers.toWalk[x]);
+        }
+      }
+    }
+
+    /**
+     * Getter.
+     * 
+     * @param id The station id.
+     * @return The earliest arrival at the station.
+     */
+    private int arrival(final int id) {
+      return Math.min(bestBus[id], bestWalk[id]);
+    }
+
+    /**
+     * Tightens the upper bound when all destinations have been reached.
+     */
+    private void updateBound() {
+      if(dests == null) return;
+      int max = -1;
+      for(int d = dests.nextSetBit(0); d >= 0; d = dests.nextSetBit(d + 1)) {
+        if(d == source || d >= n) {
+          continue;
+        }
+        final int a = arrival(d);
+        if(a == Integer.MAX_VALUE) return;
+        max = Math.max(max, a);
+      }
+      if(max >= 0) {
+        bound = Math.min(bound, max);
+      }
+    }
+
+    /**
+     * Creates the route tree of the last search.
+     * 
+     * @param bse The bus station enumerator.
+     * @param start The start station.
+     * @param time The start time.
+     * @return The route tree.
+     */
+    RouteTree toTree(final BusStationEnumerator bse, final BusStation start,
+        final BusTime time) {
+      final RouteTree tree = new RouteTree(bse, start, time, n);
+      final int[] nodes = new int[positions];
+      Arrays.fill(nodes, -1);
+      for(int id = 0; id < n; ++id) {
+        final int a = arrival(id);
+        if(id == source || a == Integer.MAX_VALUE
+            || dests != null && !dests.get(id) && a > bound) {
+          continue;
+        }
+        final int node;
+        if(bestBus[id] <= bestWalk[id]) {
+          node = node(tree, nodes, busSeg[id], busPos[id]);
+        } else {
+          final int before = walkSeg[id] < 0 ? -1
+              : node(tree, nodes, walkSeg[id], walkPos[id]);
+          node = tree.add(before, null, id, a);
+        }
+        tree.setRoute(id, node);
+      }
+      return tree;
+    }
+
+    /**
+     * Gets the route tree node of the arrival of a segment at a position,
+     * creating it and its predecessors if necessary.
+     * 
+     * @param tree The route tree.
+     * @param nodes The nodes of all segment positions.
+     * @param sg The segment.
+     * @param pos The position.
+     * @return The node.
+     */
+    private int node(final RouteTree tree, final int[] nodes, final int sg,
+        final int pos) {
+      final int off = offset[sg] - from[sg] - 1;
+      int p = pos;
+      while(p > from[sg] + 1 && nodes[off + p] < 0) {
+        --p;
+      }
+      final int tr = trip[sg];
+      final int pattern = transfers.tripPattern[tr];
+      final int[] stops = table.patternStops[pattern];
+      final int[] arr = table.patternArr[pattern];
+      final int base = transfers.tripIndex[tr] * stops.length;
+      final int shift = day[sg] * Timetable.DAY - startSecs;
+      final BusEdge[] edges = table.tripEdges[tr];
+      int before;
+      if(nodes[off + p] >= 0) {
+        before = nodes[off + p];
+        ++p;
+      } else {
+        // the node the trip was boarded from, possibly after a walk
+        final int seg = parent[sg];
+        before = seg < 0 ? -1 : node(tree, nodes, seg, stop[sg]);
+        final int prev = seg < 0 ? source : table.patternStops[transfers
+            .tripPattern[trip[seg]]][stop[sg]];
+        final int board = stops[from[sg]];
+        if(prev != board) {
+          before = tree.add(before, null, board,
+              (seg < 0 ? 0 : tree.seconds(before)) + walk[sg]);
+        }
+      }
+      for(; p <= pos; ++p) {
+        before = tree.add(before, edges[p - 1], stops[p], arr[base + p] + shift);
+        nodes[off + p] = before;
+      }
+      return before;
+    }
+
+  } // Search
+
+}
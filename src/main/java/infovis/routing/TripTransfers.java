@@ -0,0 +1,478 @@
+package infovis.routing;
+
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusTime;
+import infovis.util.Resource;
+import infovis.util.Stopwatch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The transfers between the trips of a {@link Timetable}. A transfer leads
+ * from the arrival of a trip at a station to the first trip of a pattern that
+ * can be reached from there, either at the same station or by walking to a
+ * neighbouring one. The change time is always needed. Transfers that never
+ * lead to an earlier arrival than staying on the trip or taking another
+ * transfer from the same trip are dropped, which removes most of them. The
+ * transfers depend on the change time and the maximal walking time, so they
+ * are computed once per combination. If the bus data is cached, the transfers
+ * are stored next to the cached files.
+ * 
+ * @author agent <agent@local>
+ */
+final class TripTransfers {
+
+  /** The first integer of a transfer file. */
+  private static final int MAGIC = 0x54524653;
+
+  /** The version of the transfer file format. */
+  private static final int VERSION = 1;
+
+  /** The maximal number of transfer sets kept per station collection. */
+  private static final int MAX_ENTRIES = 8;
+
+  /**
+   * Already computed or running transfers, keyed by the station collection.
+   * The inner maps are in access order and guarded by {@link #CACHE}.
+   */
+  private static final Map<Collection<BusStation>, Map<Long, FutureTask<TripTransfers>>> CACHE =
+      new WeakHashMap<Collection<BusStation>, Map<Long, FutureTask<TripTransfers>>>();
+
+  /**
+   * Getter. The transfers are loaded or computed by the first caller, outside
+   * of the global lock, so routings with other settings do not wait for them.
+   * Other callers with the same settings wait for the result. If the first
+   * caller is cancelled, the next one starts again.
+   * 
+   * @param bse The bus station enumerator.
+   * @param wait The change time in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @return The transfers. They are loaded or computed only once per station
+   *         collection, change time and walking time, as long as they are
+   *         among the {@link #MAX_ENTRIES} most recently used ones.
+   * @throws InterruptedException if the current computation was cancelled
+   */
+  static TripTransfers get(final BusStationEnumerator bse, final int wait,
+      final int maxWalk) throws InterruptedException {
+    final Collection<BusStation> key = bse.getStations();
+    final Long params = Long.valueOf((long) wait << 32 | maxWalk);
+    final Timetable table = Timetable.get(bse);
+    final Resource dir = bse.getCache();
+    for(;;) {
+      final FutureTask<TripTransfers> task;
+      final boolean owner;
+      synchronized(CACHE) {
+        Map<Long, FutureTask<TripTransfers>> map = CACHE.get(key);
+        if(map == null) {
+          map = new LinkedHashMap<Long, FutureTask<TripTransfers>>(16, 0.75f, true);
+          CACHE.put(key, map);
+        }
+        owner = !map.containsKey(params);
+        if(owner) {
+          map.put(params, new FutureTask<TripTransfers>(new Callable<TripTransfers>() {
+
+            @Override
+            public TripTransfers call() throws InterruptedException {
+              return load(table, dir, wait, maxWalk);
+            }
+
+          }));
+          final Iterator<FutureTask<TripTransfers>> it = map.values().iterator();
+          while(map.size() > MAX_ENTRIES) {
+            it.next();
+            it.remove();
+          }
+        }
+        task = map.get(params);
+      }
+      if(owner) {
+        task.run();
+      }
+      try {
+        return task.get();
+      } catch(final ExecutionException e) {
+        synchronized(CACHE) {
+          final Map<Long, FutureTask<TripTransfers>> map = CACHE.get(key);
+          if(map != null && map.get(params) == task) {
+            map.remove(params);
+          }
+        }
+        final Throwable cause = e.getCause();
+        if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if(cause instanceof Error) throw (Error) cause;
+        if(owner) throw (InterruptedException) cause;
+        // the caller computing the transfers was cancelled, but this one was not
+        CancelToken.current().check();
+      }
+    }
+  }
+
+  /**
+   * Loads stored transfers or computes them and stores them if the bus data
+   * is cached.
+   * 
+   * @param table The time table.
+   * @param dir The cache directory, may be <code>null</code>.
+   * @param wait The change time in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @return The transfers.
+   * @throws InterruptedException if the current computation was cancelled
+   */
+  private static TripTransfers load(final Timetable table, final Resource dir, final int wait,
+      final int maxWalk) throws InterruptedException {
+    final Resource file = dir != null ? dir.getFile(fileName(wait, maxWalk)) : null;
+    TripTransfers tr = null;
+    if(file != null && file.hasContent()) {
+      tr = read(table, file, wait, maxWalk);
+    }
+    if(tr == null) {
+      tr = new TripTransfers(table, wait, maxWalk);
+      tr.compute();
+      if(file != null && file.hasDirectFile()) {
+        tr.write(file);
+      }
+    }
+    return tr;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param wait The change time in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @return The name of the file holding the transfers.
+   */
+  static String fileName(final int wait, final int maxWalk) {
+    return "transfers-" + wait + "-" + maxWalk + ".bin";
+  }
+
+  /** The time table. */
+  final Timetable table;
+
+  /** The change time in minutes. */
+  final int wait;
+
+  /** The maximal walking time in minutes. */
+  final int maxWalk;
+
+  /** The pattern of every trip. */
+  final int[] tripPattern;
+
+  /** The index of every trip within its pattern. */
+  final int[] tripIndex;
+
+  /**
+   * Offsets into {@link #firstTransfer} for every trip. The arrival at
+   * position <code>i</code> of trip <code>t</code> has the index
+   * <code>firstEvent[t] + i</code>.
+   */
+  final int[] firstEvent;
+
+  /** Offsets into the transfers for every arrival. */
+  int[] firstTransfer;
+
+  /** The trip a transfer leads to. */
+  int[] toTrip;
+
+  /** The position of the trip a transfer boards at. */
+  int[] toPos;
+
+  /** The day offset of the trip a transfer leads to. */
+  int[] toDay;
+
+  /** The walking time of a transfer in seconds. */
+  int[] toWalk;
+
+  /**
+   * Creates the trip index. The transfers are computed or read afterwards.
+   * 
+   * @param table The time table.
+   * @param wait The change time in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   */
+  private TripTransfers(final Timetable table, final int wait, final int maxWalk) {
+    this.table = table;
+    this.wait = wait;
+    this.maxWalk = maxWalk;
+    final int trips = table.tripEdges.length;
+    tripPattern = new int[trips];
+    tripIndex = new int[trips];
+    for(int p = 0; p < table.patternTrips.length; ++p) {
+      final int[] ts = table.patternTrips[p];
+      for(int i = 0; i < ts.length; ++i) {
+        tripPattern[ts[i]] = p;
+        tripIndex[ts[i]] = i;
+      }
+    }
+    firstEvent = new int[trips + 1];
+    for(int t = 0; t < trips; ++t) {
+      firstEvent[t + 1] = firstEvent[t] + table.tripEdges[t].length + 1;
+    }
+  }
+
+  /**
+   * Computes the transfers.
+   * 
+   * @throws InterruptedException if the current computation was cancelled
+   */
+  private void compute() throws InterruptedException {
+    final CancelToken token = CancelToken.current();
+    final Stopwatch t = new Stopwatch();
+    final int waitSecs = wait * BusTime.SECONDS_PER_MINUTE;
+    final int maxWalkSecs = maxWalk * BusTime.SECONDS_PER_MINUTE;
+    final int n = table.stationCount;
+    // earliest arrivals by bus and on foot reachable from the current arrival
+    final int[] byBus = new int[n];
+    final int[] onFoot = new int[n];
+    final int events = firstEvent[firstEvent.length - 1];
+    firstTransfer = new int[events + 1];
+    // the transfers of the current trip, collected from its last arrival backwards
+    final Buffer trip = new Buffer();
+    final Buffer all = new Buffer();
+    int[] end = new int[16];
+    for(int tr = 0; tr < tripPattern.length; ++tr) {
+      token.check();
+      final int p = tripPattern[tr];
+      final int[] stops = table.patternStops[p];
+      final int len = stops.length;
+      final int inst = 3 * tripIndex[tr] + 1;
+      if(end.length < len) {
+        end = new int[2 * len];
+      }
+      Arrays.fill(byBus, Integer.MAX_VALUE);
+      Arrays.fill(onFoot, Integer.MAX_VALUE);
+      trip.size = 0;
+      for(int i = len; --i >= 1;) {
+        final int arr = table.arrival(p, inst, i);
+        final BusStation at = table.stations[stops[i]];
+        arrive(at, arr, byBus, onFoot, maxWalkSecs);
+        final int near = at.walkingNeighbours(maxWalkSecs);
+        for(int j = -1; j < near; ++j) {
+          final int w = j < 0 ? 0 : at.getWalkingNeighbourSeconds(j);
+          final int s = j < 0 ? at.getId() : at.getWalkingNeighbour(j).getId();
+          for(int k = table.stopIndex[s]; k < table.stopIndex[s + 1]; ++k) {
+            final int q = table.stopPatterns[k];
+            final int qPos = table.stopPositions[k];
+            final int[] qStops = table.patternStops[q];
+            if(qPos == qStops.length - 1) {
+              continue;
+            }
+            final int et = table.earliestTrip(q, qPos, arr + w + waitSecs);
+            if(et < 0) {
+              continue;
+            }
+            final int to = table.patternTrips[q][et / 3];
+            if(to == tr && et % 3 == 1 && qPos >= i) {
+              continue;
+            }
+            // only transfers leading to an earlier arrival somewhere are kept
+            boolean useful = false;
+            for(int l = qPos + 1; l < qStops.length; ++l) {
+              useful |= arrive(table.stations[qStops[l]], table.arrival(q, et, l), byBus,
+                  onFoot, maxWalkSecs);
+            }
+            if(useful) {
+              trip.add(to, qPos, et % 3 - 1, w);
+            }
+          }
+        }
+        end[i] = trip.size;
+      }
+      final int ev = firstEvent[tr];
+      for(int i = 0; i < len; ++i) {
+        firstTransfer[ev + i] = all.size;
+        if(i > 0) {
+          for(int x = i + 1 < len ? end[i + 1] : 0; x < end[i]; ++x) {
+            all.add(trip.trip[x], trip.pos[x], trip.day[x], trip.walk[x]);
+          }
+        }
+      }
+    }
+    firstTransfer[events] = all.size;
+    toTrip = Arrays.copyOf(all.trip, all.size);
+    toPos = Arrays.copyOf(all.pos, all.size);
+    toDay = Arrays.copyOf(all.day, all.size);
+    toWalk = Arrays.copyOf(all.walk, all.size);
+    System.out.println("Transfers (wait: " + wait + " walk: " + maxWalk + " trips: "
+        + tripPattern.length + " transfers: " + all.size + " time: " + t.current() + ")");
+  }
+
+  /**
+   * Reads stored transfers.
+   * 
+   * @param table The time table.
+   * @param file The transfer file.
+   * @param wait The change time in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   * @return The transfers or <code>null</code> if the file could not be read or
+   *         belongs to other data.
+   */
+  private static TripTransfers read(final Timetable table, final Resource file,
+      final int wait, final int maxWalk) {
+    final Stopwatch t = new Stopwatch();
+    try {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(
+          file.getURL().openStream()));
+      try {
+        if(in.readInt() != MAGIC || in.readInt() != VERSION
+            || in.readInt() != table.fingerprint() || in.readInt() != wait
+            || in.readInt() != maxWalk) return null;
+        final TripTransfers tr = new TripTransfers(table, wait, maxWalk);
+        final int events = tr.firstEvent[tr.firstEvent.length - 1];
+        if(in.readInt() != events) return null;
+        tr.firstTransfer = readInts(in, events + 1);
+        final int size = tr.firstTransfer[events];
+        tr.toTrip = readInts(in, size);
+        tr.toPos = readInts(in, size);
+        tr.toDay = readInts(in, size);
+        tr.toWalk = readInts(in, size);
+        System.out.println("Loading transfers took " + t.current());
+        return tr;
+      } finally {
+        in.close();
+      }
+    } catch(final IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Reads an array.
+   * 
+   * @param in The input.
+   * @param len The length of the array.
+   * @return The array.
+   * @throws IOException I/O exception
+   */
+  private static int[] readInts(final DataInputStream in, final int len)
+      throws IOException {
+    final int[] res = new int[len];
+    for(int i = 0; i < len; ++i) {
+      res[i] = in.readInt();
+    }
+    return res;
+  }
+
+  /**
+   * Stores the transfers. Failures are reported but not fatal, since the
+   * transfers can always be computed again.
+   * 
+   * @param file The transfer file.
+   */
+  private void write(final Resource file) {
+    try {
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(file.directFile())));
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(table.fingerprint());
+        out.writeInt(wait);
+        out.writeInt(maxWalk);
+        out.writeInt(firstTransfer.length - 1);
+        for(final int[] arr : new int[][] { firstTransfer, toTrip, toPos, toDay, toWalk}) {
+          for(final int v : arr) {
+            out.writeInt(v);
+          }
+        }
+      } finally {
+        out.close();
+      }
+    } catch(final IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Records an arrival at a station and the walks from there.
+   * 
+   * @param at The station.
+   * @param arr The arrival time.
+   * @param byBus The earliest arrivals by bus.
+   * @param onFoot The earliest arrivals on foot.
+   * @param maxWalkSecs The maximal walking time in seconds.
+   * @return Whether any arrival was improved.
+   */
+  private static boolean arrive(final BusStation at, final int arr, final int[] byBus,
+      final int[] onFoot, final int maxWalkSecs) {
+    boolean improved = false;
+    final int id = at.getId();
+    if(arr < byBus[id]) {
+      byBus[id] = arr;
+      improved = true;
+    }
+    final int near = at.walkingNeighbours(maxWalkSecs);
+    for(int j = 0; j < near; ++j) {
+      final int to = at.getWalkingNeighbour(j).getId();
+      final int a = arr + at.getWalkingNeighbourSeconds(j);
+      if(a < onFoot[to] && a < byBus[to]) {
+        onFoot[to] = a;
+        improved = true;
+      }
+    }
+    return improved;
+  }
+
+  /**
+   * A growing list of transfers.
+   * 
+   * @author agent <agent@local>
+   */
+  private static final class Buffer {
+
+    /** The trips the transfers lead to. */
+    int[] trip = new int[1024];
+
+    /** The boarding positions. */
+    int[] pos = new int[1024];
+
+    /** The day offsets. */
+    int[] day = new int[1024];
+
+    /** The walking times in seconds. */
+    int[] walk = new int[1024];
+
+    /** The number of transfers. */
+    int size;
+
+    /**
+     * Adds a transfer.
+     * 
+     * @param t The trip.
+     * @param p The boarding position.
+     * @param d The day offset.
+     * @param w The walking time in seconds.
+     */
+    void add(final int t, final int p, final int d, final int w) {
+      if(size == trip.length) {
+        trip = Arrays.copyOf(trip, 2 * size);
+        pos = Arrays.copyOf(pos, 2 * size);
+        day = Arrays.copyOf(day, 2 * size);
+        walk = Arrays.copyOf(walk, 2 * size);
+      }
+      trip[size] = t;
+      pos[size] = p;
+      day[size] = d;
+      walk[size] = w;
+      ++size;
+    }
+
+  } // Buffer
+
+}
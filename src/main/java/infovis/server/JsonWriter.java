@@ -0,0 +1,199 @@
+package infovis.server;
+
+import infovis.data.BusTime;
+
+/**
+ * Writes JSON text. Commas between members and elements are inserted
+ * automatically, the caller only has to open and close objects and arrays in
+ * the right order.
+ * 
+ * @author agent <agent@local>
+ */
+final class JsonWriter {
+
+  /** The text written so far. */
+  private final StringBuilder sb = new StringBuilder();
+
+  /** Whether the next value needs a leading comma. */
+  private boolean comma;
+
+  /**
+   * Writes a comma if the value is not the first one of its object or array.
+   */
+  private void next() {
+    if(comma) {
+      sb.append(',');
+    }
+    comma = true;
+  }
+
+  /**
+   * Opens an object.
+   * 
+   * @return This writer.
+   */
+  JsonWriter object() {
+    next();
+    sb.append('{');
+    comma = false;
+    return this;
+  }
+
+  /**
+   * Closes an object.
+   * 
+   * @return This writer.
+   */
+  JsonWriter endObject() {
+    sb.append('}');
+    comma = true;
+    return this;
+  }
+
+  /**
+   * Opens an array.
+   * 
+   * @return This writer.
+   */
+  JsonWriter array() {
+    next();
+    sb.append('[');
+    comma = false;
+    return this;
+  }
+
+  /**
+   * Closes an array.
+   * 
+   * @return This writer.
+   */
+  JsonWriter endArray() {
+    sb.append(']');
+    comma = true;
+    return this;
+  }
+
+  /**
+   * Writes the name of an object member. The value has to follow.
+   * 
+   * @param name The name.
+   * @return This writer.
+   */
+  JsonWriter key(final String name) {
+    next();
+    string(name);
+    sb.append(':');
+    comma = false;
+    return this;
+  }
+
+  /**
+   * Writes a string value.
+   * 
+   * @param value The value, may be <code>null</code>.
+   * @return This writer.
+   */
+  JsonWriter value(final String value) {
+    next();
+    if(value == null) {
+      sb.append("null");
+    } else {
+      string(value);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a number.
+   * 
+   * @param value The value.
+   * @return This writer.
+   */
+  JsonWriter value(final long value) {
+    next();
+    sb.append(value);
+    return this;
+  }
+
+  /**
+   * Writes a number.
+   * 
+   * @param value The value, infinite values and NaN are written as
+   *          <code>null</code>.
+   * @return This writer.
+   */
+  JsonWriter value(final double value) {
+    next();
+    if(Double.isNaN(value) || Double.isInfinite(value)) {
+      sb.append("null");
+    } else {
+      sb.append(value);
+    }
+    return this;
+  }
+
+  /**
+   * Writes a boolean value.
+   * 
+   * @param value The value.
+   * @return This writer.
+   */
+  JsonWriter value(final boolean value) {
+    next();
+    sb.append(value);
+    return this;
+  }
+
+  /**
+   * Writes a time of day as <code>hh:mm:ss</code>.
+   * 
+   * @param time The time.
+   * @return This writer.
+   */
+  JsonWriter value(final BusTime time) {
+    return value(String.format("%02d:%02d:%02d", time.getHour(), time.getMinute(),
+        time.getSecond()));
+  }
+
+  /**
+   * Writes a quoted and escaped string.
+   * 
+   * @param str The string.
+   */
+  private void string(final String str) {
+    sb.append('"');
+    for(int i = 0; i < str.length(); ++i) {
+      final char c = str.charAt(i);
+      switch(c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if(c < ' ') {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    sb.append('"');
+  }
+
+  @Override
+  public String toString() {
+    return sb.toString();
+  }
+
+}
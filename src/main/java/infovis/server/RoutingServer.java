@@ -0,0 +1,585 @@
+package infovis.server;
+
+import infovis.ctrl.Controller;
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Answers routing queries over HTTP with JSON. The service runs without a
+ * display and offers the following endpoints, all with <code>GET</code>:
+ * <ul>
+ * <li><code>/stations</code> lists all stations.</li>
+ * <li><code>/routes?from=id</code> finds the travel times to all stations.</li>
+ * <li><code>/route?from=id&amp;to=id</code> finds the route to one station.</li>
+ * <li><code>/isochrone?from=id&amp;minutes=n</code> lists the stations
+ * reachable within the given time.</li>
+ * </ul>
+ * Routing queries optionally take the start time <code>time=hh:mm[:ss]</code>
+ * (default now), the change time <code>wait</code> and the maximal walking
+ * time <code>walk</code> in minutes, the index of the routing algorithm
+ * <code>algo</code> and the deadline in milliseconds <code>deadline</code>.
+ * <p>
+ * Routings run on a bounded pool of worker threads. When all workers are busy
+ * and the queue is full the request is rejected with status 503. A request
+ * whose routing is not finished before its deadline is answered with status
+ * 504, but the routing goes on. Results are shared by all requests with the
+ * same parameters, including requests arriving while the routing runs, so one
+ * impatient request does not fail the others.
+ * 
+ * @author agent <agent@local>
+ */
+public final class RoutingServer {
+
+  /** The number of worker threads. */
+  public static final int WORKERS = Runtime.getRuntime().availableProcessors();
+
+  /** The maximal number of routings waiting for a worker. */
+  public static final int QUEUE_SIZE = 64;
+
+  /** The number of threads answering requests. */
+  public static final int HANDLERS = 4 * WORKERS + 4;
+
+  /** The maximal number of cached results. */
+  public static final int CACHE_ENTRIES = 256;
+
+  /** The default deadline in milliseconds. */
+  public static final int DEADLINE = 10000;
+
+  /** The default change time in minutes. */
+  public static final int WAIT = 3;
+
+  /** The default maximal walking time in minutes. */
+  public static final int WALK = 5;
+
+  /** The bus stations. */
+  private final BusStationManager man;
+
+  /** The routing algorithms, selected by their index. */
+  private final RoutingAlgorithm[] algos;
+
+  /** The HTTP server. */
+  private final HttpServer server;
+
+  /** The threads answering requests. */
+  private final ExecutorService handlers;
+
+  /** The threads computing routes. */
+  private final ThreadPoolExecutor workers;
+
+  /** The running and finished routings in access order, guarded by the map itself. */
+  private final LinkedHashMap<Query, Future<RoutingResult[]>> cache =
+      new LinkedHashMap<Query, Future<RoutingResult[]>>(16, 0.75f, true);
+
+  /** The number of answered requests. */
+  private final AtomicInteger requests = new AtomicInteger();
+
+  /**
+   * Creates a server. It is started by {@link #start()}.
+   * 
+   * @param man The bus stations.
+   * @param port The port, <code>0</code> chooses a free one.
+   * @throws IOException if the port cannot be bound
+   */
+  public RoutingServer(final BusStationManager man, final int port) throws IOException {
+    this(man, port, Controller.getRoutingAlgorithms());
+  }
+
+  /**
+   * Creates a server with the given routing algorithms. It is started by
+   * {@link #start()}.
+   * 
+   * @param man The bus stations.
+   * @param port The port, <code>0</code> chooses a free one.
+   * @param algos The routing algorithms, selected by their index.
+   * @throws IOException if the port cannot be bound
+   */
+  public RoutingServer(final BusStationManager man, final int port,
+      final RoutingAlgorithm[] algos) throws IOException {
+    this.man = man;
+    this.algos = algos.clone();
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    handlers = Executors.newFixedThreadPool(HANDLERS, daemons("http-"));
+    workers = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), daemons("worker-"));
+    workers.allowCoreThreadTimeOut(true);
+    server.setExecutor(handlers);
+    server.createContext("/stations", new Handler() {
+      @Override
+      void answer(final Map<String, String> params, final JsonWriter out) {
+        out.array();
+        for(final BusStation s : man.getStations()) {
+          describe(s, out).endObject();
+        }
+        out.endArray();
+      }
+    });
+    server.createContext("/routes", new Handler() {
+      @Override
+      void answer(final Map<String, String> params, final JsonWriter out)
+          throws ServerException, InterruptedException {
+        final Query q = query(params, -1, man.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR);
+        final RoutingResult[] routes = routes(q, deadline(params));
+        header(q, out).key("routes").array();
+        for(final RoutingResult r : routes) {
+          if(r != null && r.isReachable()) {
+            out.object().key("to").value(r.getEnd().getId());
+            out.key("seconds").value(r.seconds()).endObject();
+          }
+        }
+        out.endArray().endObject();
+      }
+    });
+    server.createContext("/route", new Handler() {
+      @Override
+      void answer(final Map<String, String> params, final JsonWriter out)
+          throws ServerException, InterruptedException {
+        final int to = station(params, "to").getId();
+        final Query q = query(params, to, man.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR);
+        final RoutingResult r = routes(q, deadline(params))[to];
+        header(q, out).key("to").value(to).key("reachable").value(r.isReachable());
+        if(r.isReachable()) {
+          out.key("seconds").value(r.seconds()).key("edges").array();
+          if(!r.isStartNode()) {
+            for(final BusEdge e : r.getEdges()) {
+              out.object().key("line").value(e.getLine().getName());
+              out.key("from").value(e.getFrom().getId()).key("to").value(e.getTo().getId());
+              out.key("start").value(e.getStart()).key("end").value(e.getEnd()).endObject();
+            }
+          }
+          out.endArray();
+        }
+        out.endObject();
+      }
+    });
+    server.createContext("/isochrone", new Handler() {
+      @Override
+      void answer(final Map<String, String> params, final JsonWriter out)
+          throws ServerException, InterruptedException {
+        final int minutes = number(params, "minutes", -1);
+        if(minutes < 0) throw new ServerException(400, "Missing parameter: minutes");
+        // longer searches than in the applications are not allowed
+        final Query q = query(params, -1,
+            Math.min(minutes, man.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR));
+        final RoutingResult[] routes = routes(q, deadline(params));
+        header(q, out).key("minutes").value(minutes).key("stations").array();
+        for(final RoutingResult r : routes) {
+          if(r != null && r.isReachable() && r.seconds() <= minutes * BusTime.SECONDS_PER_MINUTE) {
+            describe(r.getEnd(), out).key("seconds").value(r.seconds()).endObject();
+          }
+        }
+        out.endArray().endObject();
+      }
+    });
+  }
+
+  /**
+   * Creates a thread factory for daemon threads.
+   * 
+   * @param name The prefix of the thread names.
+   * @return The thread factory.
+   */
+  private static ThreadFactory daemons(final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, name + count.getAndIncrement());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  /** Starts answering requests. */
+  public void start() {
+    server.start();
+  }
+
+  /** Stops the server and cancels all running routings. */
+  public void stop() {
+    server.stop(0);
+    handlers.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The port the server listens on.
+   */
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of answered requests.
+   */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Finds the routes for a query. A running or finished routing with the same
+   * parameters is used if there is one.
+   * 
+   * @param q The query.
+   * @param deadline The deadline in milliseconds.
+   * @return The routes.
+   * @throws ServerException if the routing was rejected, failed or took too
+   *           long
+   * @throws InterruptedException if the current thread was interrupted
+   */
+  RoutingResult[] routes(final Query q, final int deadline) throws ServerException,
+      InterruptedException {
+    Future<RoutingResult[]> future;
+    synchronized(cache) {
+      future = cache.get(q);
+      if(future == null) {
+        try {
+          future = workers.submit(new Callable<RoutingResult[]>() {
+            @Override
+            public RoutingResult[] call() throws InterruptedException {
+              return q.algo.findRoutes(man, q.station, q.dests, q.start, q.wait,
+                  q.maxDuration, q.maxWalk);
+            }
+          });
+        } catch(final RejectedExecutionException e) {
+          throw new ServerException(503, "Too many requests");
+        }
+        cache.put(q, future);
+        // the least recently used routings are evicted, running ones go on
+        final Iterator<Future<RoutingResult[]>> it = cache.values().iterator();
+        while(cache.size() > CACHE_ENTRIES) {
+          it.next();
+          it.remove();
+        }
+      }
+    }
+    try {
+      return future.get(deadline, TimeUnit.MILLISECONDS);
+    } catch(final TimeoutException e) {
+      // other requests may still wait for the routing
+      throw new ServerException(504, "Deadline exceeded");
+    } catch(final CancellationException e) {
+      throw new ServerException(503, "Shutting down");
+    } catch(final ExecutionException e) {
+      forget(q, future);
+      throw new ServerException(500, String.valueOf(e.getCause()));
+    }
+  }
+
+  /**
+   * Removes a failed routing from the cache.
+   * 
+   * @param q The query.
+   * @param future The routing.
+   */
+  private void forget(final Query q, final Future<RoutingResult[]> future) {
+    synchronized(cache) {
+      if(cache.get(q) == future) {
+        cache.remove(q);
+      }
+    }
+  }
+
+  /**
+   * Reads the parameters of a routing query.
+   * 
+   * @param params The request parameters.
+   * @param to The id of the only destination or <code>-1</code> for all.
+   * @param maxDuration The maximal duration in minutes.
+   * @return The query.
+   * @throws ServerException if a parameter is invalid
+   */
+  Query query(final Map<String, String> params, final int to, final int maxDuration)
+      throws ServerException {
+    final BusStation from = station(params, "from");
+    final BusTime start = time(params.get("time"));
+    // longer change times than the whole route would overflow the seconds
+    final int wait = Math.min(number(params, "wait", WAIT), maxDuration);
+    final int walk = Math.min(number(params, "walk", WALK), BusStation.MAX_WALK_MINUTES);
+    final int algo = number(params, "algo", 0);
+    if(algo < 0 || algo >= algos.length) throw new ServerException(400,
+        "Unknown algorithm: " + algo);
+    BitSet dests = null;
+    if(to >= 0) {
+      dests = new BitSet();
+      dests.set(to);
+    }
+    return new Query(from, dests, start, wait, maxDuration, walk, algos[algo]);
+  }
+
+  /**
+   * Reads the deadline of a request.
+   * 
+   * @param params The request parameters.
+   * @return The deadline in milliseconds.
+   * @throws ServerException if the parameter is invalid
+   */
+  static int deadline(final Map<String, String> params) throws ServerException {
+    return number(params, "deadline", DEADLINE);
+  }
+
+  /**
+   * Reads a station parameter.
+   * 
+   * @param params The request parameters.
+   * @param name The name of the parameter.
+   * @return The station.
+   * @throws ServerException if the parameter is missing or no station id
+   */
+  BusStation station(final Map<String, String> params, final String name)
+      throws ServerException {
+    final int id = number(params, name, -1);
+    if(id < 0) throw new ServerException(400, "Missing parameter: " + name);
+    if(id > man.maxId() || man.getForId(id) == null) throw new ServerException(404,
+        "Unknown station: " + params.get(name));
+    return man.getForId(id);
+  }
+
+  /**
+   * Reads a non-negative number parameter.
+   * 
+   * @param params The request parameters.
+   * @param name The name of the parameter.
+   * @param def The value if the parameter is missing.
+   * @return The number.
+   * @throws ServerException if the parameter is no non-negative number
+   */
+  static int number(final Map<String, String> params, final String name, final int def)
+      throws ServerException {
+    final String value = params.get(name);
+    if(value == null) return def;
+    try {
+      final int res = Integer.parseInt(value);
+      if(res >= 0) return res;
+    } catch(final NumberFormatException e) {
+      // handled below
+    }
+    throw new ServerException(400, "Invalid parameter " + name + ": " + value);
+  }
+
+  /**
+   * Parses a time of day.
+   * 
+   * @param value The time as <code>hh:mm</code> or <code>hh:mm:ss</code>, or
+   *          <code>null</code> for now.
+   * @return The time.
+   * @throws ServerException if the time is invalid
+   */
+  static BusTime time(final String value) throws ServerException {
+    if(value == null) return BusTime.now();
+    final String[] parts = value.split(":");
+    if(parts.length == 2 || parts.length == 3) {
+      try {
+        return BusTime.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]),
+            parts.length == 3 ? Integer.parseInt(parts[2]) : 0);
+      } catch(final IllegalArgumentException e) {
+        // handled below
+      }
+    }
+    throw new ServerException(400, "Invalid time: " + value);
+  }
+
+  /**
+   * Writes the common members of routing answers into a new object.
+   * 
+   * @param q The query.
+   * @param out The output.
+   * @return The output.
+   */
+  static JsonWriter header(final Query q, final JsonWriter out) {
+    return out.object().key("from").value(q.station.getId()).key("time").value(q.start);
+  }
+
+  /**
+   * Writes a station into a new object.
+   * 
+   * @param s The station.
+   * @param out The output.
+   * @return The output.
+   */
+  static JsonWriter describe(final BusStation s, final JsonWriter out) {
+    out.object().key("id").value(s.getId()).key("name").value(s.getName());
+    return out.key("lat").value(s.getLatitude()).key("lon").value(s.getLongitude());
+  }
+
+  /**
+   * Parses the parameters of a request.
+   * 
+   * @param query The raw query string, may be <code>null</code>.
+   * @return The parameters by name.
+   * @throws UnsupportedEncodingException never, UTF-8 is always supported
+   */
+  static Map<String, String> parameters(final String query)
+      throws UnsupportedEncodingException {
+    final Map<String, String> res = new HashMap<String, String>();
+    if(query == null) return res;
+    for(final String param : query.split("&")) {
+      final int eq = param.indexOf('=');
+      if(eq > 0) {
+        res.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+            URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Answers the requests of one endpoint.
+   * 
+   * @author agent <agent@local>
+   */
+  private abstract class Handler implements HttpHandler {
+
+    /**
+     * Creates the answer to a request.
+     * 
+     * @param params The request parameters.
+     * @param out The output.
+     * @throws ServerException if the request cannot be answered
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    abstract void answer(Map<String, String> params, JsonWriter out)
+        throws ServerException, InterruptedException;
+
+    @Override
+    public void handle(final HttpExchange ex) throws IOException {
+      JsonWriter out = new JsonWriter();
+      int status = 200;
+      try {
+        if(!"GET".equals(ex.getRequestMethod())) throw new ServerException(405,
+            "Method not allowed: " + ex.getRequestMethod());
+        answer(parameters(ex.getRequestURI().getRawQuery()), out);
+      } catch(final ServerException e) {
+        status = e.getStatus();
+        out = new JsonWriter().object().key("error").value(e.getMessage()).endObject();
+      } catch(final InterruptedException e) {
+        status = 503;
+        out = new JsonWriter().object().key("error").value("Shutting down").endObject();
+      } catch(final RuntimeException e) {
+        e.printStackTrace();
+        status = 500;
+        out = new JsonWriter().object().key("error").value(e.toString()).endObject();
+      }
+      final byte[] body = out.toString().getBytes("UTF-8");
+      ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      ex.sendResponseHeaders(status, body.length);
+      final OutputStream os = ex.getResponseBody();
+      try {
+        os.write(body);
+      } finally {
+        os.close();
+      }
+      requests.incrementAndGet();
+    }
+
+  } // Handler
+
+  /**
+   * The parameters of a routing query, used as key of the cache.
+   * 
+   * @author agent <agent@local>
+   */
+  static final class Query {
+
+    /** The start station. */
+    final BusStation station;
+
+    /** The destinations, may be <code>null</code>. */
+    final BitSet dests;
+
+    /** The start time. */
+    final BusTime start;
+
+    /** The change time in minutes. */
+    final int wait;
+
+    /** The maximal duration in minutes. */
+    final int maxDuration;
+
+    /** The maximal walking time in minutes. */
+    final int maxWalk;
+
+    /** The routing algorithm. */
+    final RoutingAlgorithm algo;
+
+    /**
+     * Constructor.
+     * 
+     * @param station The start station.
+     * @param dests The destinations, may be <code>null</code>.
+     * @param start The start time.
+     * @param wait The change time in minutes.
+     * @param maxDuration The maximal duration in minutes.
+     * @param maxWalk The maximal walking time in minutes.
+     * @param algo The routing algorithm.
+     */
+    Query(final BusStation station, final BitSet dests, final BusTime start, final int wait,
+        final int maxDuration, final int maxWalk, final RoutingAlgorithm algo) {
+      this.station = station;
+      this.dests = dests;
+      this.start = start;
+      this.wait = wait;
+      this.maxDuration = maxDuration;
+      this.maxWalk = maxWalk;
+      this.algo = algo;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if(!(obj instanceof Query)) return false;
+      final Query q = (Query) obj;
+      return station.equals(q.station) && start.equals(q.start) && wait == q.wait
+          && maxDuration == q.maxDuration && maxWalk == q.maxWalk && algo == q.algo
+          && (dests == null ? q.dests == null : dests.equals(q.dests));
+    }
+
+    @Override
+    public int hashCode() {
+      int h = station.getId();
+      h = 31 * h + start.secondsFromMidnight();
+      h = 31 * h + wait;
+      h = 31 * h + maxDuration;
+      h = 31 * h + maxWalk;
+      h = 31 * h + System.identityHashCode(algo);
+      return 31 * h + (dests == null ? 0 : dests.hashCode());
+    }
+
+  } // Query
+
+}
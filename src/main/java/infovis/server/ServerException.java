@@ -0,0 +1,36 @@
+package infovis.server;
+
+/**
+ * Signals that a request cannot be answered.
+ * 
+ * @author agent <agent@local>
+ */
+final class ServerException extends Exception {
+
+  /** The serial version UID. */
+  private static final long serialVersionUID = 1L;
+
+  /** The HTTP status code. */
+  private final int status;
+
+  /**
+   * Constructor.
+   * 
+   * @param status The HTTP status code.
+   * @param message The message for the client.
+   */
+  ServerException(final int status, final String message) {
+    super(message);
+    this.status = status;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The HTTP status code.
+   */
+  int getStatus() {
+    return status;
+  }
+
+}
@@ -0,0 +1,122 @@
+package infovis.server;
+
+import infovis.data.BusDataBuilder;
+import infovis.data.BusStationManager;
+import infovis.util.Resource;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A little load test for the routing service. Several clients send random
+ * routing queries and the throughput and latencies are printed.
+ * 
+ * @author agent <agent@local>
+ */
+public final class ServerLoadTest {
+
+  /** The number of concurrent clients. */
+  private static final int CLIENTS = 16;
+
+  /** The number of requests per client. */
+  private static final int REQUESTS = 50;
+
+  /** No constructor. */
+  private ServerLoadTest() {
+    // no constructor
+  }
+
+  /**
+   * Runs the load test.
+   * 
+   * @param args The base URL of a running service, eg.
+   *          <code>http://localhost:8080</code>. Without argument a service
+   *          for the default resources is started.
+   * @throws Exception No-exceptions
+   */
+  public static void main(final String[] args) throws Exception {
+    final String base;
+    final int stations;
+    RoutingServer server = null;
+    if(args.length > 0) {
+      base = args[0];
+      stations = Integer.getInteger("busvis.stations", 100);
+    } else {
+      final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+      server = new RoutingServer(man, 0);
+      server.start();
+      base = "http://localhost:" + server.getPort();
+      stations = man.maxId() + 1;
+    }
+    final long[] latencies = new long[CLIENTS * REQUESTS];
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(CLIENTS);
+    final long start = System.nanoTime();
+    for(int c = 0; c < CLIENTS; ++c) {
+      final Random rnd = new Random(c);
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            for(int i = 0; i < REQUESTS; ++i) {
+              final String query = "/routes?from=" + rnd.nextInt(stations) + "&time="
+                  + rnd.nextInt(24) + ":" + rnd.nextInt(60);
+              final long t = System.nanoTime();
+              if(!get(new URL(base + query))) {
+                failed.incrementAndGet();
+              }
+              latencies[next.getAndIncrement()] = System.nanoTime() - t;
+            }
+          } catch(final Exception e) {
+            e.printStackTrace();
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    done.await();
+    final double secs = (System.nanoTime() - start) / 1e9;
+    final int n = next.get();
+    Arrays.sort(latencies, 0, n);
+    System.out.printf("Requests: %d failed: %d time: %.1fs throughput: %.1f/s%n", n,
+        failed.get(), secs, n / secs);
+    System.out.printf("Latency median: %dms 95%%: %dms max: %dms%n",
+        latencies[n / 2] / 1000000, latencies[n * 95 / 100] / 1000000,
+        latencies[n - 1] / 1000000);
+    if(server != null) {
+      server.stop();
+    }
+  }
+
+  /**
+   * Sends a request and reads the answer.
+   * 
+   * @param url The URL.
+   * @return Whether the request was answered successfully.
+   * @throws Exception if the request fails
+   */
+  static boolean get(final URL url) throws Exception {
+    final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    final int status = conn.getResponseCode();
+    final InputStream in = status == 200 ? conn.getInputStream() : conn.getErrorStream();
+    if(in != null) {
+      try {
+        final byte[] buf = new byte[8192];
+        while(in.read(buf) >= 0) {
+          // skip the answer
+        }
+      } finally {
+        in.close();
+      }
+    }
+    return status == 200;
+  }
+
+}
@@ -0,0 +1,175 @@
+package infovis.util;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of non-negative integer ids with <code>long</code>
+ * priorities. The position of every id in the heap is tracked, so the priority
+ * of an id can be decreased in place instead of adding it a second time.
+ * 
+ * @author agent <agent@local>
+ */
+public final class IndexedHeap {
+
+  /** The ids in heap order. */
+  private int[] heap;
+
+  /** The priorities by id. */
+  private long[] prio;
+
+  /** The heap positions by id, <code>-1</code> if the id is not contained. */
+  private int[] pos;
+
+  /** The number of ids in the heap. */
+  private int size;
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity The initial capacity for ids.
+   */
+  public IndexedHeap(final int capacity) {
+    final int cap = Math.max(capacity, 16);
+    heap = new int[cap];
+    prio = new long[cap];
+    pos = new int[cap];
+    Arrays.fill(pos, -1);
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return Whether the heap is empty.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The number of ids in the heap.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Checks whether the given id is in the heap.
+   * 
+   * @param id The id.
+   * @return Whether the id is in the heap.
+   */
+  public boolean contains(final int id) {
+    return id < pos.length && pos[id] >= 0;
+  }
+
+  /**
+   * Getter.
+   * 
+   * @param id The id, it must be in the heap.
+   * @return The priority of the id.
+   */
+  public long getPriority(final int id) {
+    return prio[id];
+  }
+
+  /**
+   * Adds an id that is not in the heap.
+   * 
+   * @param id The id.
+   * @param priority The priority.
+   */
+  public void add(final int id, final long priority) {
+    if(id >= pos.length) {
+      final int old = pos.length;
+      final int cap = Math.max(2 * old, id + 1);
+      prio = Arrays.copyOf(prio, cap);
+      pos = Arrays.copyOf(pos, cap);
+      Arrays.fill(pos, old, cap, -1);
+    }
+    if(pos[id] >= 0) throw new IllegalArgumentException("id already in heap: " + id);
+    if(size == heap.length) {
+      heap = Arrays.copyOf(heap, 2 * size);
+    }
+    prio[id] = priority;
+    up(id, size++);
+  }
+
+  /**
+   * Decreases the priority of an id in the heap.
+   * 
+   * @param id The id.
+   * @param priority The new priority.
+   * @return Whether the priority was decreased, ie. the id is in the heap and
+   *         the new priority is smaller than the old one.
+   */
+  public boolean decreaseKey(final int id, final long priority) {
+    if(!contains(id) || priority >= prio[id]) return false;
+    prio[id] = priority;
+    up(id, pos[id]);
+    return true;
+  }
+
+  /**
+   * Removes the id with the smallest priority.
+   * 
+   * @return The id or <code>-1</code> if the heap is empty.
+   */
+  public int poll() {
+    if(size == 0) return -1;
+    final int res = heap[0];
+    pos[res] = -1;
+    final int last = heap[--size];
+    if(size > 0) {
+      final long p = prio[last];
+      int i = 0;
+      for(int child; (child = 2 * i + 1) < size; i = child) {
+        if(child + 1 < size && prio[heap[child + 1]] < prio[heap[child]]) {
+          ++child;
+        }
+        if(prio[heap[child]] >= p) {
+          break;
+        }
+        heap[i] = heap[child];
+        pos[heap[i]] = i;
+      }
+      heap[i] = last;
+      pos[last] = i;
+    }
+    return res;
+  }
+
+  /**
+   * Removes all ids.
+   */
+  public void clear() {
+    for(int i = 0; i < size; ++i) {
+      pos[heap[i]] = -1;
+    }
+    size = 0;
+  }
+
+  /**
+   * Moves an id up from the given position until the heap order holds.
+   * 
+   * @param id The id.
+   * @param start The start position.
+   */
+  private void up(final int id, final int start) {
+    final long p = prio[id];
+    int i = start;
+    while(i > 0) {
+      final int parent = (i - 1) >>> 1;
+      if(prio[heap[parent]] <= p) {
+        break;
+      }
+      heap[i] = heap[parent];
+      pos[heap[i]] = i;
+      i = parent;
+    }
+    heap[i] = id;
+    pos[id] = i;
+  }
+
+}
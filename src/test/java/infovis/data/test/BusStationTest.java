@@ -63,6 +63,82 @@ public class BusStationTest {
     MANAGER = builder.finish();
   }
 
+  /**
+   * Tests that the packed departures match the edges.
+   */
+  @Test
+  public void departures() {
+    for(final BusStation s : MANAGER.getStations()) {
+      int i = 0;
+      for(final BusEdge e : s.getEdges()) {
+        assertSame(e, s.getEdge(i));
+        assertEquals(e.getStart().secondsFromMidnight(), s.getDepartSeconds(i));
+        assertEquals(e.getEnd().secondsFromMidnight(), s.getArriveSeconds(i));
+        assertEquals(e.getTo().getId(), s.getDestinationId(i));
+        assertEquals(e.getTourNr(), s.getTourNr(i));
+        ++i;
+      }
+      assertEquals(i, s.departures());
+    }
+    final BusStation e = MANAGER.getForId(4);
+    // edges share their line id exactly when they belong to the same line
+    for(int i = 0; i < e.departures(); ++i) {
+      assertEquals(e.getEdge(i).getLine().equals(e.getEdge(0).getLine()),
+          e.getLineId(i) == e.getLineId(0));
+    }
+    // the edges of e start at 00:00, 00:00, 00:00, 00:01, 00:06, 00:07, 00:50, 23:59
+    assertEquals(3, e.firstDeparture(BusTime.SECONDS_PER_MINUTE));
+    assertEquals(7, e.firstDeparture(23 * 60 * BusTime.SECONDS_PER_MINUTE));
+    assertEquals(0, e.firstDeparture(BusTime.SECONDS_PER_DAY - 1));
+  }
+
+  /**
+   * Tests the lower bounds for travel times.
+   */
+  @Test
+  public void lowerBound() {
+    final BusStation a = MANAGER.getForId(0);
+    final BusStation c = MANAGER.getForId(2);
+    final BusStation h = MANAGER.getForId(7);
+    assertEquals(0, a.lowerBound(a));
+    // via d, the direct bus is slower
+    assertEquals(2 * BusTime.SECONDS_PER_MINUTE, a.lowerBound(c));
+    // no bus leaves h
+    assertEquals(-1, h.lowerBound(a));
+  }
+
+  /**
+   * Tests the static reachability of stations.
+   */
+  @Test
+  public void reachability() {
+    final BusStation a = MANAGER.getForId(0);
+    final BusStation e = MANAGER.getForId(4);
+    final BusStation h = MANAGER.getForId(7);
+    assertTrue(a.canReach(h));
+    assertTrue(e.canReach(h));
+    assertFalse(h.canReach(a));
+    assertFalse(e.canReach(a));
+    assertTrue(h.canReach(h));
+  }
+
+  /**
+   * Tests the arrivals in a period.
+   */
+  @Test
+  public void arrivals() {
+    final BusStation a = MANAGER.getForId(0);
+    assertFalse(a.hasArrivals(new BusTime(3, 0), 10 * BusTime.SECONDS_PER_MINUTE));
+    assertTrue(a.hasArrivals(new BusTime(3, 0), 20 * BusTime.SECONDS_PER_MINUTE));
+    // over midnight
+    assertTrue(a.hasArrivals(new BusTime(23, 59), 5 * BusTime.SECONDS_PER_MINUTE));
+    // the only arrival at d is at 03:11
+    final BusStation d = MANAGER.getForId(3);
+    assertFalse(d.hasArrivals(new BusTime(3, 12), BusTime.SECONDS_PER_DAY
+        - 2 * BusTime.SECONDS_PER_MINUTE));
+    assertTrue(d.hasArrivals(new BusTime(3, 11), 0));
+  }
+
   /**
    * Tests simultaneous edges appearing in the right order.
    */
@@ -201,4 +277,30 @@ public class BusStationTest {
       }
     }
   }
+
+  /**
+   * Tests the walking neighbours.
+   */
+  @Test
+  public void walkingNeighbours() {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusStation a = builder.createStation("a", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("b", "1", 0, 0, 0, 0);
+    final BusStation c = builder.createStation("c", "2", 0, 0, 0, 0);
+    final BusStation d = builder.createStation("d", "3", 0, 0, 0, 0);
+    builder.setWalkingDistance(a, b, 300);
+    builder.setWalkingDistance(a, c, 60);
+    builder.setWalkingDistance(a, d, BusStation.MAX_WALK_MINUTES * 60 + 1);
+    builder.finish();
+    assertEquals(2, a.walkingNeighbours(Integer.MAX_VALUE));
+    assertEquals(c, a.getWalkingNeighbour(0));
+    assertEquals(60, a.getWalkingNeighbourSeconds(0));
+    assertEquals(b, a.getWalkingNeighbour(1));
+    assertEquals(300, a.getWalkingNeighbourSeconds(1));
+    assertEquals(1, a.walkingNeighbours(299));
+    assertEquals(0, a.walkingNeighbours(59));
+    assertEquals(1, c.walkingNeighbours(60));
+    assertEquals(a, c.getWalkingNeighbour(0));
+  }
+
 }
@@ -0,0 +1,191 @@
+package infovis.data.test;
+
+import infovis.data.BusDataBuilder;
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.data.gtfs.GTFSReader;
+import infovis.routing.RouteFinder;
+import infovis.util.Resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Measures the memory allocated for {@link BusTime}s while routing and while
+ * parsing stop times. The allocated bytes are read from the JVM if it counts
+ * them per thread, otherwise only the time is measured. The benchmark only
+ * uses methods that existed before the times were shared, so it can be run
+ * against both versions. If a file is given as argument the results are
+ * stored there, or compared with the results stored by an earlier run.
+ * 
+ * @author agent <agent@local>
+ */
+public final class BusTimeBenchmark {
+
+  /** The method reading the allocated bytes of a thread or <code>null</code>. */
+  private static final Method ALLOCATED = allocatedMethod();
+
+  /** No constructor. */
+  private BusTimeBenchmark() {
+    // no constructor
+  }
+
+  /**
+   * Looks up the method counting the allocated bytes per thread. It is not
+   * part of the standard API, so it is accessed reflectively.
+   * 
+   * @return The method or <code>null</code> if the JVM does not provide it.
+   */
+  private static Method allocatedMethod() {
+    final Object bean = ManagementFactory.getThreadMXBean();
+    try {
+      final Class<?> c = Class.forName("com.sun.management.ThreadMXBean");
+      if(!c.isInstance(bean)) return null;
+      final Method m = c.getMethod("getThreadAllocatedBytes", long.class);
+      m.setAccessible(true);
+      return m;
+    } catch(final Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Getter.
+   * 
+   * @return The bytes allocated by the current thread so far or
+   *         <code>-1</code> if the JVM does not count them.
+   */
+  private static long allocated() {
+    if(ALLOCATED == null) return -1;
+    try {
+      final Object bytes = ALLOCATED.invoke(ManagementFactory.getThreadMXBean(),
+          Thread.currentThread().getId());
+      return ((Long) bytes).longValue();
+    } catch(final Exception e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Prints the memory and time used by a run and compares them with the
+   * baseline.
+   * 
+   * @param name The name of the run.
+   * @param bytes The allocated bytes or a negative value if unknown.
+   * @param millis The time in milliseconds.
+   * @param count The number of operations.
+   * @param res The results of this run.
+   * @param base The results of the baseline or <code>null</code>.
+   */
+  private static void print(final String name, final long bytes, final long millis,
+      final int count, final Properties res, final Properties base) {
+    final long perOp = bytes < 0 ? -1 : bytes / count;
+    res.setProperty(name + ".bytes", Long.toString(perOp));
+    res.setProperty(name + ".ms", Long.toString(millis));
+    System.out.print(name + ": " + (perOp < 0 ? "n/a" : perOp + " bytes per operation")
+        + ", " + millis + " ms");
+    if(base != null && base.getProperty(name + ".ms") != null) {
+      final long b = Long.parseLong(base.getProperty(name + ".bytes"));
+      System.out.print(" (before: " + (b < 0 || perOp < 0 ? "n/a" : b + " bytes")
+          + ", " + base.getProperty(name + ".ms") + " ms)");
+    }
+    System.out.println();
+  }
+
+  /**
+   * Runs the measurements.
+   * 
+   * @param args An optional file for the results of the baseline.
+   * @throws Exception No-exceptions
+   */
+  public static void main(final String[] args) throws Exception {
+    final File file = args.length > 0 ? new File(args[0]) : null;
+    Properties base = null;
+    if(file != null && file.exists()) {
+      base = new Properties();
+      final InputStream in = new FileInputStream(file);
+      try {
+        base.load(in);
+      } finally {
+        in.close();
+      }
+    }
+
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final BitSet set = new BitSet();
+    final List<String> stopTimes = new ArrayList<String>();
+    for(final BusStation a : man.getStations()) {
+      set.set(a.getId());
+      for(final BusEdge e : a.getEdges()) {
+        for(final BusTime t : new BusTime[] { e.getStart(), e.getEnd()}) {
+          stopTimes.add(t.getHour() + ":" + t.getMinute() + ":" + t.getSecond());
+        }
+      }
+    }
+    final int maxDuration = man.getMaxTimeHours() * BusTime.MINUTES_PER_HOUR;
+    final int[] secs = new int[stopTimes.size()];
+    for(int i = 0; i < secs.length; ++i) {
+      secs[i] = GTFSReader.getTime(stopTimes.get(i)).secondsFromMidnight();
+    }
+    final BusTime[] times = new BusTime[secs.length];
+
+    final Properties res = new Properties();
+    for(int run = 0; run < 3; ++run) {
+      System.out.println("Run " + (run + 1));
+      long bytes = allocated();
+      long time = System.currentTimeMillis();
+      for(final BusStation a : man.getStations()) {
+        RouteFinder.findRoutesFrom(man, a, set, BusTime.NOON, 5, maxDuration, 5);
+      }
+      print("findRoutesFrom", allocated() - bytes, System.currentTimeMillis() - time,
+          man.getStations().size(), res, base);
+
+      bytes = allocated();
+      time = System.currentTimeMillis();
+      for(final String s : stopTimes) {
+        GTFSReader.getTime(s);
+      }
+      print("GTFSReader.getTime", allocated() - bytes, System.currentTimeMillis() - time,
+          stopTimes.size(), res, base);
+
+      // shared instances (if available) against newly created ones
+      bytes = allocated();
+      time = System.currentTimeMillis();
+      for(int i = 0; i < secs.length; ++i) {
+        times[i] = BusTime.MIDNIGHT.later(0, secs[i]);
+      }
+      print("BusTime.later", allocated() - bytes, System.currentTimeMillis() - time,
+          secs.length, res, base);
+      bytes = allocated();
+      time = System.currentTimeMillis();
+      for(int i = 0; i < secs.length; ++i) {
+        final int s = secs[i];
+        times[i] = new BusTime(s / 3600, s / 60 % 60, s % 60);
+      }
+      print("new BusTime", allocated() - bytes, System.currentTimeMillis() - time,
+          secs.length, res, base);
+    }
+
+    if(file != null && base == null) {
+      final OutputStream out = new FileOutputStream(file);
+      try {
+        res.store(out, "BusTime benchmark");
+      } finally {
+        out.close();
+      }
+      System.out.println("Written to " + file);
+    }
+  }
+
+}
@@ -3,6 +3,7 @@ package infovis.data.test;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 import infovis.data.BusTime;
+import infovis.data.gtfs.GTFSReader;
 
 import java.util.Arrays;
 import java.util.HashSet;
@@ -168,4 +169,44 @@ public class BusTimeTest {
     assertEquals(new BusTime(9, 5), time.later(26 + 20 * 60 + 5, 0));
   }
 
+  /**
+   * Tests that the factory methods return shared instances.
+   */
+  @Test
+  public void shared() {
+    final BusTime time = BusTime.ofSeconds(3 * 3600 + 25 * 60 + 7);
+    assertEquals(new BusTime(3, 25, 7), time);
+    assertSame(time, BusTime.ofSeconds(time.secondsFromMidnight()));
+    assertSame(time, BusTime.MIDNIGHT.later(3 * 60 + 25, 7));
+    assertSame(time, time.later(24 * 60, 0));
+    assertSame(BusTime.NOON, BusTime.of(12, 0));
+    assertSame(BusTime.MIDNIGHT, BusTime.ofSeconds(0));
+    try {
+      BusTime.ofSeconds(BusTime.SECONDS_PER_DAY);
+      fail("should throw an exception");
+    } catch(final IllegalArgumentException e) {
+      // ignore
+    }
+  }
+
+  /**
+   * Tests parsing GTFS stop times.
+   */
+  @Test
+  public void gtfsTime() {
+    assertEquals(new BusTime(7, 5, 9), GTFSReader.getTime("7:05:09"));
+    assertSame(BusTime.of(1, 30), GTFSReader.getTime("25:30:00"));
+    assertSame(BusTime.MIDNIGHT, GTFSReader.getTime("00:00:00"));
+    for(final String time : new String[] { "", "12:00", "12:00:00:00", "12::00",
+        ":12:00", "12:00:", "12:60:00", "12:00:60", "12:0a:00", "-1:00:00",
+        " 12:00:00", "99999999999:00:00", "4294967296:00:00"}) {
+      try {
+        GTFSReader.getTime(time);
+        fail("should throw an exception: " + time);
+      } catch(final IllegalArgumentException e) {
+        // ignore
+      }
+    }
+  }
+
 }
@@ -0,0 +1,56 @@
+package infovis.routing.test;
+
+import static infovis.data.BusTime.*;
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.routing.AllPairsRouter;
+import infovis.routing.ConnectionScanRouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+import infovis.util.Resource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link AllPairsRouter} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class AllPairsRouterTest {
+
+  /**
+   * Checks that the parallel rows equal the results of single queries.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void sameAsSingle() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    final Map<BusStation, int[]> rows = new HashMap<BusStation, int[]>();
+    AllPairsRouter.compute(man, NOON, 3, mth, 5, 4, new AllPairsRouter.RowConsumer() {
+
+      @Override
+      public void row(final BusStation from, final int[] seconds) {
+        assertNull(rows.put(from, seconds));
+      }
+
+    });
+    assertEquals(man.getStations().size(), rows.size());
+
+    final RoutingAlgorithm scan = new ConnectionScanRouteFinder();
+    for(final BusStation s : man.getStations()) {
+      final RoutingResult[] res = scan.findRoutes(man, s, null, NOON, 3, mth, 5);
+      final int[] row = rows.get(s);
+      for(int i = 0; i <= man.maxId(); ++i) {
+        assertEquals(res[i].isReachable() ? res[i].seconds() : -1, row[i]);
+      }
+    }
+  }
+
+}
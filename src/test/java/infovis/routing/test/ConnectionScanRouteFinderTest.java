@@ -0,0 +1,55 @@
+package infovis.routing.test;
+
+import static infovis.data.BusTime.*;
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusEdge;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.ConnectionScanRouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+import infovis.util.Resource;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ConnectionScanRouteFinder} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class ConnectionScanRouteFinderTest extends RoutingAlgorithmTest {
+
+  @Override
+  protected RoutingAlgorithm algorithm() {
+    return new ConnectionScanRouteFinder();
+  }
+
+  /**
+   * Checks that the early exit for single destinations finds the same routes.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void singleDestination() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    final RoutingAlgorithm scan = new ConnectionScanRouteFinder();
+    final BusTime start = new BusTime(7, 30);
+    for(final BusStation s : man.getStations()) {
+      final RoutingResult[] all = scan.findRoutes(man, s, null, start, 2, mth, 5);
+      for(final BusStation d : man.getStations()) {
+        final BusEdge[] route = ConnectionScanRouteFinder.findRoute(man, s, d, start, 2,
+            mth, 5);
+        final RoutingResult res = all[d.getId()];
+        if(res.isStartNode() || !res.isReachable()) {
+          assertNull(route);
+        } else {
+          assertEquals(res.getEndTime(), route[route.length - 1].getEnd());
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+package infovis.routing.test;
+
+import static infovis.data.BusTime.*;
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusEdge;
+import infovis.data.BusLine;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.ParetoRouteFinder;
+import infovis.routing.RaptorRouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+import infovis.util.Resource;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ParetoRouteFinder} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class ParetoRouteFinderTest {
+
+  /**
+   * Checks that a slower route with fewer changes is found as well.
+   * 
+   * @throws InterruptedException exception
+   */
+  @Test
+  public void fewerChanges() throws InterruptedException {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusLine s1 = builder.createLine("B1", "B1", null, Color.RED);
+    final BusLine s2 = builder.createLine("B2", "B2", null, Color.BLUE);
+    final BusStation a = builder.createStation("A", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("B", "1", 0, 0, 0, 0);
+    final BusStation c = builder.createStation("C", "2", 0, 0, 0, 0);
+
+    final BusEdge ab = builder.addEdge(a, s1, 1, b, new BusTime(0, 0), new BusTime(0, 1));
+    final BusEdge slow = builder.addEdge(b, s1, 1, c, new BusTime(0, 1), new BusTime(0, 9));
+    final BusEdge bc = builder.addEdge(b, s2, 1, c, new BusTime(0, 3), new BusTime(0, 4));
+
+    final BusStationManager man = builder.finish();
+    final RoutingResult[][] res = ParetoRouteFinder.findParetoRoutes(man, a, null,
+        MIDNIGHT, 2, man.getMaxTimeHours() * MINUTES_PER_HOUR, 0);
+    final RoutingResult[] toC = res[c.getId()];
+    assertEquals(2, toC.length);
+    assertEquals(Arrays.asList(ab, bc), new ArrayList<BusEdge>(toC[0].getEdges()));
+    assertEquals(4 * SECONDS_PER_MINUTE, toC[0].seconds());
+    assertEquals(Arrays.asList(ab, slow), new ArrayList<BusEdge>(toC[1].getEdges()));
+    assertEquals(9 * SECONDS_PER_MINUTE, toC[1].seconds());
+
+    // only one route to B
+    assertEquals(1, res[b.getId()].length);
+    assertTrue(res[a.getId()][0].isStartNode());
+  }
+
+  /**
+   * Checks that the fastest routes are as fast as the ones of the
+   * {@link RaptorRouteFinder}.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void fastest() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    final RoutingAlgorithm raptor = new RaptorRouteFinder();
+    for(final BusStation s : man.getStations()) {
+      final RoutingResult[] expected = raptor.findRoutes(man, s, null, NOON, 3, mth, 5);
+      final RoutingResult[][] actual = ParetoRouteFinder.findParetoRoutes(man, s, null,
+          NOON, 3, mth, 5);
+      for(int i = 0; i <= man.maxId(); ++i) {
+        if(!expected[i].isReachable()) {
+          assertEquals(0, actual[i].length);
+          continue;
+        }
+        assertEquals(expected[i].seconds(), actual[i][0].seconds());
+        for(int j = 1; j < actual[i].length; ++j) {
+          assertTrue(actual[i][j - 1].seconds() <= actual[i][j].seconds());
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that stations that are no destinations have unreachable results,
+   * as with the other routing algorithms.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void destinations() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final BusStation from = man.getForId(1);
+    final BitSet dests = new BitSet();
+    dests.set(20);
+    final RoutingResult[] res = new ParetoRouteFinder().findRoutes(man, from, dests, NOON,
+        3, man.getMaxTimeHours() * MINUTES_PER_HOUR, 5);
+    assertEquals(man.maxId() + 1, res.length);
+    assertTrue(res[20].isReachable());
+    assertTrue(res[1].isStartNode());
+    for(final BusStation s : man.getStations()) {
+      final int id = s.getId();
+      assertEquals(s, res[id].getEnd());
+      if(id != 1 && id != 20) {
+        assertFalse(res[id].isReachable());
+      }
+    }
+  }
+
+}
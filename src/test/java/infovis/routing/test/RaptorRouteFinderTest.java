@@ -0,0 +1,18 @@
+package infovis.routing.test;
+
+import infovis.routing.RaptorRouteFinder;
+import infovis.routing.RoutingAlgorithm;
+
+/**
+ * Tests for the {@link RaptorRouteFinder} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class RaptorRouteFinderTest extends RoutingAlgorithmTest {
+
+  @Override
+  protected RoutingAlgorithm algorithm() {
+    return new RaptorRouteFinder();
+  }
+
+}
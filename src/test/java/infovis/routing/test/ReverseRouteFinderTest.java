@@ -0,0 +1,138 @@
+package infovis.routing.test;
+
+import static infovis.data.BusTime.*;
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusEdge;
+import infovis.data.BusLine;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.ConnectionScanRouteFinder;
+import infovis.routing.ReverseRouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+import infovis.util.Resource;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link ReverseRouteFinder} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class ReverseRouteFinderTest {
+
+  /**
+   * Checks that the latest departures respect the change time.
+   * 
+   * @throws InterruptedException exception
+   */
+  @Test
+  public void latestDeparture() throws InterruptedException {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusLine s1 = builder.createLine("B1", "B1", null, Color.RED);
+    final BusLine s2 = builder.createLine("B2", "B2", null, Color.BLUE);
+    final BusStation a = builder.createStation("A", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("B", "1", 0, 0, 0, 0);
+    final BusStation c = builder.createStation("C", "2", 0, 0, 0, 0);
+    final BusStation d = builder.createStation("D", "3", 0, 0, 0, 0);
+
+    final BusEdge ab = builder.addEdge(a, s1, 1, b, new BusTime(0, 0), new BusTime(0, 1));
+    builder.addEdge(a, s1, 2, b, new BusTime(0, 2), new BusTime(0, 3));
+    final BusEdge db = builder.addEdge(d, s2, 1, b, new BusTime(0, 2), new BusTime(0, 3));
+    final BusEdge bc = builder.addEdge(b, s2, 1, c, new BusTime(0, 3), new BusTime(0, 4));
+    builder.addEdge(b, s2, 2, c, new BusTime(0, 20), new BusTime(0, 21));
+
+    final BusStationManager man = builder.finish();
+    final RoutingResult[] res = ReverseRouteFinder.findRoutesTo(man, c, null,
+        new BusTime(0, 10), 2, 60, 0);
+    assertTrue(res[c.getId()].isStartNode());
+
+    // the later bus from A misses the change
+    final RoutingResult fromA = res[a.getId()];
+    assertEquals(Arrays.asList(ab, bc), new ArrayList<BusEdge>(fromA.getEdges()));
+    assertEquals(new BusTime(0, 0), fromA.getStartTime());
+    assertEquals(new BusTime(0, 4), fromA.getEndTime());
+
+    // staying in the same bus needs no change time
+    final RoutingResult fromD = res[d.getId()];
+    assertEquals(Arrays.asList(db, bc), new ArrayList<BusEdge>(fromD.getEdges()));
+    assertEquals(new BusTime(0, 2), fromD.getStartTime());
+
+    final BitSet starts = new BitSet();
+    starts.set(b.getId());
+    final RoutingResult[] onlyB = ReverseRouteFinder.findRoutesTo(man, c, starts,
+        new BusTime(0, 10), 2, 60, 0);
+    assertEquals(Arrays.asList(bc), new ArrayList<BusEdge>(onlyB[b.getId()].getEdges()));
+  }
+
+  /**
+   * Checks that all found routes are feasible, ie. starting at the latest
+   * departure the destination is reached in time.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void feasible() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingAlgorithm csa = new ConnectionScanRouteFinder();
+    final BusTime arrival = new BusTime(13, 0);
+    final BusStation[] dests = man.getStations().toArray(new BusStation[0]);
+    for(int i = 0; i < dests.length; i += 7) {
+      final BusStation dest = dests[i];
+      final RoutingResult[] res = ReverseRouteFinder.findRoutesTo(man, dest, null,
+          arrival, 3, 60, 5);
+      for(final BusStation s : man.getStations()) {
+        final RoutingResult r = res[s.getId()];
+        if(!r.isReachable() || r.isStartNode()) {
+          continue;
+        }
+        assertTrue(r.getStartTime().secondsTo(arrival) <= 60 * SECONDS_PER_MINUTE);
+        final RoutingResult fwd = csa.findRoutes(man, s, null, r.getStartTime(),
+            3, 60, 5)[dest.getId()];
+        assertTrue(fwd.isReachable());
+        assertTrue(fwd.getEndTime().secondsTo(arrival)
+            <= r.getStartTime().secondsTo(arrival));
+      }
+    }
+  }
+
+  /**
+   * Checks that the found departures are the latest ones, ie. one second later
+   * the destination cannot be reached in time any more.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void latest() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingAlgorithm csa = new ConnectionScanRouteFinder();
+    final BusTime arrival = new BusTime(8, 0);
+    final BusStation[] dests = man.getStations().toArray(new BusStation[0]);
+    for(int i = 0; i < dests.length; i += 11) {
+      final BusStation dest = dests[i];
+      final RoutingResult[] res = ReverseRouteFinder.findRoutesTo(man, dest, null,
+          arrival, 3, 60, 5);
+      for(final BusStation s : man.getStations()) {
+        final RoutingResult r = res[s.getId()];
+        if(r.isStartNode() || r.isReachable() && r.getStartTime().equals(arrival)) {
+          // nothing is later than leaving at the arrival time
+          continue;
+        }
+        final BusTime later = r.isReachable() ? r.getStartTime().later(0, 1)
+            : arrival.later(-60, 0);
+        final int to = dest.getId();
+        final RoutingResult fwd = csa.findRoutes(man, s, null, later, 3, 60, 5)[to];
+        assertFalse(s + " -> " + dest, fwd.isReachable()
+            && fwd.seconds() <= later.secondsTo(arrival));
+      }
+    }
+  }
+
+}
@@ -306,6 +306,97 @@ public class RouteFinderTest {
     assertSame(res.getEdges().iterator().next().getLine(), BusLine.WALK);
   }
 
+  /**
+   * Tests that the goal-directed search for single routes finds routes as fast
+   * as the search for all routes.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void goalDirected() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    for(final BusStation s : man.getStations()) {
+      if(s.getId() % 7 != 0) {
+        continue;
+      }
+      final BusEdge[][] all = RouteFinder.findRoutesFrom(man, s, null, NOON, 3, mth, 5);
+      for(final BusStation d : man.getStations()) {
+        if(d.getId() % 5 != 0 || d.equals(s)) {
+          continue;
+        }
+        final BusEdge[] route = RouteFinder.findRoute(man, s, d, NOON, 3, mth, 5);
+        if(all[d.getId()] == null) {
+          assertNull(route);
+        } else {
+          assertNotNull(route);
+          assertEquals(all[d.getId()][all[d.getId()].length - 1].getEnd(),
+              route[route.length - 1].getEnd());
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that the routes of the routing results are journeys that can be
+   * taken and arrive after the travel time found by the search.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void results() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    final RoutingAlgorithm router = new RouteFinder();
+    for(final BusStation s : man.getStations()) {
+      if(s.getId() % 3 != 0) {
+        continue;
+      }
+      final RoutingResult[] res = router.findRoutes(man, s, null, NOON, 3, mth, 5);
+      for(int i = 0; i <= man.maxId(); ++i) {
+        if(i == s.getId()) {
+          assertTrue(res[i].isStartNode());
+        } else if(res[i].isReachable()) {
+          checkJourney(res[i], 3, 5);
+          assertSame(res[i].getEdges(), res[i].getEdges());
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that the edges of a route form a journey from its start station to
+   * its end station that can be taken at its start time and arrives after its
+   * travel time.
+   * 
+   * @param r The route.
+   * @param wait The change time in minutes.
+   * @param maxWalk The maximal walking time in minutes.
+   */
+  private static void checkJourney(final RoutingResult r, final int wait,
+      final int maxWalk) {
+    BusStation at = r.getStart();
+    BusTime cur = r.getStartTime();
+    BusEdge prev = null;
+    int secs = 0;
+    for(final BusEdge e : r.getEdges()) {
+      assertEquals(at, e.getFrom());
+      if(e.getLine() == BusLine.WALK) {
+        assertTrue(prev == null || prev.getLine() != BusLine.WALK);
+        assertEquals(cur, e.getStart());
+        assertTrue(e.travelSeconds() <= maxWalk * SECONDS_PER_MINUTE);
+      } else if(prev != null && !(prev.getLine() != BusLine.WALK && prev.sameTour(e))) {
+        assertTrue(cur.secondsTo(e.getStart()) >= wait * SECONDS_PER_MINUTE);
+      }
+      secs += cur.secondsTo(e.getEnd());
+      cur = e.getEnd();
+      at = e.getTo();
+      prev = e;
+    }
+    assertEquals(r.getEnd(), at);
+    assertEquals(r.seconds(), secs);
+  }
+
   //  @Test
   //  public void walkingLimit() throws Exception {
   // final BusStationManager man =
@@ -0,0 +1,150 @@
+package infovis.routing.test;
+
+import static infovis.data.BusTime.*;
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusEdge;
+import infovis.data.BusLine;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.RouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+import infovis.util.Resource;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests shared by the routing algorithms that find the earliest arrival on
+ * the time table. Every algorithm has a subclass creating it, which also holds
+ * the tests of the algorithm's specifics.
+ * 
+ * @author agent <agent@local>
+ */
+public abstract class RoutingAlgorithmTest {
+
+  /**
+   * Creates the tested routing algorithm.
+   * 
+   * @return The routing algorithm.
+   */
+  protected abstract RoutingAlgorithm algorithm();
+
+  /**
+   * Checks if the line is changed when advantageous.
+   * 
+   * @throws InterruptedException exception
+   */
+  @Test
+  public void shouldChange() throws InterruptedException {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusLine s1 = builder.createLine("B1", "B1", null, Color.RED);
+    final BusLine s2 = builder.createLine("B2", "B2", null, Color.BLUE);
+    final BusStation a = builder.createStation("A", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("B", "1", 0, 0, 0, 0);
+    final BusStation c = builder.createStation("C", "2", 0, 0, 0, 0);
+
+    final BusEdge ab = builder.addEdge(a, s1, 1, b, new BusTime(0, 0), new BusTime(0, 1));
+    builder.addEdge(b, s1, 1, c, new BusTime(0, 1), new BusTime(0, 5));
+    final BusEdge bc = builder.addEdge(b, s2, 1, c, new BusTime(0, 3), new BusTime(0, 4));
+
+    final BusStationManager man = builder.finish();
+    final RoutingResult[] res = algorithm().findRoutes(man, a, null,
+        MIDNIGHT, 2, man.getMaxTimeHours() * MINUTES_PER_HOUR, 0);
+    assertEquals(Arrays.asList(ab, bc), new ArrayList<BusEdge>(res[c.getId()].getEdges()));
+    assertEquals(4 * SECONDS_PER_MINUTE, res[c.getId()].seconds());
+
+    // the change is not possible any more
+    final RoutingResult[] stay = algorithm().findRoutes(man, a, null,
+        MIDNIGHT, 3, man.getMaxTimeHours() * MINUTES_PER_HOUR, 0);
+    assertEquals(5 * SECONDS_PER_MINUTE, stay[c.getId()].seconds());
+  }
+
+  /**
+   * Checks that a bus arriving later than the fastest one is ridden on when
+   * changing would take longer.
+   * 
+   * @throws InterruptedException exception
+   */
+  @Test
+  public void stayOnBus() throws InterruptedException {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusLine s1 = builder.createLine("B1", "B1", null, Color.RED);
+    final BusLine s2 = builder.createLine("B2", "B2", null, Color.BLUE);
+    final BusStation a = builder.createStation("A", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("B", "1", 0, 0, 0, 0);
+    final BusStation c = builder.createStation("C", "2", 0, 0, 0, 0);
+
+    final BusEdge fast = builder.addEdge(a, s1, 1, b, new BusTime(0, 0), new BusTime(0, 2));
+    builder.addEdge(b, s1, 1, c, new BusTime(0, 2), new BusTime(0, 20));
+    final BusEdge ab = builder.addEdge(a, s2, 1, b, new BusTime(0, 0), new BusTime(0, 3));
+    final BusEdge bc = builder.addEdge(b, s2, 1, c, new BusTime(0, 3), new BusTime(0, 4));
+
+    final BusStationManager man = builder.finish();
+    final RoutingResult[] res = algorithm().findRoutes(man, a, null,
+        MIDNIGHT, 5, man.getMaxTimeHours() * MINUTES_PER_HOUR, 0);
+    assertEquals(Arrays.asList(fast), new ArrayList<BusEdge>(res[b.getId()].getEdges()));
+    assertEquals(Arrays.asList(ab, bc), new ArrayList<BusEdge>(res[c.getId()].getEdges()));
+    assertEquals(4 * SECONDS_PER_MINUTE, res[c.getId()].seconds());
+  }
+
+  /**
+   * Tests a tour running over midnight.
+   * 
+   * @throws InterruptedException exception
+   */
+  @Test
+  public void overMidnight() throws InterruptedException {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusLine line = builder.createLine("1", "1", null, Color.RED);
+    final BusStation a = builder.createStation("a", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("b", "1", 0, 0, 0, 0);
+    final BusStation c = builder.createStation("c", "2", 0, 0, 0, 0);
+    builder.addEdge(a, line, 0, b, new BusTime(23, 50), new BusTime(23, 58));
+    builder.addEdge(b, line, 0, c, new BusTime(23, 58), new BusTime(0, 5));
+    final BusStationManager man = builder.finish();
+    final RoutingAlgorithm algo = algorithm();
+
+    final RoutingResult[] late = algo.findRoutes(man, a, null, new BusTime(23, 45), 5,
+        MINUTES_PER_HOUR, 0);
+    assertEquals(20 * SECONDS_PER_MINUTE, late[c.getId()].seconds());
+    assertEquals(2, late[c.getId()].getEdges().size());
+
+    // boarding the same tour after midnight
+    final RoutingResult[] early = algo.findRoutes(man, b, null, new BusTime(23, 0), 5,
+        MINUTES_PER_HOUR + 5, 0);
+    assertEquals(65 * SECONDS_PER_MINUTE, early[c.getId()].seconds());
+    assertFalse(algo.findRoutes(man, b, null, new BusTime(23, 0), 5,
+        MINUTES_PER_HOUR, 0)[c.getId()].isReachable());
+  }
+
+  /**
+   * Checks that routes are never slower than the ones of the {@link RouteFinder}.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void notSlower() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    final RoutingAlgorithm exact = new RouteFinder();
+    final RoutingAlgorithm algo = algorithm();
+    for(final BusStation s : man.getStations()) {
+      final RoutingResult[] expected = exact.findRoutes(man, s, null, NOON, 3, mth, 5);
+      final RoutingResult[] actual = algo.findRoutes(man, s, null, NOON, 3, mth, 5);
+      for(int i = 0; i <= man.maxId(); ++i) {
+        if(!expected[i].isReachable()) {
+          continue;
+        }
+        assertTrue("no route from " + s + " to " + i, actual[i].isReachable());
+        assertTrue(actual[i].seconds() <= expected[i].seconds());
+      }
+    }
+  }
+
+}
@@ -2,18 +2,27 @@ package infovis.routing.test;
 
 import static org.junit.Assert.*;
 import infovis.data.BusDataBuilder;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
 import infovis.data.BusStationManager;
 import infovis.data.BusTime;
 import infovis.routing.RouteFinder;
+import infovis.routing.RoutingAlgorithm;
 import infovis.routing.RoutingManager;
 import infovis.routing.RoutingManager.CallBack;
+import infovis.routing.RoutingProgress;
 import infovis.routing.RoutingResult;
 import infovis.util.Resource;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
@@ -100,6 +109,54 @@ public class RoutingManagerTest {
     assertEquals(man.maxId() + 1, ref.get().length);
   }
 
+  /**
+   * Tests if repeated requests are answered from the cache.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void cache() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingManager rm = RoutingManager.newInstance();
+    final RouteFinder algo = new RouteFinder();
+    final Semaphore sem = new Semaphore(0);
+    final AtomicReference<RoutingResult[]> ref = new AtomicReference<RoutingResult[]>();
+    final CallBack<RoutingResult[]> call = new CallBack<RoutingResult[]>() {
+      @Override
+      public void callBack(final RoutingResult[] result) {
+        ref.set(result);
+        sem.release();
+      }
+    };
+
+    rm.findRoutes(man, man.getForId(1), null, new BusTime(12, 00), 1, 24 * 60, 0, algo,
+        call);
+    sem.acquire();
+    final RoutingResult[] first = ref.get();
+    assertEquals(0, rm.getCacheHits());
+    assertEquals(1, rm.getCacheMisses());
+    assertEquals(1, rm.getCacheSize());
+
+    rm.findRoutes(man, man.getForId(1), null, new BusTime(12, 00), 1, 24 * 60, 0, algo,
+        call);
+    sem.acquire();
+    assertEquals(1, rm.getCacheHits());
+    assertEquals(first.length, ref.get().length);
+    for(int i = 0; i < first.length; ++i) {
+      assertSame(first[i], ref.get()[i]);
+    }
+
+    rm.findRoutes(man, man.getForId(1), null, new BusTime(12, 00), 2, 24 * 60, 0, algo,
+        call);
+    sem.acquire();
+    assertEquals(1, rm.getCacheHits());
+    assertEquals(2, rm.getCacheMisses());
+    assertEquals(2, rm.getCacheSize());
+
+    rm.clearCache();
+    assertEquals(0, rm.getCacheSize());
+  }
+
   /**
    * Tests if a new task cancels routing.
    * 
@@ -147,4 +204,258 @@ public class RoutingManagerTest {
     assertFalse(ref.get());
   }
 
+  /**
+   * Tests if requests with the same parameters are merged and superseded
+   * requests are counted.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void coalesce() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingManager rm = RoutingManager.newInstance();
+    final CountDownLatch sleeping = new CountDownLatch(1);
+    final CountDownLatch interrupted = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final RoutingAlgorithm algo = new RoutingAlgorithm() {
+
+      @Override
+      public RoutingResult[] findRoutes(final BusStationEnumerator bse,
+          final BusStation station, final BitSet dests, final BusTime start,
+          final int wait, final int maxDuration, final int maxWalk)
+              throws InterruptedException {
+        started.countDown();
+        release.await();
+        return new RouteFinder().findRoutes(bse, station, dests, start, wait,
+            maxDuration, maxWalk);
+      }
+
+    };
+    final AtomicInteger first = new AtomicInteger();
+    final Semaphore sem = new Semaphore(0);
+    rm.registerTask(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        sleeping.countDown();
+        try {
+          new CountDownLatch(1).await();
+          return 0;
+        } catch(final InterruptedException e) {
+          interrupted.countDown();
+          throw e;
+        }
+      }
+    }, new CallBack<Integer>() {
+      @Override
+      public void callBack(final Integer result) {
+        throw new IllegalStateException("should not come here");
+      }
+    });
+    sleeping.await();
+    for(int i = 0; i < 5; ++i) {
+      rm.findRoutes(man, man.getForId(1), null, new BusTime(12, 00), 1, 24 * 60, 0, algo,
+          new CallBack<RoutingResult[]>() {
+            @Override
+            public void callBack(final RoutingResult[] result) {
+              first.incrementAndGet();
+            }
+          });
+    }
+    final AtomicInteger last = new AtomicInteger();
+    rm.findRoutes(man, man.getForId(1), null, new BusTime(12, 00), 1, 24 * 60, 0, algo,
+        new CallBack<RoutingResult[]>() {
+          @Override
+          public void callBack(final RoutingResult[] result) {
+            last.incrementAndGet();
+            sem.release();
+          }
+        });
+    // the routing is still running, so all requests went to it
+    started.await();
+    assertEquals(5, rm.getCoalescedRequests());
+    // the sleeping task gets cancelled
+    interrupted.await();
+    release.countDown();
+    sem.acquire();
+    assertEquals(0, first.get());
+    assertEquals(1, last.get());
+    assertEquals(1, rm.getCacheSize());
+    // the worker counts the cancellation right after the task terminated
+    while(rm.getCancelledTasks() < 1) {
+      Thread.yield();
+    }
+    assertEquals(1, rm.getCancelledTasks());
+    assertEquals(0, rm.getQueueDepth());
+  }
+
+  /**
+   * Tests if speculative results are used by later requests.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void prefetch() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingManager rm = RoutingManager.newInstance();
+    final RouteFinder algo = new RouteFinder();
+    rm.prefetch(man, man.getForId(1), null, new BusTime(12, 00), 1, 24 * 60, 0, algo);
+    for(int i = 0; i < 1000 && rm.getCacheSize() < 1; ++i) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, rm.getCacheSize());
+
+    final Semaphore sem = new Semaphore(0);
+    final CallBack<RoutingResult[]> call = new CallBack<RoutingResult[]>() {
+      @Override
+      public void callBack(final RoutingResult[] result) {
+        assertEquals(man.maxId() + 1, result.length);
+        sem.release();
+      }
+    };
+    rm.findRoutes(man, man.getForId(1), null, new BusTime(12, 00), 1, 24 * 60, 0, algo,
+        call);
+    sem.acquire();
+    assertEquals(1, rm.getCacheHits());
+
+    // a running speculative computation is taken over
+    rm.prefetch(man, man.getForId(2), null, new BusTime(12, 00), 1, 24 * 60, 0, algo);
+    rm.findRoutes(man, man.getForId(2), null, new BusTime(12, 00), 1, 24 * 60, 0, algo,
+        call);
+    sem.acquire();
+    assertEquals(2, rm.getCacheHits() + rm.getCoalescedRequests());
+    assertEquals(0, rm.getCancelledTasks());
+  }
+
+  /**
+   * Tests if the next start times are computed in advance.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void lookAhead() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingManager rm = RoutingManager.newInstance();
+    final RouteFinder algo = new RouteFinder();
+    final BusTime start = new BusTime(12, 00);
+    rm.lookAhead(man, man.getForId(1), null, start, 60, 3, 1, 24 * 60, 0, algo);
+    for(int i = 0; i < 1000 && rm.getCacheSize() < 3; ++i) {
+      Thread.sleep(10);
+    }
+    assertEquals(3, rm.getCacheSize());
+
+    final Semaphore sem = new Semaphore(0);
+    final CallBack<RoutingResult[]> call = new CallBack<RoutingResult[]>() {
+      @Override
+      public void callBack(final RoutingResult[] result) {
+        assertEquals(man.maxId() + 1, result.length);
+        sem.release();
+      }
+    };
+    for(int i = 1; i <= 3; ++i) {
+      rm.findRoutes(man, man.getForId(1), null, start.later(i, 0), 1, 24 * 60, 0, algo,
+          call);
+      sem.acquire();
+    }
+    assertEquals(3, rm.getCacheHits());
+    assertEquals(0, rm.getCancelledTasks());
+
+    // cached start times are skipped
+    rm.lookAhead(man, man.getForId(1), null, start.later(1, 0), 60, 3, 1, 24 * 60, 0, algo);
+    for(int i = 0; i < 1000 && rm.getCacheSize() < 4; ++i) {
+      Thread.sleep(10);
+    }
+    assertEquals(4, rm.getCacheSize());
+  }
+
+  /**
+   * Tests if the routes found so far are streamed while the routing runs.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void progress() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingManager rm = RoutingManager.newInstance();
+    final Semaphore sem = new Semaphore(0);
+    final AtomicReference<RoutingResult[]> ref = new AtomicReference<RoutingResult[]>();
+    final List<RoutingResult[]> partials = new ArrayList<RoutingResult[]>();
+    rm.findRoutes(man, man.getForId(1), null, new BusTime(12, 00), 1, 24 * 60, 0,
+        new RouteFinder(), new CallBack<RoutingResult[]>() {
+          @Override
+          public void callBack(final RoutingResult[] result) {
+            ref.set(result);
+            sem.release();
+          }
+        }, new CallBack<RoutingResult[]>() {
+          @Override
+          public void callBack(final RoutingResult[] result) {
+            partials.add(result);
+          }
+        });
+    sem.acquire();
+
+    // more stations are reachable than fit into one batch
+    assertFalse(partials.isEmpty());
+    final RoutingResult[] res = ref.get();
+    int found = 0;
+    for(final RoutingResult[] partial : partials) {
+      assertEquals(res.length, partial.length);
+      int count = 0;
+      for(int i = 0; i < partial.length; ++i) {
+        if(partial[i] != null) {
+          ++count;
+          assertEquals(res[i].seconds(), partial[i].seconds());
+          assertEquals(res[i].getEdges().toString(), partial[i].getEdges().toString());
+        }
+      }
+      assertTrue(count > found);
+      found = count;
+    }
+  }
+
+  /**
+   * Tests that routes are only streamed if somebody listens.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void noProgress() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingManager rm = RoutingManager.newInstance();
+    final List<Boolean> wanted = new ArrayList<Boolean>();
+    final RoutingAlgorithm algo = new RoutingAlgorithm() {
+
+      @Override
+      public RoutingResult[] findRoutes(final BusStationEnumerator bse,
+          final BusStation station, final BitSet dests, final BusTime start,
+          final int wait, final int maxDuration, final int maxWalk)
+              throws InterruptedException {
+        wanted.add(RoutingProgress.current().isWanted());
+        return new RouteFinder().findRoutes(bse, station, dests, start, wait,
+            maxDuration, maxWalk);
+      }
+
+    };
+    final Semaphore sem = new Semaphore(0);
+    final CallBack<RoutingResult[]> call = new CallBack<RoutingResult[]>() {
+      @Override
+      public void callBack(final RoutingResult[] result) {
+        sem.release();
+      }
+    };
+    rm.findRoutes(man, man.getForId(1), null, new BusTime(12, 00), 1, 24 * 60, 0, algo,
+        call);
+    sem.acquire();
+    rm.findRoutes(man, man.getForId(2), null, new BusTime(12, 00), 1, 24 * 60, 0, algo,
+        call, new CallBack<RoutingResult[]>() {
+          @Override
+          public void callBack(final RoutingResult[] result) {
+            // only the flag is checked
+          }
+        });
+    sem.acquire();
+    assertEquals(Arrays.asList(false, true), wanted);
+  }
+
 }
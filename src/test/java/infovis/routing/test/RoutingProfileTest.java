@@ -0,0 +1,87 @@
+package infovis.routing.test;
+
+import static infovis.data.BusTime.*;
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusLine;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.ConnectionScanRouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingProfile;
+import infovis.routing.RoutingResult;
+import infovis.util.Resource;
+
+import java.awt.Color;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link RoutingProfile} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class RoutingProfileTest {
+
+  /**
+   * Checks that dominated routes are dropped.
+   * 
+   * @throws InterruptedException exception
+   */
+  @Test
+  public void pareto() throws InterruptedException {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusLine slow = builder.createLine("1", "1", null, Color.RED);
+    final BusLine fast = builder.createLine("2", "2", null, Color.BLUE);
+    final BusStation a = builder.createStation("a", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("b", "1", 0, 0, 0, 0);
+    builder.addEdge(a, slow, 0, b, new BusTime(10, 0), new BusTime(10, 30));
+    builder.addEdge(a, slow, 1, b, new BusTime(10, 10), new BusTime(10, 40));
+    builder.addEdge(a, fast, 0, b, new BusTime(10, 20), new BusTime(10, 30));
+    builder.addEdge(a, slow, 2, b, new BusTime(9, 55), new BusTime(10, 25));
+    final BusStationManager man = builder.finish();
+
+    final RoutingProfile prof = RoutingProfile.compute(man, a, new BusTime(9, 50), 30, 0,
+        MINUTES_PER_HOUR * 2, 0);
+    assertEquals(2, prof.size(b));
+    assertEquals(new BusTime(9, 55), prof.getDeparture(b, 0));
+    assertEquals(new BusTime(10, 25), prof.getArrival(b, 0));
+    assertEquals(new BusTime(10, 20), prof.getDeparture(b, 1));
+    assertEquals(new BusTime(10, 30), prof.getArrival(b, 1));
+
+    final RoutingResult res = prof.getResults(new BusTime(10, 5))[b.getId()];
+    assertEquals(25 * SECONDS_PER_MINUTE, res.seconds());
+    assertEquals(fast, res.getEdges().iterator().next().getLine());
+    assertTrue(prof.covers(new BusTime(10, 20)));
+    assertFalse(prof.covers(new BusTime(10, 21)));
+  }
+
+  /**
+   * Checks that the profile yields the same travel times as single queries.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void sameAsSingle() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    final RoutingAlgorithm scan = new ConnectionScanRouteFinder();
+    final BusTime start = new BusTime(7, 45);
+    for(final BusStation s : man.getStations()) {
+      final RoutingProfile prof = RoutingProfile.compute(man, s, start, 30, 3, mth, 5);
+      for(int min = 0; min <= 30; min += 10) {
+        final BusTime time = start.later(min, 0);
+        final RoutingResult[] expected = scan.findRoutes(man, s, null, time, 3, mth, 5);
+        final RoutingResult[] actual = prof.getResults(time);
+        for(int i = 0; i <= man.maxId(); ++i) {
+          assertEquals(expected[i].isReachable(), actual[i].isReachable());
+          if(expected[i].isReachable()) {
+            assertEquals(expected[i].seconds(), actual[i].seconds());
+          }
+        }
+      }
+    }
+  }
+
+}
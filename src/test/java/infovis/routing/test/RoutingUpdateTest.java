@@ -0,0 +1,104 @@
+package infovis.routing.test;
+
+import static infovis.data.BusTime.*;
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusEdge;
+import infovis.data.BusLine;
+import infovis.data.BusStation;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.RaptorRouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+import infovis.routing.RoutingUpdate;
+import infovis.util.Resource;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link RoutingUpdate} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class RoutingUpdateTest {
+
+  /**
+   * Checks that routes are kept until their first bus leaves.
+   * 
+   * @throws InterruptedException exception
+   */
+  @Test
+  public void keepUntilDeparture() throws InterruptedException {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusLine line = builder.createLine("1", "1", null, Color.RED);
+    final BusStation a = builder.createStation("a", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("b", "1", 0, 0, 0, 0);
+    final BusEdge ab = builder.addEdge(a, line, 0, b, new BusTime(0, 10),
+        new BusTime(0, 20));
+    final BusStationManager man = builder.finish();
+    final RoutingAlgorithm algo = new RaptorRouteFinder();
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+
+    final RoutingUpdate first = RoutingUpdate.of(man, a, MIDNIGHT, 5, mth, 0, algo,
+        algo.findRoutes(man, a, null, MIDNIGHT, 5, mth, 0));
+    assertTrue(first.answers(a, 5, mth, 0, algo));
+    assertFalse(first.answers(b, 5, mth, 0, algo));
+    assertEquals(new BusTime(0, 10, 1), first.getNextChange());
+
+    final RoutingUpdate same = first.shift(new BusTime(0, 10));
+    assertFalse(same.hasChanged());
+    final RoutingResult r = same.getRoutes()[b.getId()];
+    assertEquals(10 * SECONDS_PER_MINUTE, r.seconds());
+    assertEquals(new BusTime(0, 10), r.getStartTime());
+    assertEquals(Arrays.asList(ab), new ArrayList<BusEdge>(r.getEdges()));
+    assertEquals(new BusTime(0, 10, 1), same.getNextChange());
+
+    // the bus has left, the next one arrives after more than a day
+    assertNull(same.shift(new BusTime(0, 11)));
+    final RoutingUpdate next = same.later(new BusTime(0, 11));
+    assertFalse(next.getRoutes()[b.getId()].isReachable());
+    assertTrue(next.hasChanged());
+    assertEquals(b.getId(), next.getChanged().nextSetBit(0));
+    assertEquals(1, next.getChanged().cardinality());
+  }
+
+  /**
+   * Checks that updated routes are as fast as routes computed from scratch.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void sameAsFresh() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    final RoutingAlgorithm algo = new RaptorRouteFinder();
+    for(final BusStation s : man.getStations()) {
+      if(s.getId() % 10 != 0) {
+        continue;
+      }
+      BusTime time = NOON;
+      RoutingUpdate update = RoutingUpdate.of(man, s, time, 3, mth, 5, algo,
+          algo.findRoutes(man, s, null, time, 3, mth, 5));
+      for(final int step : new int[] { 1, 1, 60, 600}) {
+        time = time.later(0, step);
+        // nothing is routed before the next change
+        final RoutingUpdate moved = update.shift(time);
+        update = moved != null ? moved : update.later(time);
+        final RoutingResult[] expected = algo.findRoutes(man, s, null, time, 3, mth, 5);
+        final RoutingResult[] actual = update.getRoutes();
+        for(int i = 0; i <= man.maxId(); ++i) {
+          assertEquals(expected[i].isReachable(), actual[i].isReachable());
+          if(expected[i].isReachable()) {
+            assertEquals(expected[i].seconds(), actual[i].seconds());
+          }
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,18 @@
+package infovis.routing.test;
+
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.TimeDependentRouteFinder;
+
+/**
+ * Tests for the {@link TimeDependentRouteFinder} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class TimeDependentRouteFinderTest extends RoutingAlgorithmTest {
+
+  @Override
+  protected RoutingAlgorithm algorithm() {
+    return new TimeDependentRouteFinder();
+  }
+
+}
@@ -0,0 +1,223 @@
+package infovis.routing.test;
+
+import static infovis.data.BusTime.*;
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.ConnectionScanRouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+import infovis.routing.TravelTimeCube;
+import infovis.util.Resource;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link TravelTimeCube} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class TravelTimeCubeTest {
+
+  /**
+   * Checks that looked up travel times are the routed ones rounded up to full
+   * minutes, starting with the next time slot.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void sameAsRouted() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final int mth = man.getMaxTimeHours() * MINUTES_PER_HOUR;
+    final File file = File.createTempFile("cube", ".bin");
+    try {
+      TravelTimeCube.build(man, file, 6 * MINUTES_PER_HOUR, 3, mth, 5);
+      final TravelTimeCube cube = TravelTimeCube.open(man, file);
+      assertTrue(cube.answers(3, mth, 5));
+      assertFalse(cube.answers(3, mth, 6));
+
+      final RoutingAlgorithm scan = new ConnectionScanRouteFinder();
+      final BusTime before = NOON.later(0, -30);
+      for(final BusStation s : man.getStations()) {
+        if(s.getId() % 10 != 0) {
+          continue;
+        }
+        final RoutingResult[] expected = scan.findRoutes(man, s, null, NOON, 3, mth, 5);
+        final RoutingResult[] actual = cube.routes(man, s, before);
+        for(int i = 0; i <= man.maxId(); ++i) {
+          final RoutingResult r = expected[i];
+          assertEquals(r.isStartNode(), actual[i].isStartNode());
+          if(r.isStartNode()) {
+            continue;
+          }
+          final int secs = cube.seconds(s.getId(), i, before);
+          final int min = (r.seconds() + SECONDS_PER_MINUTE - 1) / SECONDS_PER_MINUTE;
+          if(!r.isReachable() || 30 + min * SECONDS_PER_MINUTE > mth * SECONDS_PER_MINUTE) {
+            assertEquals(-1, secs);
+            assertFalse(actual[i].isReachable());
+            continue;
+          }
+          assertEquals(30 + min * SECONDS_PER_MINUTE, secs);
+          assertEquals(secs, actual[i].seconds());
+          assertEquals(before, actual[i].getStartTime());
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Creates two stations with a bus from the first to the second one.
+   * 
+   * @param walk The walking time between the stations in seconds.
+   * @param cache The cache folder, may be <code>null</code>.
+   * @return The bus data.
+   */
+  private static BusStationManager twoStations(final int walk, final File cache) {
+    final BusDataBuilder builder = new BusDataBuilder(null);
+    final BusStation a = builder.createStation("a", "0", 0, 0, 0, 0);
+    final BusStation b = builder.createStation("b", "1", 0, 0, 0, 0);
+    builder.addEdge(a, builder.createLine("1", "1", null, Color.RED), 0, b,
+        new BusTime(0, 10), new BusTime(0, 20));
+    builder.setWalkingDistance(a, b, walk);
+    if(cache != null) {
+      builder.setCache(new Resource(null, cache.getPath(), (String) null, null));
+    }
+    return builder.finish();
+  }
+
+  /**
+   * Checks that a cube is not used for other bus data.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void otherData() throws Exception {
+    final BusStationManager man = twoStations(600, null);
+    final File file = File.createTempFile("cube", ".bin");
+    try {
+      TravelTimeCube.build(man, file, 30, 3, 60, 0);
+      final TravelTimeCube cube = TravelTimeCube.open(man, file);
+      assertEquals(20 * SECONDS_PER_MINUTE, cube.seconds(0, 1, MIDNIGHT));
+      // the bus has left, the next one leaves tomorrow
+      assertEquals(-1, cube.seconds(0, 1, new BusTime(0, 11)));
+      assertEquals(-1, cube.seconds(1, 0, MIDNIGHT));
+      for(final BusStationManager other : new BusStationManager[] {
+          BusDataBuilder.load(new Resource("konstanz")), twoStations(300, null)}) {
+        try {
+          TravelTimeCube.open(other, file);
+          fail("cube of other data opened");
+        } catch(final IOException e) {
+          // expected
+        }
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Checks that a cube whose build was aborted is not opened.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void aborted() throws Exception {
+    final BusStationManager man = twoStations(600, null);
+    final File file = File.createTempFile("cube", ".bin");
+    final BusStationEnumerator failing = new BusStationEnumerator() {
+
+      /** The number of calls. */
+      private int calls;
+
+      @Override
+      public Collection<BusStation> getStations() {
+        // the stations are requested again for every time slot
+        if(++calls > 5) throw new IllegalStateException("aborted");
+        return man.getStations();
+      }
+
+      @Override
+      public int maxId() {
+        return man.maxId();
+      }
+
+      @Override
+      public BusStation getForId(final int id) {
+        return man.getForId(id);
+      }
+
+      @Override
+      public Resource getCache() {
+        return null;
+      }
+
+    };
+    try {
+      try {
+        TravelTimeCube.build(failing, file, 30, 3, 60, 0);
+        fail("build not aborted");
+      } catch(final IllegalStateException e) {
+        // expected
+      }
+      try {
+        TravelTimeCube.open(man, file);
+        fail("unfinished cube opened");
+      } catch(final IOException e) {
+        // expected
+      }
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Checks that a cube in the cache folder that belongs to other bus data is
+   * reported once and then ignored until it is written again.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void staleCache() throws Exception {
+    final File dir = File.createTempFile("cache", "");
+    assertTrue(dir.delete() && dir.mkdir());
+    final File file = new File(dir, TravelTimeCube.fileName(3, 60, 0));
+    final PrintStream err = System.err;
+    final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    try {
+      final BusStationManager man = twoStations(600, dir);
+      final BusStationManager other = twoStations(300, dir);
+      assertNull(TravelTimeCube.get(man, 3, 60, 0));
+      TravelTimeCube.build(other, file, 30, 3, 60, 0);
+      System.setErr(new PrintStream(log, true));
+      assertNull(TravelTimeCube.get(man, 3, 60, 0));
+      assertNull(TravelTimeCube.get(man, 3, 60, 0));
+      System.setErr(err);
+      final String msg = log.toString();
+      assertTrue(msg.startsWith("Ignoring travel time cube"));
+      assertEquals(-1, msg.indexOf("Ignoring", 1));
+      assertNotNull(TravelTimeCube.get(other, 3, 60, 0));
+
+      // a new file is tried again
+      TravelTimeCube.build(man, file, 60, 3, 60, 0);
+      assertTrue(file.setLastModified(file.lastModified() + 2000));
+      assertNotNull(TravelTimeCube.get(man, 3, 60, 0));
+    } finally {
+      System.setErr(err);
+      file.delete();
+      dir.delete();
+    }
+  }
+
+}
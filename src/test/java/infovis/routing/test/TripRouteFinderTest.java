@@ -0,0 +1,18 @@
+package infovis.routing.test;
+
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.TripRouteFinder;
+
+/**
+ * Tests for the {@link TripRouteFinder} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class TripRouteFinderTest extends RoutingAlgorithmTest {
+
+  @Override
+  protected RoutingAlgorithm algorithm() {
+    return new TripRouteFinder();
+  }
+
+}
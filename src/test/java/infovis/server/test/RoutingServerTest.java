@@ -0,0 +1,196 @@
+package infovis.server.test;
+
+import static org.junit.Assert.*;
+import infovis.data.BusDataBuilder;
+import infovis.data.BusStation;
+import infovis.data.BusStationEnumerator;
+import infovis.data.BusStationManager;
+import infovis.data.BusTime;
+import infovis.routing.RouteFinder;
+import infovis.routing.RoutingAlgorithm;
+import infovis.routing.RoutingResult;
+import infovis.server.RoutingServer;
+import infovis.util.Resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.BitSet;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link RoutingServer} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class RoutingServerTest {
+
+  /**
+   * Sends a request.
+   * 
+   * @param server The server.
+   * @param query The path and query.
+   * @param status The expected status code.
+   * @return The answer.
+   * @throws Exception exception
+   */
+  private static String get(final RoutingServer server, final String query,
+      final int status) throws Exception {
+    final URL url = new URL("http://localhost:" + server.getPort() + query);
+    final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    assertEquals(status, conn.getResponseCode());
+    final InputStream in = status == 200 ? conn.getInputStream() : conn.getErrorStream();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      final byte[] buf = new byte[8192];
+      for(int n; (n = in.read(buf)) >= 0;) {
+        out.write(buf, 0, n);
+      }
+    } finally {
+      in.close();
+    }
+    return out.toString("UTF-8");
+  }
+
+  /**
+   * Tests the routing endpoints.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void routes() throws Exception {
+    final BusStationManager man = BusDataBuilder.load(new Resource("konstanz"));
+    final RoutingServer server = new RoutingServer(man, 0);
+    server.start();
+    try {
+      routes(man, server);
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * Checks the travel times against a direct routing.
+   * 
+   * @param man The bus stations.
+   * @param server The server.
+   * @throws Exception exception
+   */
+  private static void routes(final BusStationManager man, final RoutingServer server)
+      throws Exception {
+    final RoutingResult[] routes = new RouteFinder().findRoutes(man, man.getForId(1), null,
+        new BusTime(12, 0), RoutingServer.WAIT, man.getMaxTimeHours()
+            * BusTime.MINUTES_PER_HOUR, RoutingServer.WALK);
+    final String all = get(server, "/routes?from=1&time=12:00", 200);
+    assertTrue(all.startsWith("{\"from\":1,\"time\":\"12:00:00\",\"routes\":["));
+    final RoutingResult r = routes[20];
+    assertTrue(all.contains("{\"to\":20,\"seconds\":" + r.seconds() + "}"));
+    final String one = get(server, "/route?from=1&to=20&time=12:00", 200);
+    assertTrue(one.contains("\"reachable\":true,\"seconds\":" + r.seconds() + ","));
+    assertTrue(one.contains("\"start\":\"12:00:00\""));
+    final String iso = get(server, "/isochrone?from=1&time=12:00&minutes=10", 200);
+    assertTrue(iso.contains("\"id\":1,"));
+    for(final RoutingResult s : routes) {
+      if(s.isReachable() && s.seconds() > 10 * BusTime.SECONDS_PER_MINUTE) {
+        assertFalse(iso.contains("\"id\":" + s.getEnd().getId() + ","));
+      }
+    }
+  }
+
+  /**
+   * Tests the answers to invalid requests.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void errors() throws Exception {
+    final RoutingServer server = new RoutingServer(
+        BusDataBuilder.load(new Resource("konstanz")), 0);
+    server.start();
+    try {
+      errors(server);
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * Checks the answers to invalid requests.
+   * 
+   * @param server The server.
+   * @throws Exception exception
+   */
+  private static void errors(final RoutingServer server) throws Exception {
+    assertTrue(get(server, "/routes?from=99999", 404).contains("\"error\""));
+    get(server, "/routes?from=1&time=12:60", 400);
+    get(server, "/routes?from=1&wait=-1", 400);
+    get(server, "/routes?from=1&algo=100", 400);
+    get(server, "/isochrone?from=1", 400);
+    assertTrue(get(server, "/routes", 400).contains("Missing parameter: from"));
+    assertTrue(get(server, "/route?from=1", 400).contains("Missing parameter: to"));
+    // a huge change time is clamped instead of overflowing
+    get(server, "/route?from=1&to=2&wait=" + Integer.MAX_VALUE, 200);
+    get(server, "/routes?from=1&time=12:00&deadline=0", 504);
+    get(server, "/routes?from=1&time=12:00", 200);
+  }
+
+  /**
+   * Checks that a request giving up on a shared routing does not fail the
+   * other requests waiting for it.
+   * 
+   * @throws Exception exception
+   */
+  @Test
+  public void sharedDeadlines() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final RoutingAlgorithm blocked = new RoutingAlgorithm() {
+
+      @Override
+      public RoutingResult[] findRoutes(final BusStationEnumerator bse,
+          final BusStation station, final BitSet dests, final BusTime start,
+          final int wait, final int maxDuration, final int maxWalk)
+              throws InterruptedException {
+        started.countDown();
+        release.await();
+        return new RouteFinder().findRoutes(bse, station, dests, start, wait,
+            maxDuration, maxWalk);
+      }
+
+    };
+    final RoutingServer server = new RoutingServer(
+        BusDataBuilder.load(new Resource("konstanz")), 0, new RoutingAlgorithm[] { blocked});
+    server.start();
+    try {
+      final String query = "/routes?from=1&time=12:00&deadline=";
+      final Throwable[] failure = new Throwable[1];
+      final Thread patient = new Thread() {
+
+        @Override
+        public void run() {
+          try {
+            get(server, query + 60000, 200);
+          } catch(final Throwable t) {
+            failure[0] = t;
+          }
+        }
+
+      };
+      patient.start();
+      started.await();
+      get(server, query + 0, 504);
+      release.countDown();
+      patient.join();
+      if(failure[0] != null) throw new AssertionError(failure[0]);
+      // the finished routing stays in the cache
+      get(server, query + 0, 200);
+    } finally {
+      release.countDown();
+      server.stop();
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package infovis.util.test;
+
+import static org.junit.Assert.*;
+import infovis.util.IndexedHeap;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link IndexedHeap} class.
+ * 
+ * @author agent <agent@local>
+ */
+public class IndexedHeapTest {
+
+  /**
+   * Checks that ids are polled in order of their priorities.
+   */
+  @Test
+  public void order() {
+    final Random rnd = new Random(42);
+    final IndexedHeap heap = new IndexedHeap(4);
+    final long[] prio = new long[1000];
+    for(int id = 0; id < prio.length; ++id) {
+      prio[id] = rnd.nextInt(10000);
+      heap.add(id, prio[id]);
+    }
+    for(int id = 0; id < prio.length; id += 3) {
+      final long p = prio[id] - rnd.nextInt(5000);
+      assertEquals(p < prio[id], heap.decreaseKey(id, p));
+      prio[id] = Math.min(prio[id], p);
+    }
+    assertEquals(prio.length, heap.size());
+    final long[] sorted = prio.clone();
+    Arrays.sort(sorted);
+    for(final long p : sorted) {
+      final int id = heap.poll();
+      assertFalse(heap.contains(id));
+      assertEquals(p, prio[id]);
+    }
+    assertTrue(heap.isEmpty());
+    assertEquals(-1, heap.poll());
+  }
+
+  /**
+   * Checks that only contained ids can be decreased.
+   */
+  @Test
+  public void decrease() {
+    final IndexedHeap heap = new IndexedHeap(1);
+    heap.add(7, 10);
+    heap.add(3, 5);
+    assertFalse(heap.decreaseKey(1, 0));
+    assertFalse(heap.decreaseKey(7, 10));
+    assertTrue(heap.decreaseKey(7, 1));
+    assertEquals(1, heap.getPriority(7));
+    assertEquals(7, heap.poll());
+    assertFalse(heap.decreaseKey(7, 0));
+    heap.clear();
+    assertTrue(heap.isEmpty());
+    assertFalse(heap.contains(3));
+  }
+
+}